@@ -1,7 +1,10 @@
 package com.usiv;
 
+import com.usiv.dto.PdfGenerationResponse;
 import com.usiv.service.PdfService;
-import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -37,12 +40,13 @@ public class MainApp {
             data.put("textoObservacion", "La validación se realizó sin inconvenientes. El paciente se encontraba en el domicilio registrado.");
             data.put("textoUsoInforme", "Este informe técnico podrá ser utilizado para fines de fiscalización médica, licencias laborales u otros trámites que requieran verificación de identidad y ubicación.");
 
-            byte[] signedPdf = pdfService.generateAndSignPdf(data);
-
-            try (FileOutputStream fos = new FileOutputStream("pdf-firmado.pdf")) {
-                fos.write(signedPdf);
+            PdfGenerationResponse response = pdfService.generateAndSignPdf(data);
+            if (!response.isSuccess()) {
+                throw new IllegalStateException(response.getMessage());
             }
 
+            Files.copy(Paths.get(response.getStoredPath()), Paths.get("pdf-firmado.pdf"), StandardCopyOption.REPLACE_EXISTING);
+
             System.out.println("✅ PDF firmado generado con éxito: pdf-firmado.pdf");
 
         } catch (Exception e) {
@@ -55,6 +55,7 @@ public class SecurityConfig {
                 .antMatchers("/api/health").permitAll()
                 .antMatchers("/actuator/health").permitAll()
                 .antMatchers("/download/**").permitAll() // Descargas públicas con token en URL
+                .antMatchers("/q/**").permitAll() // Enlaces cortos del QR (id aleatorio)
                 .antMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
                 // Endpoints protegidos
                 .antMatchers("/api/pdf/**").authenticated()
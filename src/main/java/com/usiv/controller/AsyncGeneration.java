@@ -0,0 +1,67 @@
+package com.usiv.controller;
+
+import com.usiv.service.GenerationExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Puente entre los endpoints de generación y {@link GenerationExecutor}: el hilo de Tomcat
+ * encola el trabajo y vuelve al servidor; la respuesta se despacha cuando termina.
+ * Las excepciones de la tarea se tratan como si las hubiera lanzado el controlador y el
+ * timeout responde 503, igual que cualquier petición asíncrona vencida.
+ */
+final class AsyncGeneration {
+
+    static final String RETRY_AFTER_SECONDS = "5";
+
+    private AsyncGeneration() {}
+
+    /**
+     * Ejecuta {@code task} en el pool de generación. Con la cola llena se responde de inmediato
+     * con {@code busy} sin ocupar el pool.
+     */
+    static <T> DeferredResult<T> defer(GenerationExecutor executor, Callable<T> task, T busy) {
+        DeferredResult<T> result = new DeferredResult<>(executor.getTimeoutMs());
+        CompletableFuture<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            result.setResult(busy);
+            return result;
+        }
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.setResult(value);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                result.setErrorResult(cause instanceof Exception ? cause : new IllegalStateException(cause));
+            }
+        });
+        // Si la petición vence o el cliente se desconecta, lo que siga en cola no se genera
+        result.onTimeout(() -> {
+            result.setErrorResult(new AsyncRequestTimeoutException());
+            future.cancel(false);
+        });
+        result.onError(error -> future.cancel(false));
+        return result;
+    }
+
+    /**
+     * Respuesta 503 con {@code Retry-After} para cuando la cola de generación está llena.
+     */
+    static <B> ResponseEntity<B> busy(B body) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+            .body(body);
+    }
+}
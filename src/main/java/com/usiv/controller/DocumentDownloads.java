@@ -0,0 +1,212 @@
+package com.usiv.controller;
+
+import com.usiv.service.DocumentCache;
+import com.usiv.service.DocumentIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Envío de documentos almacenados. Los recién firmados se escriben desde {@link DocumentCache};
+ * el resto no pasa por el heap: con el conector NIO de Tomcat se usa sendfile (el kernel copia
+ * del archivo al socket) y, si no está disponible, se transfiere desde el {@link FileChannel}
+ * al stream de la respuesta por bloques.
+ *
+ * <p>Responde {@code 304} a {@code If-None-Match}/{@code If-Modified-Since} con el checksum
+ * como ETag y la fecha de creación como {@code Last-Modified}, y {@code 206} a un
+ * {@code Range} de un solo tramo (respetando {@code If-Range}); con varios tramos se envía el
+ * documento completo, como permite RFC 7233.
+ */
+@Component
+public class DocumentDownloads {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentDownloads.class);
+
+    // Atributos de petición con los que Tomcat envía un archivo por sendfile al terminar el servlet
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // Mismo umbral que el DefaultServlet de Tomcat: por debajo, sendfile no compensa el paso por el poller
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    @Value("${pdf.download.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter full;
+    private Counter partial;
+    private Counter notModified;
+    private Counter unsatisfiable;
+    private Counter sendfileBytes;
+    private Counter streamBytes;
+    private Counter cacheBytes;
+
+    @PostConstruct
+    public void init() {
+        full = result("full");
+        partial = result("partial");
+        notModified = result("not_modified");
+        unsatisfiable = result("unsatisfiable");
+        sendfileBytes = Counter.builder("pdf.downloads.bytes").tag("transfer", "sendfile").baseUnit("bytes")
+            .description("Bytes de documentos enviados por tipo de transferencia").register(meterRegistry);
+        streamBytes = Counter.builder("pdf.downloads.bytes").tag("transfer", "stream").baseUnit("bytes")
+            .description("Bytes de documentos enviados por tipo de transferencia").register(meterRegistry);
+        cacheBytes = Counter.builder("pdf.downloads.bytes").tag("transfer", "cache").baseUnit("bytes")
+            .description("Bytes de documentos enviados por tipo de transferencia").register(meterRegistry);
+    }
+
+    private Counter result(String result) {
+        return Counter.builder("pdf.downloads").tag("result", result)
+            .description("Descargas de documentos por resultado").register(meterRegistry);
+    }
+
+    /**
+     * Escribe la respuesta completa (cabeceras y contenido) para {@code document}. El
+     * controlador debe devolver {@code null} después: la respuesta ya está resuelta.
+     *
+     * @param inline {@code true} para mostrarlo en el navegador, {@code false} para descargarlo
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      DocumentIndex.Document document, boolean inline) throws IOException {
+        // Antes de escribir cabeceras, para que el controlador aún pueda responder si el archivo
+        // ya no existe; además Tomcat exige la ruta canónica para sendfile
+        Path file = document.getPath().toRealPath();
+        String etag = PdfResponses.etag(document.getChecksum());
+        long lastModified = document.getCreatedAt().toEpochMilli();
+
+        // Evalúa If-None-Match / If-Modified-Since y deja ETag y Last-Modified en la respuesta
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            notModified.increment();
+            return;
+        }
+
+        long size = document.getSize();
+        long start = 0;
+        long length = size;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplies(request, etag, lastModified)) {
+            HttpRange single = singleRange(range);
+            if (single != null) {
+                try {
+                    start = single.getRangeStart(size);
+                    length = single.getRangeEnd(size) - start + 1;
+                } catch (IllegalArgumentException e) {
+                    length = -1;
+                }
+                if (length <= 0 || start >= size) {
+                    unsatisfiable.increment();
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+            }
+        }
+        (length < size ? partial : full).increment();
+
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setContentLengthLong(length);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+            (inline ? "inline" : "attachment") + "; filename=\"" + document.getFilename() + "\"");
+        response.setHeader(PdfResponses.CHECKSUM_HEADER, document.getChecksum());
+
+        if ("HEAD".equals(request.getMethod()) || length == 0) {
+            return;
+        }
+
+        byte[] cached = documentCache.get(document);
+        if (cached != null) {
+            try {
+                response.getOutputStream().write(cached, (int) start, (int) length);
+                cacheBytes.increment(length);
+            } catch (IOException e) {
+                logger.debug("Descarga interrumpida: {}", document.getFilename(), e);
+            }
+            return;
+        }
+
+        if (sendfileEnabled && length >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            sendfileBytes.increment(length);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, out);
+                if (sent <= 0) {
+                    throw new IOException("Documento más corto que su tamaño registrado: " + document.getPath());
+                }
+                position += sent;
+            }
+            streamBytes.increment(length);
+        } catch (IOException e) {
+            // Lo habitual es que el cliente cerró la conexión (un visor que cancela un tramo)
+            logger.debug("Descarga interrumpida: {}", document.getFilename(), e);
+        }
+    }
+
+    /**
+     * Sin {@code If-Range}, el {@code Range} aplica. Con él, sólo si el documento sigue siendo
+     * el que el cliente tenía: mismo ETag (comparación fuerte) o misma fecha.
+     */
+    private static boolean rangeApplies(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * El único tramo pedido, o {@code null} si la cabecera no es válida o pide varios tramos
+     * (en ambos casos se ignora y se envía el documento completo).
+     */
+    private static HttpRange singleRange(String header) {
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
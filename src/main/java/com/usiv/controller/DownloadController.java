@@ -1,18 +1,19 @@
 package com.usiv.controller;
 
+import com.usiv.service.DocumentIndex;
 import com.usiv.service.FileManagementService;
 import com.usiv.security.JwtTokenProvider;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 
 @RestController
@@ -26,15 +27,21 @@ public class DownloadController {
     @Autowired
     private JwtTokenProvider jwtTokenProvider;
 
+    @Autowired
+    private DocumentDownloads documentDownloads;
+
     @GetMapping("/{filename}")
     @Operation(
         summary = "Descarga pública de PDF",
-        description = "Permite la descarga pública de un PDF usando un token de descarga válido"
+        description = "Permite la descarga pública de un PDF usando un token de descarga válido. "
+            + "Admite Range (206), If-None-Match/If-Modified-Since (304) e If-Range"
     )
     public ResponseEntity<?> downloadFile(
             @PathVariable String filename,
             @Parameter(description = "Token JWT para autorizar la descarga")
-            @RequestParam String token) {
+            @RequestParam String token,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
         
         try {
             // Validar token de descarga
@@ -50,7 +57,7 @@ public class DownloadController {
 
             // Verificar que el token es de tipo descarga
             String tokenType = jwtTokenProvider.getTokenType(token);
-            if (!"download".equals(tokenType)) {
+            if (!JwtTokenProvider.DOWNLOAD_TOKEN_TYPE.equals(tokenType)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(Map.of(
@@ -73,8 +80,8 @@ public class DownloadController {
             }
 
             // Obtener el archivo
-            byte[] fileData = fileManagementService.getFile(filename);
-            if (fileData == null) {
+            DocumentIndex.Document document = fileManagementService.getDocumentInfo(filename);
+            if (document == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(Map.of(
@@ -85,16 +92,11 @@ public class DownloadController {
                     ));
             }
 
-            // Preparar respuesta de descarga
-            ByteArrayResource resource = new ByteArrayResource(fileData);
-            
-            return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_PDF_VALUE)
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileData.length))
-                .header("X-Download-Success", "true")
-                .header("X-File-Size", String.valueOf(fileData.length))
-                .body(resource);
+            // Se envía desde el archivo; la respuesta queda escrita. El tamaño total va en
+            // Content-Length (200) o en Content-Range (206)
+            httpResponse.setHeader("X-Download-Success", "true");
+            documentDownloads.serve(httpRequest, httpResponse, document, false);
+            return null;
                 
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -130,7 +132,7 @@ public class DownloadController {
 
             // Verificar que el token es de tipo descarga
             String tokenType = jwtTokenProvider.getTokenType(token);
-            if (!"download".equals(tokenType)) {
+            if (!JwtTokenProvider.DOWNLOAD_TOKEN_TYPE.equals(tokenType)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of(
                         "error", "Token no autorizado",
@@ -149,8 +151,8 @@ public class DownloadController {
             }
 
             // Verificar si el archivo existe
-            boolean exists = fileManagementService.fileExists(filename);
-            if (!exists) {
+            DocumentIndex.Document document = fileManagementService.getDocumentInfo(filename);
+            if (document == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of(
                         "error", "Archivo no encontrado",
@@ -159,15 +161,12 @@ public class DownloadController {
                     ));
             }
 
-            // Obtener información del archivo
-            byte[] fileData = fileManagementService.getFile(filename);
-            String checksum = fileManagementService.calculateChecksum(fileData);
-            
+            // Información desde los metadatos del documento, sin leer el archivo
             return ResponseEntity.ok(Map.of(
                 "filename", filename,
                 "exists", true,
-                "size", fileData.length,
-                "checksum", checksum,
+                "size", document.getSize(),
+                "checksum", document.getChecksum(),
                 "contentType", "application/pdf",
                 "downloadable", true
             ));
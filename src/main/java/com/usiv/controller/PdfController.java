@@ -1,25 +1,39 @@
 package com.usiv.controller;
 
+import com.usiv.dto.ConsolidatedPdfRequest;
 import com.usiv.dto.PdfGenerationRequest;
 import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.BatchGenerationService;
+import com.usiv.service.DocumentIndex;
 import com.usiv.service.FileManagementService;
+import com.usiv.service.GenerationExecutor;
+import com.usiv.service.GenerationJobService;
+import com.usiv.service.IdempotencyService;
 import com.usiv.service.PdfService;
+import com.usiv.service.SignatureVerificationService;
 import com.usiv.security.JwtTokenProvider;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -27,6 +41,10 @@ import java.util.Map;
 @Tag(name = "PDF Management", description = "API para generación, firma y gestión de documentos PDF")
 public class PdfController {
 
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 200;
+
     @Autowired
     private PdfService pdfService;
 
@@ -36,24 +54,82 @@ public class PdfController {
     @Autowired
     private JwtTokenProvider jwtTokenProvider;
 
+    @Autowired
+    private SignatureVerificationService signatureVerificationService;
+
+    @Autowired
+    private BatchGenerationService batchGenerationService;
+
+    @Autowired
+    private GenerationJobService generationJobService;
+
+    @Autowired
+    private GenerationExecutor generationExecutor;
+
+    @Autowired
+    private DocumentDownloads documentDownloads;
+
     @PostMapping("/generate")
     @Operation(
         summary = "Generar y firmar PDF",
-        description = "Genera un PDF con los datos proporcionados, lo firma digitalmente y lo almacena",
+        description = "Genera un PDF con los datos proporcionados, lo firma digitalmente y lo almacena. "
+            + "Con async=true responde 202 con el id del trabajo, consultable en /jobs/{jobId}; "
+            + "callbackUrl recibe el resultado por POST al terminar. Con Accept: application/pdf devuelve "
+            + "directamente el documento firmado (checksum en X-Checksum-SHA256). Una solicitud repetida "
+            + "(mismo contenido o misma Idempotency-Key) dentro de la ventana configurada devuelve el documento "
+            + "ya generado, con la cabecera Idempotent-Replayed. La generación corre en un pool dedicado; con "
+            + "la cola llena responde 503 con Retry-After",
         security = @SecurityRequirement(name = "bearerAuth")
     )
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
-    public ResponseEntity<PdfGenerationResponse> generatePdf(
-            @Valid @RequestBody PdfGenerationRequest request) {
+    public DeferredResult<ResponseEntity<?>> generatePdf(
+            @Valid @RequestBody PdfGenerationRequest request,
+            @RequestParam(defaultValue = "false") boolean async,
+            @RequestParam(required = false) String callbackUrl,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Authentication authentication) {
         
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return completed(ResponseEntity.badRequest().body(Map.of("error",
+                IDEMPOTENCY_KEY_HEADER + " debe tener entre 1 y " + MAX_IDEMPOTENCY_KEY_LENGTH + " caracteres")));
+        }
+        // La clave del cliente se acota a su usuario para que no choque con la de otro
+        String scopedKey = idempotencyKey != null ? authentication.getName() + ":" + idempotencyKey : null;
+
+        if (async) {
+            return completed(submitJob(request, callbackUrl, scopedKey, authentication));
+        }
+
+        return AsyncGeneration.defer(generationExecutor,
+            () -> generateNow(request, accept, scopedKey), generationBusy());
+    }
+
+    private ResponseEntity<?> generateNow(PdfGenerationRequest request, String accept, String scopedKey) {
         try {
-            PdfGenerationResponse response = pdfService.generateAndSignPdf(request);
+            PdfGenerationResponse response = pdfService.generateAndSignPdf(request, scopedKey);
             
             if (response.isSuccess()) {
-                return ResponseEntity.ok(response);
+                // Con Accept: application/pdf se envía el documento firmado en lugar del JSON
+                ResponseEntity<?> ok = PdfResponses.prefersPdf(accept)
+                    ? PdfResponses.pdf(response)
+                    : ResponseEntity.ok(response);
+                if (response.isReplayed()) {
+                    return ResponseEntity.status(ok.getStatusCode())
+                        .headers(ok.getHeaders())
+                        .header(IDEMPOTENT_REPLAYED_HEADER, "true")
+                        .body(ok.getBody());
+                }
+                return ok;
             } else {
                 return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
             }
+        } catch (IdempotencyService.KeyConflictException e) {
+            // Idempotency-Key reutilizada con otro contenido
+            return ResponseEntity.unprocessableEntity().body(PdfGenerationResponse.error(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            // Tipo de informe o perfil de salida desconocido
+            return ResponseEntity.badRequest().body(PdfGenerationResponse.error(e.getMessage()));
         } catch (Exception e) {
             PdfGenerationResponse errorResponse = new PdfGenerationResponse();
             errorResponse.setSuccess(false);
@@ -62,15 +138,128 @@ public class PdfController {
         }
     }
 
+    private static DeferredResult<ResponseEntity<?>> completed(ResponseEntity<?> response) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        result.setResult(response);
+        return result;
+    }
+
+    private static ResponseEntity<?> generationBusy() {
+        return AsyncGeneration.busy(Map.of("error", "Cola de generación llena, reintente más tarde"));
+    }
+
+    private ResponseEntity<?> submitJob(PdfGenerationRequest request, String callbackUrl, String scopedKey,
+                                        Authentication authentication) {
+        try {
+            GenerationJobService.Job job = generationJobService.submit(request, authentication.getName(), callbackUrl, scopedKey);
+            if (job == null) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", "Cola de trabajos llena, reintente más tarde"));
+            }
+
+            String statusUrl = "/api/v1/pdf/jobs/" + job.getId();
+            Map<String, Object> response = new HashMap<>();
+            response.put("jobId", job.getId());
+            response.put("status", job.getStatus());
+            response.put("statusUrl", statusUrl);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .header(HttpHeaders.LOCATION, statusUrl)
+                .body(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Error al registrar el trabajo: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    @Operation(
+        summary = "Estado de trabajo asíncrono",
+        description = "Devuelve el estado de un trabajo de generación y, si terminó, su resultado",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> getJobStatus(@PathVariable String jobId, Authentication authentication) {
+        GenerationJobService.Job job = generationJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(Map.of("error", "Trabajo no encontrado"));
+        }
+
+        // Sólo quien lo envió o un administrador puede ver el resultado
+        boolean admin = authentication.getAuthorities().stream()
+            .anyMatch(a -> "ROLE_ADMIN".equals(a.getAuthority()));
+        if (!admin && !authentication.getName().equals(job.getOwner())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(Map.of("error", "Trabajo no encontrado"));
+        }
+        return ResponseEntity.ok(job.toView());
+    }
+
+    @PostMapping(value = "/generate/batch",
+        consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+        produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(
+        summary = "Generar y firmar PDFs por lote",
+        description = "Recibe un arreglo JSON o NDJSON de solicitudes y devuelve en NDJSON un resultado por elemento "
+            + "a medida que termina (campo 'index' con la posición en el lote). Un elemento inválido no detiene el lote",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> generateBatch(HttpServletRequest httpRequest) {
+        StreamingResponseBody body = output -> batchGenerationService.process(httpRequest.getInputStream(), output);
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_NDJSON)
+            .body(body);
+    }
+
+    @PostMapping("/generate/consolidated")
+    @Operation(
+        summary = "Generar PDF consolidado",
+        description = "Genera un único PDF firmado con todos los informes recibidos (por ejemplo, las validaciones "
+            + "de un paciente o de un período de licencia): cada informe empieza en una página nueva con su marcador "
+            + "y el documento lleva una sola firma. Con Accept: application/pdf devuelve directamente el documento. "
+            + "Comparte el pool de generación con /generate",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public DeferredResult<ResponseEntity<?>> generateConsolidated(
+            @Valid @RequestBody ConsolidatedPdfRequest request,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        return AsyncGeneration.defer(generationExecutor, () -> consolidateNow(request, accept), generationBusy());
+    }
+
+    private ResponseEntity<?> consolidateNow(ConsolidatedPdfRequest request, String accept) {
+        try {
+            PdfGenerationResponse response = pdfService.generateConsolidated(request);
+            if (!response.isSuccess()) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+            }
+            return PdfResponses.prefersPdf(accept) ? PdfResponses.pdf(response) : ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            // Demasiados informes o un tipo de informe desconocido
+            return ResponseEntity.badRequest().body(PdfGenerationResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(PdfGenerationResponse.error("Error interno del servidor: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/download/{filename}")
     @Operation(
         summary = "Descargar PDF",
-        description = "Descarga un PDF usando un token de descarga válido"
+        description = "Descarga un PDF usando un token de descarga válido. Admite Range (206), "
+            + "If-None-Match/If-Modified-Since (304) e If-Range"
     )
     public ResponseEntity<?> downloadPdf(
             @PathVariable String filename,
             @Parameter(description = "Token JWT para autorizar la descarga")
-            @RequestParam String token) {
+            @RequestParam String token,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
         
         try {
             // Validar token de descarga
@@ -81,7 +270,7 @@ public class PdfController {
 
             // Verificar que el token es de tipo descarga
             String tokenType = jwtTokenProvider.getTokenType(token);
-            if (!"download".equals(tokenType)) {
+            if (!JwtTokenProvider.DOWNLOAD_TOKEN_TYPE.equals(tokenType)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of("error", "Token no autorizado para descarga"));
             }
@@ -94,20 +283,15 @@ public class PdfController {
             }
 
             // Obtener el archivo
-            byte[] fileData = fileManagementService.getFile(filename);
-            if (fileData == null) {
+            DocumentIndex.Document document = fileManagementService.getDocumentInfo(filename);
+            if (document == null) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", "Archivo no encontrado"));
             }
 
-            // Preparar respuesta de descarga
-            ByteArrayResource resource = new ByteArrayResource(fileData);
-            
-            return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_PDF_VALUE)
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileData.length))
-                .body(resource);
+            // Se envía desde el archivo; la respuesta queda escrita
+            documentDownloads.serve(httpRequest, httpResponse, document, false);
+            return null;
                 
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -124,15 +308,14 @@ public class PdfController {
     @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
     public ResponseEntity<Map<String, Object>> getFileStatus(@PathVariable String filename) {
         try {
-            boolean exists = fileManagementService.fileExists(filename);
+            DocumentIndex.Document document = fileManagementService.getDocumentInfo(filename);
             Map<String, Object> response = new HashMap<>();
             response.put("filename", filename);
-            response.put("exists", exists);
+            response.put("exists", document != null);
             
-            if (exists) {
-                byte[] fileData = fileManagementService.getFile(filename);
-                response.put("size", fileData.length);
-                response.put("checksum", fileManagementService.calculateChecksum(fileData));
+            if (document != null) {
+                response.put("size", document.getSize());
+                response.put("checksum", document.getChecksum());
             }
             
             return ResponseEntity.ok(response);
@@ -142,6 +325,63 @@ public class PdfController {
         }
     }
 
+    @PostMapping(value = "/verify", consumes = {MediaType.MULTIPART_FORM_DATA_VALUE, MediaType.APPLICATION_FORM_URLENCODED_VALUE})
+    @Operation(
+        summary = "Verificar firmas de PDF",
+        description = "Verifica firma CAdES, cobertura del rango de bytes, cadena de certificados e integridad "
+            + "de uno o más PDFs subidos (campo 'file', repetible) o de un archivo almacenado (campo 'filename')",
+        security = @SecurityRequirement(name = "bearerAuth")
+    )
+    @PreAuthorize("hasRole('USER') or hasRole('ADMIN')")
+    public ResponseEntity<?> verifyPdf(
+            @RequestParam(value = "file", required = false) MultipartFile[] files,
+            @RequestParam(value = "filename", required = false) String filename) {
+
+        try {
+            List<String> names = new ArrayList<>();
+            List<byte[]> documents = new ArrayList<>();
+            if (files != null) {
+                for (MultipartFile file : files) {
+                    names.add(file.getOriginalFilename());
+                    documents.add(file.getBytes());
+                }
+            }
+            if (filename != null && !filename.isEmpty()) {
+                if (!fileManagementService.fileExists(filename)) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Archivo no encontrado"));
+                }
+                names.add(filename);
+                documents.add(fileManagementService.getFile(filename));
+            }
+
+            if (documents.isEmpty()) {
+                return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Debe enviar al menos un archivo ('file') o un nombre de archivo ('filename')"));
+            }
+
+            if (documents.size() == 1) {
+                return ResponseEntity.ok(signatureVerificationService.verify(names.get(0), documents.get(0)));
+            }
+
+            List<SignatureVerificationService.VerificationResult> results =
+                signatureVerificationService.verifyAll(names, documents);
+            Map<String, Object> response = new HashMap<>();
+            response.put("count", results.size());
+            response.put("allValid", results.stream().allMatch(SignatureVerificationService.VerificationResult::isValid));
+            response.put("results", results);
+            return ResponseEntity.ok(response);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(Map.of("error", "Verificación interrumpida"));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Error al verificar archivo: " + e.getMessage()));
+        }
+    }
+
     @DeleteMapping("/delete/{filename}")
     @Operation(
         summary = "Eliminar archivo",
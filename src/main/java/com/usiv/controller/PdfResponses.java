@@ -0,0 +1,131 @@
+package com.usiv.controller;
+
+import com.usiv.dto.PdfGenerationResponse;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Respuestas con el PDF firmado. El documento se envía desde el archivo ya guardado, sin
+ * cargarlo completo en memoria; el modo base64 en JSON se mantiene por compatibilidad y
+ * también se codifica al vuelo.
+ */
+final class PdfResponses {
+
+    static final String CHECKSUM_HEADER = "X-Checksum-SHA256";
+
+    private PdfResponses() {}
+
+    /**
+     * Indica si el cliente pidió explícitamente {@code application/pdf} antes que JSON.
+     * Los comodines no cuentan: sin preferencia explícita se mantiene la respuesta JSON.
+     */
+    static boolean prefersPdf(String accept) {
+        return MediaType.APPLICATION_PDF.equals(firstExplicit(accept, MediaType.APPLICATION_PDF, MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Indica si el cliente pidió explícitamente JSON antes que PDF.
+     */
+    static boolean prefersJson(String accept) {
+        return MediaType.APPLICATION_JSON.equals(firstExplicit(accept, MediaType.APPLICATION_PDF, MediaType.APPLICATION_JSON));
+    }
+
+    private static MediaType firstExplicit(String accept, MediaType... candidates) {
+        if (accept == null || accept.isEmpty()) {
+            return null;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType mediaType : accepted) {
+            if (mediaType.isWildcardType() || mediaType.isWildcardSubtype() || mediaType.getQualityValue() == 0) {
+                continue;
+            }
+            for (MediaType candidate : candidates) {
+                if (candidate.includes(mediaType)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    static ResponseEntity<Resource> pdf(PdfGenerationResponse response) throws IOException {
+        Path file = Paths.get(response.getStoredPath());
+        return pdfHeaders(response, file).body(new FileSystemResource(file));
+    }
+
+    /**
+     * Igual que {@link #pdf} para métodos cuyo tipo de retorno es {@link StreamingResponseBody}:
+     * Spring sólo la reconoce si está declarada en la firma del controlador.
+     */
+    static ResponseEntity<StreamingResponseBody> pdfStream(PdfGenerationResponse response) throws IOException {
+        Path file = Paths.get(response.getStoredPath());
+        StreamingResponseBody body = output -> Files.copy(file, output);
+        return pdfHeaders(response, file).body(body);
+    }
+
+    private static ResponseEntity.BodyBuilder pdfHeaders(PdfGenerationResponse response, Path file) throws IOException {
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_PDF)
+            .contentLength(Files.size(file))
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + response.getFilename() + "\"")
+            .eTag(etag(response.getChecksum()))
+            .header(CHECKSUM_HEADER, response.getChecksum());
+    }
+
+    /**
+     * ETag fuerte de un documento: su SHA-256, calculado al escribirlo. Los documentos no
+     * cambian después de publicados, así que identifica exactamente su contenido.
+     */
+    static String etag(String checksum) {
+        return "\"" + checksum + "\"";
+    }
+
+    /**
+     * Formato heredado de /firmar: {@code {"status":"ok","pdfBase64":"..."}}, escrito en
+     * streaming desde el archivo.
+     */
+    static ResponseEntity<StreamingResponseBody> base64Json(PdfGenerationResponse response) {
+        Path file = Paths.get(response.getStoredPath());
+        StreamingResponseBody body = output -> {
+            output.write("{\"status\":\"ok\",\"pdfBase64\":\"".getBytes(StandardCharsets.US_ASCII));
+            // El codificador escribe el relleno final al cerrarse; el flujo de la respuesta sigue abierto
+            try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(output) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                })) {
+                Files.copy(file, encoder);
+            }
+            output.write("\"}".getBytes(StandardCharsets.US_ASCII));
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(body);
+    }
+}
@@ -0,0 +1,137 @@
+package com.usiv.controller;
+
+import com.usiv.service.DocumentIndex;
+import com.usiv.service.FileManagementService;
+import com.usiv.service.QrCodeService;
+import com.usiv.service.ShortLinkService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+
+@RestController
+@Tag(name = "Public Downloads", description = "API pública para descarga de documentos con token")
+public class ShortLinkController {
+
+    private static final int MIN_QR_SIZE = 64;
+    private static final int MAX_QR_SIZE = 2048;
+
+    @Autowired
+    private ShortLinkService shortLinkService;
+
+    @Autowired
+    private FileManagementService fileManagementService;
+
+    @Autowired
+    private DocumentDownloads documentDownloads;
+
+    @Autowired
+    private QrCodeService qrCodeService;
+
+    @GetMapping("/q/{id}")
+    @Operation(
+        summary = "Abrir documento desde el QR",
+        description = "Resuelve el enlace corto impreso en el QR del documento y entrega el PDF firmado para verlo "
+            + "en el navegador. El enlace vence junto con el documento"
+    )
+    public ResponseEntity<?> open(@PathVariable String id, HttpServletRequest request, HttpServletResponse response) {
+        try {
+            ShortLinkService.ShortLink link = shortLinkService.resolve(id);
+            if (link == null) {
+                return error(HttpStatus.NOT_FOUND, "Enlace no encontrado", "LINK_NOT_FOUND");
+            }
+            if (link.isExpired()) {
+                return error(HttpStatus.GONE, "Enlace vencido", "LINK_EXPIRED");
+            }
+
+            DocumentIndex.Document document = fileManagementService.getDocumentInfo(link.filename);
+            if (document == null) {
+                return error(HttpStatus.NOT_FOUND, "Archivo no encontrado", "FILE_NOT_FOUND");
+            }
+
+            // inline: el teléfono que escaneó el QR muestra el documento en vez de descargarlo
+            documentDownloads.serve(request, response, document, true);
+            return null;
+
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                    "error", "Error interno del servidor",
+                    "code", "INTERNAL_ERROR",
+                    "timestamp", System.currentTimeMillis()
+                ));
+        }
+    }
+
+    @GetMapping("/q/{id}/qr")
+    @Operation(
+        summary = "QR del enlace corto",
+        description = "El mismo QR impreso en el documento, para reimprimirlo o incrustarlo en otro medio. "
+            + "format: png (por defecto), svg o pbm; size: lado en píxeles entre 64 y 2048"
+    )
+    public ResponseEntity<?> qr(@PathVariable String id,
+                                @RequestParam(required = false) String format,
+                                @RequestParam(required = false) Integer size) {
+        QrCodeService.QrFormat qrFormat;
+        try {
+            qrFormat = format == null ? QrCodeService.QrFormat.PNG
+                : QrCodeService.QrFormat.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "Formato de QR no soportado: " + format, "INVALID_FORMAT");
+        }
+        int side = size != null ? size : qrCodeService.getDefaultSize();
+        if (side < MIN_QR_SIZE || side > MAX_QR_SIZE) {
+            return error(HttpStatus.BAD_REQUEST, "Tamaño de QR fuera de rango", "INVALID_SIZE");
+        }
+        try {
+            ShortLinkService.ShortLink link = shortLinkService.resolve(id);
+            if (link == null) {
+                return error(HttpStatus.NOT_FOUND, "Enlace no encontrado", "LINK_NOT_FOUND");
+            }
+            if (link.isExpired()) {
+                return error(HttpStatus.GONE, "Enlace vencido", "LINK_EXPIRED");
+            }
+            byte[] qr = qrCodeService.render(shortLinkService.urlFor(id), side, qrFormat);
+            // El QR de un enlace no cambia; se puede guardar hasta que el enlace vence
+            long maxAge = link.expiresAt == null ? 0
+                : Math.max(0, Duration.between(Instant.now(), link.expiresAt).getSeconds());
+            return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(qrFormat.getContentType()))
+                .cacheControl(CacheControl.maxAge(Duration.ofSeconds(maxAge)).cachePublic())
+                .body(qr);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of(
+                    "error", "Error interno del servidor",
+                    "code", "INTERNAL_ERROR",
+                    "timestamp", System.currentTimeMillis()
+                ));
+        }
+    }
+
+    private static ResponseEntity<?> error(HttpStatus status, String message, String code) {
+        return ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(Map.of(
+                "error", message,
+                "code", code,
+                "timestamp", System.currentTimeMillis()
+            ));
+    }
+}
@@ -1,11 +1,15 @@
-
 package com.usiv.controller;
 
+import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.GenerationExecutor;
 import com.usiv.service.PdfService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.util.Map;
-import java.util.Base64;
 
 @RestController
 public class SignatureController {
@@ -13,10 +17,30 @@ public class SignatureController {
     @Autowired
     private PdfService pdfService;
 
+    @Autowired
+    private GenerationExecutor generationExecutor;
+
+    /**
+     * Devuelve el PDF firmado como {@code application/pdf}. El JSON con el PDF en base64 queda
+     * como modo de compatibilidad: {@code ?format=base64} o {@code Accept: application/json}.
+     * La generación corre en el pool de generación, no en el hilo de la petición.
+     */
     @PostMapping("/firmar")
-    public Map<String, String> firmar(@RequestBody Map<String, String> body) throws Exception {
-        byte[] signedPdf = pdfService.generateAndSignPdf(body);
-        String base64 = Base64.getEncoder().encodeToString(signedPdf);
-        return Map.of("status", "ok", "pdfBase64", base64);
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> firmar(@RequestBody Map<String, String> body,
+                                    @RequestParam(required = false) String format,
+                                    @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return AsyncGeneration.defer(generationExecutor, () -> sign(body, format, accept), AsyncGeneration.busy(null));
+    }
+
+    private ResponseEntity<StreamingResponseBody> sign(Map<String, String> body, String format, String accept) throws Exception {
+        PdfGenerationResponse response = pdfService.generateAndSignPdf(body);
+        if (!response.isSuccess()) {
+            throw new RuntimeException(response.getMessage());
+        }
+
+        if ("base64".equalsIgnoreCase(format) || PdfResponses.prefersJson(accept)) {
+            return PdfResponses.base64Json(response);
+        }
+        return PdfResponses.pdfStream(response);
     }
 }
@@ -0,0 +1,27 @@
+package com.usiv.dto;
+
+/**
+ * Resultado de un elemento de un lote, emitido como una línea NDJSON en cuanto termina.
+ * {@code index} es la posición del elemento en el lote (desde 0), ya que los resultados
+ * se devuelven en orden de finalización y no de envío.
+ */
+public class BatchItemResult {
+
+    private long index;
+    private PdfGenerationResponse response;
+
+    public BatchItemResult() {
+    }
+
+    public BatchItemResult(long index, PdfGenerationResponse response) {
+        this.index = index;
+        this.response = response;
+    }
+
+    // Getters y Setters
+    public long getIndex() { return index; }
+    public void setIndex(long index) { this.index = index; }
+
+    public PdfGenerationResponse getResponse() { return response; }
+    public void setResponse(PdfGenerationResponse response) { this.response = response; }
+}
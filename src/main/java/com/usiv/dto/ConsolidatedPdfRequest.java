@@ -0,0 +1,45 @@
+package com.usiv.dto;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Solicitud de un documento consolidado: varios informes en un solo PDF con un marcador por
+ * informe y una única firma.
+ */
+public class ConsolidatedPdfRequest {
+
+    // Título del documento (metadatos y marcador raíz); si se omite se usa uno genérico
+    @Size(max = 200, message = "El título no puede exceder 200 caracteres")
+    private String titulo;
+
+    @NotEmpty(message = "Debe incluir al menos un informe")
+    private List<@Valid PdfGenerationRequest> informes;
+
+    // Perfil de salida del documento completo; el perfilSalida de cada informe se ignora
+    @Pattern(regexp = "^(?i)(fast|balanced|compact)$",
+             message = "El perfil de salida debe ser fast, balanced o compact")
+    private String perfilSalida;
+
+    // Incluir en la respuesta el QR en PNG (base64); si se omite se usa qr.response-png
+    private Boolean incluirQrPng;
+
+    public ConsolidatedPdfRequest() {}
+
+    // Getters y Setters
+    public String getTitulo() { return titulo; }
+    public void setTitulo(String titulo) { this.titulo = titulo; }
+
+    public List<PdfGenerationRequest> getInformes() { return informes; }
+    public void setInformes(List<PdfGenerationRequest> informes) { this.informes = informes; }
+
+    public String getPerfilSalida() { return perfilSalida; }
+    public void setPerfilSalida(String perfilSalida) { this.perfilSalida = perfilSalida; }
+
+    public Boolean getIncluirQrPng() { return incluirQrPng; }
+    public void setIncluirQrPng(Boolean incluirQrPng) { this.incluirQrPng = incluirQrPng; }
+}
@@ -63,6 +63,18 @@ public class PdfGenerationRequest {
     // Campos adicionales opcionales
     private Map<String, String> camposAdicionales;
     
+    // Tipo de informe (archivo en reports/); si se omite se usa pdf.report.default-template
+    @Size(max = 100, message = "El tipo de informe no puede exceder 100 caracteres")
+    private String tipoInforme;
+    
+    // Perfil de salida (fast, balanced o compact); si se omite se usa pdf.output.profile
+    @Pattern(regexp = "^(?i)(fast|balanced|compact)$",
+             message = "El perfil de salida debe ser fast, balanced o compact")
+    private String perfilSalida;
+    
+    // Incluir en la respuesta el QR en PNG (base64); si se omite se usa qr.response-png
+    private Boolean incluirQrPng;
+    
     public PdfGenerationRequest() {}
     
     // Getters y Setters
@@ -122,4 +134,13 @@ public class PdfGenerationRequest {
     
     public Map<String, String> getCamposAdicionales() { return camposAdicionales; }
     public void setCamposAdicionales(Map<String, String> camposAdicionales) { this.camposAdicionales = camposAdicionales; }
-}
\ No newline at end of file
+    
+    public String getTipoInforme() { return tipoInforme; }
+    public void setTipoInforme(String tipoInforme) { this.tipoInforme = tipoInforme; }
+    
+    public String getPerfilSalida() { return perfilSalida; }
+    public void setPerfilSalida(String perfilSalida) { this.perfilSalida = perfilSalida; }
+    
+    public Boolean getIncluirQrPng() { return incluirQrPng; }
+    public void setIncluirQrPng(Boolean incluirQrPng) { this.incluirQrPng = incluirQrPng; }
+}
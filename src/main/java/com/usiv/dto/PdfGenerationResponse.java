@@ -1,5 +1,7 @@
 package com.usiv.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDateTime;
 
 public class PdfGenerationResponse {
@@ -9,11 +11,16 @@ public class PdfGenerationResponse {
     private String filename;
     private String downloadUrl;
     private String downloadToken;
+    private String shortUrl; // Enlace corto del QR (/q/{id}), si están habilitados
     private String qrCode; // Base64 del QR
     private LocalDateTime generatedAt;
     private LocalDateTime expiresAt;
     private long fileSizeBytes;
     private String checksum; // MD5 o SHA256 del archivo
+    @JsonIgnore
+    private String storedPath; // Ruta en disco, sólo para uso interno (no se expone en la API)
+    @JsonIgnore
+    private boolean replayed; // Respuesta de una solicitud repetida (idempotencia), se informa por cabecera
     
     public PdfGenerationResponse() {
         this.generatedAt = LocalDateTime.now();
@@ -52,6 +59,9 @@ public class PdfGenerationResponse {
     
     public String getDownloadToken() { return downloadToken; }
     public void setDownloadToken(String downloadToken) { this.downloadToken = downloadToken; }
+
+    public String getShortUrl() { return shortUrl; }
+    public void setShortUrl(String shortUrl) { this.shortUrl = shortUrl; }
     
     public String getQrCode() { return qrCode; }
     public void setQrCode(String qrCode) { this.qrCode = qrCode; }
@@ -67,4 +77,10 @@ public class PdfGenerationResponse {
     
     public String getChecksum() { return checksum; }
     public void setChecksum(String checksum) { this.checksum = checksum; }
+    
+    public String getStoredPath() { return storedPath; }
+    public void setStoredPath(String storedPath) { this.storedPath = storedPath; }
+    
+    public boolean isReplayed() { return replayed; }
+    public void setReplayed(boolean replayed) { this.replayed = replayed; }
 }
\ No newline at end of file
@@ -17,12 +17,18 @@ public class JwtTokenProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtTokenProvider.class);
 
+    public static final String ACCESS_TOKEN_TYPE = "access_token";
+    public static final String DOWNLOAD_TOKEN_TYPE = "download_token";
+
     @Value("${jwt.secret}")
     private String jwtSecret;
 
     @Value("${jwt.expiration}")
     private long jwtExpirationInMs;
 
+    @Value("${jwt.download-expiration:86400000}")
+    private long downloadExpirationInMs;
+
     @Value("${jwt.issuer}")
     private String jwtIssuer;
 
@@ -45,14 +51,14 @@ public class JwtTokenProvider {
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
                 .claim("roles", roles)
-                .claim("type", "access_token")
+                .claim("type", ACCESS_TOKEN_TYPE)
                 .signWith(getSigningKey(), SignatureAlgorithm.HS512)
                 .compact();
     }
 
     public String generateDownloadToken(String filename, String username) {
         Date now = new Date();
-        Date expiryDate = new Date(now.getTime() + (24 * 60 * 60 * 1000)); // 24 horas para descargas
+        Date expiryDate = new Date(now.getTime() + downloadExpirationInMs);
 
         return Jwts.builder()
                 .setSubject(username)
@@ -61,11 +67,18 @@ public class JwtTokenProvider {
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
                 .claim("filename", filename)
-                .claim("type", "download_token")
+                .claim("type", DOWNLOAD_TOKEN_TYPE)
                 .signWith(getSigningKey(), SignatureAlgorithm.HS512)
                 .compact();
     }
 
+    /**
+     * Vigencia de los tokens de descarga, en milisegundos.
+     */
+    public long getDownloadExpirationMs() {
+        return downloadExpirationInMs;
+    }
+
     public String getUsernameFromToken(String token) {
         Claims claims = Jwts.parserBuilder()
                 .setSigningKey(getSigningKey())
@@ -0,0 +1,229 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.usiv.dto.BatchItemResult;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Generación por lotes. Lee las solicitudes de a una desde el cuerpo (arreglo JSON o NDJSON),
+ * las valida, las reparte en un pool acotado y escribe cada resultado como una línea NDJSON
+ * en cuanto termina. Como mucho {@code pdf.batch.max-in-flight} elementos están en memoria a
+ * la vez: si se alcanza el límite se deja de leer la entrada hasta que termine alguno.
+ */
+@Service
+public class BatchGenerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchGenerationService.class);
+
+    private static final long DRAIN_POLL_MS = 50;
+
+    @Value("${pdf.batch.workers:0}")
+    private int workerCount;
+
+    @Value("${pdf.batch.max-in-flight:0}")
+    private int maxInFlight;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ExecutorService executor;
+    private int inFlightLimit;
+    private ObjectWriter resultWriter;
+
+    private Counter itemsOk;
+    private Counter itemsFailed;
+
+    @PostConstruct
+    public void init() {
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        inFlightLimit = maxInFlight > 0 ? maxInFlight : threads * 2;
+
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "pdf-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        resultWriter = objectMapper.writerFor(BatchItemResult.class);
+
+        itemsOk = Counter.builder("pdf.batch.items").tag("result", "ok")
+            .description("Elementos de lote generados correctamente")
+            .register(meterRegistry);
+        itemsFailed = Counter.builder("pdf.batch.items").tag("result", "error")
+            .description("Elementos de lote rechazados o con error")
+            .register(meterRegistry);
+
+        logger.info("Generación por lotes: {} hilos, hasta {} elementos en curso", threads, inFlightLimit);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Procesa el lote completo. Un elemento inválido o con error produce su propia línea con
+     * {@code success=false} y no detiene el lote; sólo un error de sintaxis JSON interrumpe la
+     * lectura, después de emitir los resultados de lo ya leído.
+     */
+    public void process(InputStream input, OutputStream output) throws IOException {
+        long start = System.currentTimeMillis();
+        CompletionService<BatchItemResult> completion = new ExecutorCompletionService<>(executor);
+        Semaphore permits = new Semaphore(inFlightLimit);
+        BatchCounters counters = new BatchCounters();
+
+        // readValues desenvuelve un arreglo JSON raíz y también acepta valores separados por línea
+        try (MappingIterator<PdfGenerationRequest> items = objectMapper.readerFor(PdfGenerationRequest.class).readValues(input)) {
+            long index = 0;
+            while (true) {
+                PdfGenerationRequest request;
+                try {
+                    if (!items.hasNextValue()) {
+                        break;
+                    }
+                    request = items.nextValue();
+                } catch (JsonMappingException e) {
+                    // JSON bien formado pero con tipos incorrectos: el iterador sigue con el próximo
+                    write(output, new BatchItemResult(index, PdfGenerationResponse.error(
+                        "Elemento " + index + " inválido: " + e.getOriginalMessage())), counters);
+                    index++;
+                    continue;
+                } catch (JsonProcessingException e) {
+                    write(output, new BatchItemResult(index, PdfGenerationResponse.error(
+                        "JSON inválido en el elemento " + index + ": " + e.getOriginalMessage())), counters);
+                    logger.warn("Lote interrumpido por JSON inválido en el elemento {}", index);
+                    break;
+                }
+
+                String violations = validate(request);
+                if (violations != null) {
+                    write(output, new BatchItemResult(index, PdfGenerationResponse.error(violations)), counters);
+                    index++;
+                    continue;
+                }
+
+                // Contrapresión: mientras no haya cupo se siguen emitiendo los resultados listos
+                while (!permits.tryAcquire(DRAIN_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    drain(completion, output, counters, false);
+                }
+                long itemIndex = index;
+                completion.submit(() -> {
+                    try {
+                        return new BatchItemResult(itemIndex, pdfService.generateAndSignPdf(request));
+                    } catch (RuntimeException e) {
+                        return new BatchItemResult(itemIndex, PdfGenerationResponse.error("Error interno: " + e.getMessage()));
+                    } finally {
+                        permits.release();
+                    }
+                });
+                counters.pending++;
+                index++;
+
+                drain(completion, output, counters, false);
+            }
+
+            while (counters.pending > 0) {
+                drain(completion, output, counters, true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lote interrumpido", e);
+        }
+
+        logger.info("Lote procesado: {} correctos, {} con error en {} ms",
+            counters.ok, counters.failed, System.currentTimeMillis() - start);
+    }
+
+    private String validate(PdfGenerationRequest request) {
+        if (request == null) {
+            return "Elemento vacío";
+        }
+        Set<ConstraintViolation<PdfGenerationRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return "Solicitud inválida: " + violations.stream()
+            .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+            .sorted()
+            .collect(Collectors.joining("; "));
+    }
+
+    private void drain(CompletionService<BatchItemResult> completion, OutputStream output,
+                       BatchCounters counters, boolean block) throws IOException, InterruptedException {
+        Future<BatchItemResult> done = block ? completion.take() : completion.poll();
+        while (done != null) {
+            counters.pending--;
+            BatchItemResult result;
+            try {
+                result = done.get();
+            } catch (ExecutionException e) {
+                // Las tareas convierten sus excepciones en respuesta; aquí sólo llegan errores graves
+                throw new IOException("Fallo inesperado en el lote", e.getCause());
+            }
+            write(output, result, counters);
+            done = completion.poll();
+        }
+    }
+
+    private void write(OutputStream output, BatchItemResult result, BatchCounters counters) throws IOException {
+        if (result.getResponse().isSuccess()) {
+            counters.ok++;
+            itemsOk.increment();
+        } else {
+            counters.failed++;
+            itemsFailed.increment();
+        }
+        output.write(resultWriter.writeValueAsBytes(result));
+        output.write('\n');
+        output.flush();
+    }
+
+    /**
+     * Sólo lo usa el hilo que escribe la respuesta.
+     */
+    private static class BatchCounters {
+        private int pending;
+        private long ok;
+        private long failed;
+    }
+}
@@ -0,0 +1,167 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool de {@link DocumentBuffer} para el pipeline de generación. Cada tipo de buffer lleva un
+ * promedio móvil del tamaño final de los últimos usos y los buffers se entregan con esa
+ * capacidad más un margen, de modo que la escritura casi nunca tenga que crecer copiando.
+ * Al devolverse se reinician y quedan disponibles para la siguiente petición; los que crecieron
+ * por encima de {@code pdf.buffers.max-retained-kb} se descartan para no retener documentos
+ * excepcionales.
+ *
+ * <p>Con {@code pdf.buffers.direct=true} los buffers se crean fuera del heap: no cuentan para
+ * el GC, pero ocupan memoria nativa (hasta {@code max-pooled} x {@code max-retained-kb} por tipo).
+ */
+@Service
+public class BufferPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    // Peso de cada tamaño nuevo en el promedio móvil
+    private static final double ESTIMATE_WEIGHT = 0.2;
+    private static final int ALIGNMENT = 4096;
+
+    /**
+     * Usos del pool, con la capacidad inicial mientras no haya tamaños observados.
+     */
+    public enum Kind {
+        /** Documento sin firmar de una petición. */
+        DOCUMENT(64 * 1024),
+        /** PNG del código QR. */
+        QR(4 * 1024);
+
+        private final int initialEstimate;
+
+        Kind(int initialEstimate) {
+            this.initialEstimate = initialEstimate;
+        }
+    }
+
+    @Value("${pdf.buffers.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdf.buffers.direct:false}")
+    private boolean direct;
+
+    // Buffers libres por tipo (0 = 2 x núcleos disponibles)
+    @Value("${pdf.buffers.max-pooled:0}")
+    private int maxPooled;
+
+    @Value("${pdf.buffers.max-retained-kb:4096}")
+    private int maxRetainedKb;
+
+    // Margen sobre el tamaño estimado
+    @Value("${pdf.buffers.headroom:1.25}")
+    private double headroom;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<Kind, Pool> pools = new EnumMap<>(Kind.class);
+
+    @PostConstruct
+    public void init() {
+        int capacity = maxPooled > 0 ? maxPooled : 2 * Runtime.getRuntime().availableProcessors();
+        for (Kind kind : Kind.values()) {
+            Pool pool = new Pool(kind, capacity);
+            String tag = kind.name().toLowerCase(Locale.ROOT);
+            pool.hits = Counter.builder("pdf.buffers.acquired").tag("kind", tag).tag("result", "reused")
+                .description("Buffers entregados desde el pool").register(meterRegistry);
+            pool.misses = Counter.builder("pdf.buffers.acquired").tag("kind", tag).tag("result", "allocated")
+                .description("Buffers creados porque el pool estaba vacío o deshabilitado").register(meterRegistry);
+            pool.allocatedBytes = Counter.builder("pdf.buffers.allocated.bytes").tag("kind", tag)
+                .description("Bytes asignados para buffers: creación, ampliación a la estimación y crecimiento al escribir")
+                .baseUnit("bytes").register(meterRegistry);
+            Gauge.builder("pdf.buffers.pooled", pool, p -> p.free.size()).tag("kind", tag)
+                .description("Buffers libres en el pool").register(meterRegistry);
+            Gauge.builder("pdf.buffers.estimate.bytes", pool, p -> p.estimate).tag("kind", tag)
+                .description("Tamaño estimado de los próximos buffers").baseUnit("bytes").register(meterRegistry);
+            pools.put(kind, pool);
+        }
+        logger.info("Pool de buffers {}: hasta {} por tipo, {}", enabled ? "habilitado" : "deshabilitado",
+            capacity, direct ? "directos (fuera del heap)" : "en heap");
+    }
+
+    /**
+     * Buffer vacío con capacidad para el tamaño estimado de este tipo. Debe devolverse con
+     * {@link #release} cuando ya no se lea (también si la generación falla).
+     */
+    public DocumentBuffer acquire(Kind kind) {
+        Pool pool = pools.get(kind);
+        // Deshabilitado se comporta como antes: capacidad fija y crecimiento por duplicación
+        int predicted = enabled ? pool.predictedCapacity() : kind.initialEstimate;
+        DocumentBuffer buffer = enabled ? pool.free.poll() : null;
+        if (buffer == null) {
+            pool.misses.increment();
+            pool.allocatedBytes.increment(predicted);
+            return new DocumentBuffer(predicted, direct);
+        }
+        pool.hits.increment();
+        if (buffer.capacity() < predicted) {
+            // La estimación subió desde que se devolvió: se amplía una vez antes de escribir
+            buffer.ensureCapacity(predicted);
+            pool.allocatedBytes.increment(buffer.getGrownBytes());
+            buffer.reset();
+        }
+        return buffer;
+    }
+
+    /**
+     * Registra el tamaño final en la estimación y devuelve el buffer al pool si corresponde.
+     * Acepta {@code null} para simplificar los bloques {@code finally}.
+     */
+    public void release(Kind kind, DocumentBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        Pool pool = pools.get(kind);
+        pool.record(buffer.size());
+        pool.allocatedBytes.increment(buffer.getGrownBytes());
+
+        if (!enabled || buffer.isDirect() != direct || buffer.capacity() > maxRetainedKb * 1024L) {
+            return;
+        }
+        buffer.reset();
+        pool.free.offer(buffer);
+    }
+
+    private class Pool {
+        private final BlockingQueue<DocumentBuffer> free;
+        private volatile double estimate;
+
+        private Counter hits;
+        private Counter misses;
+        private Counter allocatedBytes;
+
+        private Pool(Kind kind, int capacity) {
+            this.free = new ArrayBlockingQueue<>(capacity);
+            this.estimate = kind.initialEstimate;
+        }
+
+        private int predictedCapacity() {
+            long predicted = (long) Math.ceil(estimate * headroom);
+            predicted = (predicted + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            return (int) Math.min(predicted, maxRetainedKb * 1024L);
+        }
+
+        private void record(int size) {
+            // Una carrera entre dos devoluciones sólo pierde una muestra del promedio
+            estimate = estimate + ESTIMATE_WEIGHT * (size - estimate);
+        }
+    }
+}
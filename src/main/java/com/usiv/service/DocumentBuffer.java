@@ -0,0 +1,158 @@
+package com.usiv.service;
+
+import com.itextpdf.io.source.IRandomAccessSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer de generación que se puede releer sin copiar: {@link #asSource()} expone el contenido
+ * a {@code PdfReader} en lugar de pasar por {@code toByteArray()} y un
+ * {@code ByteArrayInputStream}, que duplican el documento dos veces.
+ *
+ * <p>El almacenamiento es un {@link ByteBuffer} en heap o directo (fuera del heap). Los buffers
+ * del pipeline se obtienen de {@link BufferPool}, que los crea con la capacidad estimada y los
+ * reutiliza entre peticiones; {@link #getGrownBytes()} informa cuánto hubo que asignar de más
+ * porque la estimación se quedó corta.
+ */
+public class DocumentBuffer extends OutputStream {
+
+    private ByteBuffer buffer;
+    private long grownBytes;
+
+    public DocumentBuffer() {
+        this(64 * 1024);
+    }
+
+    public DocumentBuffer(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    public DocumentBuffer(int initialCapacity, boolean direct) {
+        buffer = direct ? ByteBuffer.allocateDirect(initialCapacity) : ByteBuffer.allocate(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(buffer.position() + 1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(buffer.position() + len);
+        buffer.put(b, off, len);
+    }
+
+    public int size() {
+        return buffer.position();
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * Bytes asignados al crecer desde la creación o el último {@link #reset()}.
+     */
+    public long getGrownBytes() {
+        return grownBytes;
+    }
+
+    /**
+     * Descarta el contenido conservando la capacidad.
+     */
+    public void reset() {
+        buffer.clear();
+        grownBytes = 0;
+    }
+
+    /**
+     * Garantiza al menos {@code minCapacity} bytes sin volver a crecer mientras se escribe.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= buffer.capacity()) {
+            return;
+        }
+        if (minCapacity < 0) {
+            throw new OutOfMemoryError("Documento demasiado grande para un buffer en memoria");
+        }
+        int newCapacity = Math.max(minCapacity, buffer.capacity() < Integer.MAX_VALUE / 2
+            ? buffer.capacity() * 2 : Integer.MAX_VALUE - 8);
+        ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(newCapacity) : ByteBuffer.allocate(newCapacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+        grownBytes += newCapacity;
+    }
+
+    public byte[] toByteArray() {
+        byte[] copy = new byte[buffer.position()];
+        buffer.duplicate().flip().get(copy);
+        return copy;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } else {
+            out.write(toByteArray());
+        }
+    }
+
+    /**
+     * Vista de sólo lectura del contenido actual. No debe seguir escribiéndose en el buffer
+     * mientras la vista esté en uso, ni devolverlo al pool antes de cerrar el lector.
+     */
+    public IRandomAccessSource asSource() {
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        return new ByteBufferSource(view.slice());
+    }
+
+    /**
+     * Lectura por posición sobre el buffer. Al cerrarse no libera la memoria (a diferencia de la
+     * fuente equivalente de iText para archivos mapeados): el buffer vuelve al pool.
+     */
+    private static class ByteBufferSource implements IRandomAccessSource {
+        private final ByteBuffer view;
+
+        private ByteBufferSource(ByteBuffer view) {
+            this.view = view;
+        }
+
+        @Override
+        public int get(long position) {
+            if (position >= view.limit()) {
+                return -1;
+            }
+            return view.get((int) position) & 0xff;
+        }
+
+        @Override
+        public int get(long position, byte[] bytes, int off, int len) {
+            if (position >= view.limit()) {
+                return -1;
+            }
+            int count = (int) Math.min(len, view.limit() - position);
+            ByteBuffer chunk = view.duplicate();
+            chunk.position((int) position);
+            chunk.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return view.limit();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.usiv.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Contenido de los documentos recién firmados. El QR se escanea y el enlace de descarga se
+ * abre minutos después de generar el documento, a menudo desde varios dispositivos a la vez:
+ * {@link PdfService} deja aquí el documento al publicarlo y las descargas lo sirven desde
+ * memoria mientras siga caliente.
+ *
+ * <p>La caché está acotada por bytes (cada entrada pesa el tamaño del documento) y sólo
+ * admite documentos creados dentro de {@code pdf.download.cache.ttl-minutes}: una descarga de
+ * un documento antiguo va al disco sin desplazar a los recientes. Una ráfaga de descargas de
+ * un documento que no está en caché lo lee una sola vez; las demás esperan esa lectura.
+ */
+@Service
+public class DocumentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentCache.class);
+
+    @Value("${pdf.download.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdf.download.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // Documentos más grandes no se guardan: ocuparían la caché a costa de muchos pequeños
+    @Value("${pdf.download.cache.max-document-bytes:2097152}")
+    private long maxDocumentBytes;
+
+    @Value("${pdf.download.cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, Entry> documents;
+    private Duration ttl;
+
+    @PostConstruct
+    public void init() {
+        ttl = Duration.ofMinutes(ttlMinutes);
+        documents = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String filename, Entry entry) -> entry.content.length)
+            .expireAfterWrite(ttl)
+            .recordStats()
+            .build();
+        // cache.gets{result=hit|miss}, cache.evictions, cache.eviction.weight, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, documents, "pdf.documents");
+        Gauge.builder("pdf.documents.cache.weight", this, DocumentCache::weightedSize)
+            .description("Bytes de documentos en caché")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("pdf.documents.cache.hit.ratio", this, c -> c.documents.stats().hitRate())
+            .description("Proporción de lecturas de documentos resueltas desde caché")
+            .register(meterRegistry);
+
+        if (enabled) {
+            logger.info("Caché de documentos recientes: {} MB, hasta {} KB por documento, {} min",
+                maxBytes / (1024 * 1024), maxDocumentBytes / 1024, ttlMinutes);
+        }
+    }
+
+    /**
+     * Guarda un documento recién publicado. El archivo se acaba de escribir, así que la
+     * lectura sale de la caché de páginas del sistema. Un fallo sólo se registra: el
+     * documento ya está publicado y se servirá desde el disco.
+     */
+    public void put(String filename, Path file, String checksum) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long size = Files.size(file);
+            if (size > 0 && size <= maxDocumentBytes) {
+                documents.put(filename, new Entry(checksum, Files.readAllBytes(file)));
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo guardar en caché el documento {}", filename, e);
+        }
+    }
+
+    /**
+     * Contenido de {@code document} si le corresponde estar en caché (reciente y no demasiado
+     * grande), leyéndolo del disco si aún no está; {@code null} si no le corresponde y debe
+     * enviarse desde el archivo. El arreglo es compartido: no debe modificarse.
+     */
+    public byte[] get(DocumentIndex.Document document) throws IOException {
+        if (!cacheable(document)) {
+            return null;
+        }
+        String filename = document.getFilename();
+        try {
+            Entry entry = documents.get(filename, key -> load(document));
+            if (!entry.matches(document)) {
+                // El documento indexado ya no es el que se guardó (se borró y volvió a publicarse)
+                documents.invalidate(filename);
+                entry = documents.get(filename, key -> load(document));
+            }
+            return entry.content;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void invalidate(String filename) {
+        if (enabled) {
+            documents.invalidate(filename);
+        }
+    }
+
+    private boolean cacheable(DocumentIndex.Document document) {
+        return enabled
+            && document.getSize() > 0
+            && document.getSize() <= maxDocumentBytes
+            && document.getCreatedAt().isAfter(Instant.now().minus(ttl));
+    }
+
+    private static Entry load(DocumentIndex.Document document) {
+        try {
+            return new Entry(document.getChecksum(), Files.readAllBytes(document.getPath()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long weightedSize() {
+        return documents.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0))
+            .orElse(0L);
+    }
+
+    /**
+     * Contenido de un documento y el checksum con el que se publicó.
+     */
+    private static class Entry {
+        private final String checksum;
+        private final byte[] content;
+
+        Entry(String checksum, byte[] content) {
+            this.checksum = checksum;
+            this.content = content;
+        }
+
+        boolean matches(DocumentIndex.Document document) {
+            if (content.length != document.getSize()) {
+                return false;
+            }
+            return checksum == null || document.getChecksum() == null || checksum.equals(document.getChecksum());
+        }
+    }
+}
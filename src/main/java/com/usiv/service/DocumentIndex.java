@@ -0,0 +1,768 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Índice de los documentos almacenados: nombre lógico (el que usan las descargas) a ubicación
+ * física, tamaño, checksum SHA-256 y fecha de creación. Los documentos viven en
+ * {@code basePath/yyyy/MM/dd/}, así que la ubicación se guarda como el día de la partición y la
+ * ruta se reconstruye al consultar.
+ *
+ * <p>En memoria es una tabla de direccionamiento abierto (sondeo lineal) sobre arreglos
+ * primitivos paralelos, con los nombres en UTF-8 en un solo arreglo de bytes: unos 110 bytes
+ * por documento y búsquedas O(1) sin objetos por entrada, pensado para millones de documentos.
+ *
+ * <p>En disco hay una instantánea ({@code documents.snapshot}) y un registro de sólo anexado
+ * ({@code documents.log}) con los cambios posteriores; cada registro lleva su CRC32 y al
+ * cargar se descarta una cola cortada. Periódicamente se escribe una instantánea nueva y se
+ * vacía el registro. Al iniciar se lee la instantánea y se aplica el registro, sin recorrer el
+ * almacenamiento; sólo la primera vez (sin índice en disco) se recorren las particiones para
+ * indexar los documentos existentes.
+ */
+@Service
+public class DocumentIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentIndex.class);
+
+    private static final String LOG_FILE = "documents.log";
+    private static final String SNAPSHOT_FILE = "documents.snapshot";
+    private static final byte[] SNAPSHOT_MAGIC = "USIVIDX1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    // Baja de todos los documentos de una partición (la limpieza retira el día completo)
+    private static final byte OP_REMOVE_PARTITION = 3;
+    private static final int CHECKSUM_BYTES = 32;
+    // Operación, largo del nombre y CRC; una alta agrega partición, tamaño, fecha y checksum,
+    // y la baja de una partición (sin nombre) sólo el día
+    private static final int RECORD_OVERHEAD = 1 + 2 + 4;
+    private static final int PUT_FIELDS = 4 + 8 + 8 + CHECKSUM_BYTES;
+    private static final int PARTITION_FIELDS = 4;
+
+    // Celdas de la tabla: 0 libre, -1 borrada, n > 0 entrada n - 1
+    private static final int FREE = 0;
+    private static final int DELETED = -1;
+    private static final double MAX_LOAD = 0.6;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Value("${pdf.storage.base-path}")
+    private String basePath;
+
+    @Value("${pdf.index.dir:document-index}")
+    private String indexDir;
+
+    @Value("${pdf.index.initial-capacity:65536}")
+    private int initialCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int[] table;
+    private int tombstones;
+
+    // Entradas; las eliminadas quedan con partición -1 hasta la próxima compactación
+    private int count;
+    private int live;
+    private int[] hashes;
+    private long[] nameRefs;
+    private byte[] names;
+    private int namesLength;
+    private int[] days;
+    private long[] sizes;
+    private long[] createdAt;
+    private byte[] checksums;
+
+    private Path base;
+    private Path logPath;
+    private Path snapshotPath;
+    private FileChannel log;
+
+    private Counter hits;
+    private Counter misses;
+    private Timer snapshotTimer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        base = Paths.get(basePath);
+        Path dir = Paths.get(indexDir);
+        Files.createDirectories(dir);
+        logPath = dir.resolve(LOG_FILE);
+        snapshotPath = dir.resolve(SNAPSHOT_FILE);
+        allocate(Math.max(16, initialCapacity));
+
+        hits = Counter.builder("pdf.index.lookups").tag("result", "hit")
+            .description("Búsquedas en el índice de documentos por resultado").register(meterRegistry);
+        misses = Counter.builder("pdf.index.lookups").tag("result", "miss")
+            .description("Búsquedas en el índice de documentos por resultado").register(meterRegistry);
+        snapshotTimer = Timer.builder("pdf.index.snapshot")
+            .description("Escritura de la instantánea del índice de documentos").register(meterRegistry);
+        Gauge.builder("pdf.index.documents", this, DocumentIndex::size)
+            .description("Documentos en el índice").register(meterRegistry);
+        Gauge.builder("pdf.index.memory.bytes", this, DocumentIndex::memoryBytes)
+            .description("Memoria aproximada de las estructuras del índice").baseUnit("bytes").register(meterRegistry);
+
+        long start = System.nanoTime();
+        boolean existing = Files.exists(snapshotPath) || Files.exists(logPath);
+        if (existing) {
+            loadSnapshot();
+            long valid = replayLog();
+            log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Una cola cortada por una caída se descarta antes de seguir anexando
+            log.truncate(valid);
+            log.position(valid);
+        } else {
+            int found = indexStorage();
+            log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            writeSnapshot();
+            logger.info("Índice de documentos creado desde {}: {} documentos", base.toAbsolutePath(), found);
+        }
+        logger.info("Índice de documentos: {} documentos cargados en {} ms", live,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (log != null) {
+                log.force(false);
+                log.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Documento almacenado en el índice.
+     */
+    public static class Document {
+        private final String filename;
+        private final Path path;
+        private final long size;
+        private final String checksum;
+        private final Instant createdAt;
+
+        Document(String filename, Path path, long size, String checksum, Instant createdAt) {
+            this.filename = filename;
+            this.path = path;
+            this.size = size;
+            this.checksum = checksum;
+            this.createdAt = createdAt;
+        }
+
+        public String getFilename() { return filename; }
+        public Path getPath() { return path; }
+        public long getSize() { return size; }
+        /** SHA-256 en hexadecimal, o {@code null} si se indexó sin calcularlo. */
+        public String getChecksum() { return checksum; }
+        public Instant getCreatedAt() { return createdAt; }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Document get(String filename) {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int entry = find(key, hash(key));
+            if (entry < 0) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return document(entry, filename);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String filename) {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            return find(key, hash(key)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Registra (o reemplaza) un documento publicado en {@code basePath/yyyy/MM/dd/}.
+     *
+     * @param checksum SHA-256 en hexadecimal; {@code null} si no se conoce
+     */
+    public void put(String filename, Path path, long size, String checksum, Instant created) throws IOException {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        int day = partitionOf(path);
+        byte[] digest = parseChecksum(checksum);
+        lock.writeLock().lock();
+        try {
+            apply(OP_PUT, key, day, size, created.toEpochMilli(), digest);
+            append(OP_PUT, key, day, size, created.toEpochMilli(), digest);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(String filename) throws IOException {
+        byte[] key = filename.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            if (find(key, hash(key)) < 0) {
+                return false;
+            }
+            apply(OP_REMOVE, key, 0, 0, 0, null);
+            append(OP_REMOVE, key, 0, 0, 0, null);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Da de baja todos los documentos de la partición {@code day}, cuyo directorio la limpieza
+     * retiró completo. Recorre los arreglos en memoria, sin tocar el almacenamiento, y deja un
+     * solo registro sea cual sea la cantidad de documentos.
+     *
+     * @return documentos dados de baja
+     */
+    public int removePartition(LocalDate day) throws IOException {
+        int epochDay = (int) day.toEpochDay();
+        lock.writeLock().lock();
+        try {
+            int removed = dropPartition(epochDay);
+            if (removed > 0) {
+                append(OP_REMOVE_PARTITION, new byte[0], epochDay, 0, 0, null);
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Escribe una instantánea nueva y vacía el registro. Si hay muchas entradas eliminadas se
+     * compactan antes los arreglos en memoria. Mientras se escribe se siguen atendiendo las
+     * búsquedas; las altas y bajas esperan.
+     */
+    @Scheduled(fixedDelayString = "${pdf.index.snapshot-interval-ms:3600000}",
+               initialDelayString = "${pdf.index.snapshot-interval-ms:3600000}")
+    public void snapshot() {
+        lock.writeLock().lock();
+        try {
+            if (count - live > live / 4 + 1024) {
+                compact();
+            }
+            // Se baja a lectura: las búsquedas siguen, las escrituras esperan a la instantánea
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            snapshotTimer.record(() -> {
+                try {
+                    writeSnapshot();
+                } catch (IOException e) {
+                    logger.error("No se pudo escribir la instantánea del índice de documentos", e);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lleva la instantánea y vacía el registro. Requiere que nadie escriba en el índice.
+     */
+    private void writeSnapshot() throws IOException {
+        Path tmp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)) {
+            out.write(SNAPSHOT_MAGIC);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + 0xFFFF + PUT_FIELDS);
+            for (int entry = 0; entry < count; entry++) {
+                if (days[entry] < 0) {
+                    continue;
+                }
+                int offset = (int) (nameRefs[entry] >>> 16);
+                int length = (int) (nameRefs[entry] & 0xFFFF);
+                encode(record, OP_PUT, names, offset, length, days[entry], sizes[entry], createdAt[entry],
+                    checksums, entry * CHECKSUM_BYTES);
+                out.write(record.array(), 0, record.limit());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Los cambios del registro ya están en la instantánea
+        log.truncate(0);
+        log.position(0);
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath), 1 << 16))) {
+            byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, SNAPSHOT_MAGIC)) {
+                throw new IOException("Instantánea del índice de documentos con formato desconocido: " + snapshotPath);
+            }
+            // La instantánea se publica con un movimiento atómico: debe leerse completa
+            if (readRecords(in) < 0) {
+                throw new IOException("Instantánea del índice de documentos dañada: " + snapshotPath);
+            }
+        }
+    }
+
+    /**
+     * Aplica el registro sobre lo cargado y devuelve la posición hasta donde es válido.
+     */
+    private long replayLog() throws IOException {
+        if (!Files.exists(logPath)) {
+            return 0;
+        }
+        try (InputStream file = Files.newInputStream(logPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            long valid = readRecords(in);
+            if (valid < 0) {
+                valid = -valid - 1;
+                logger.warn("Registro del índice de documentos cortado en el byte {}; se descarta el resto", valid);
+            }
+            return valid;
+        }
+    }
+
+    /**
+     * Aplica registros hasta el final del flujo. Devuelve los bytes leídos, o
+     * {@code -(bytes válidos) - 1} si encontró un registro incompleto o con CRC incorrecto.
+     */
+    private long readRecords(DataInputStream in) throws IOException {
+        long position = 0;
+        CRC32 crc = new CRC32();
+        byte[] fields = new byte[PUT_FIELDS];
+        byte[] key = new byte[0xFFFF];
+        while (true) {
+            int op = in.read();
+            if (op < 0) {
+                return position;
+            }
+            try {
+                int length = in.readUnsignedShort();
+                in.readFully(key, 0, length);
+                int fieldsLength = fieldsLength(op);
+                in.readFully(fields, 0, fieldsLength);
+                int expected = in.readInt();
+
+                crc.reset();
+                crc.update(op);
+                crc.update(length >>> 8);
+                crc.update(length);
+                crc.update(key, 0, length);
+                crc.update(fields, 0, fieldsLength);
+                if ((int) crc.getValue() != expected || (op != OP_PUT && op != OP_REMOVE && op != OP_REMOVE_PARTITION)) {
+                    return -position - 1;
+                }
+
+                byte[] name = Arrays.copyOf(key, length);
+                if (op == OP_PUT) {
+                    ByteBuffer values = ByteBuffer.wrap(fields);
+                    int day = values.getInt();
+                    long size = values.getLong();
+                    long created = values.getLong();
+                    byte[] digest = new byte[CHECKSUM_BYTES];
+                    values.get(digest);
+                    apply(OP_PUT, name, day, size, created, digest);
+                } else if (op == OP_REMOVE_PARTITION) {
+                    dropPartition(ByteBuffer.wrap(fields).getInt());
+                } else {
+                    apply(OP_REMOVE, name, 0, 0, 0, null);
+                }
+                position += RECORD_OVERHEAD + length + fieldsLength;
+            } catch (EOFException e) {
+                return -position - 1;
+            }
+        }
+    }
+
+    /**
+     * Anexa sin fsync: el sistema operativo conserva lo escrito si el proceso cae; un corte de
+     * energía puede perder los últimos registros, que se recuperan al buscarlos por su partición
+     * (ver {@code FileManagementService}).
+     */
+    private void append(byte op, byte[] key, int day, long size, long created, byte[] digest) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + key.length + fieldsLength(op));
+        encode(record, op, key, 0, key.length, day, size, created, digest, 0);
+        while (record.hasRemaining()) {
+            log.write(record);
+        }
+    }
+
+    private static int fieldsLength(int op) {
+        return op == OP_PUT ? PUT_FIELDS : op == OP_REMOVE_PARTITION ? PARTITION_FIELDS : 0;
+    }
+
+    private static void encode(ByteBuffer record, byte op, byte[] name, int offset, int length,
+                               int day, long size, long created, byte[] digest, int digestOffset) {
+        record.clear();
+        record.put(op).putShort((short) length).put(name, offset, length);
+        if (op == OP_PUT) {
+            record.putInt(day).putLong(size).putLong(created);
+            if (digest != null) {
+                record.put(digest, digestOffset, CHECKSUM_BYTES);
+            } else {
+                record.put(new byte[CHECKSUM_BYTES]);
+            }
+        } else if (op == OP_REMOVE_PARTITION) {
+            record.putInt(day);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+    }
+
+    /**
+     * Primera carga: indexa los documentos de las particiones {@code yyyy/MM/dd} existentes.
+     * Los checksums quedan sin calcular para no leer todo el almacenamiento al iniciar.
+     */
+    private int indexStorage() throws IOException {
+        if (!Files.isDirectory(base)) {
+            return 0;
+        }
+        int found = 0;
+        for (Path year : numericChildren(base, 4)) {
+            for (Path month : numericChildren(year, 2)) {
+                for (Path day : numericChildren(month, 2)) {
+                    int epochDay;
+                    try {
+                        epochDay = (int) LocalDate.of(Integer.parseInt(year.getFileName().toString()),
+                            Integer.parseInt(month.getFileName().toString()),
+                            Integer.parseInt(day.getFileName().toString())).toEpochDay();
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(day)) {
+                        for (Path file : files) {
+                            String name = file.getFileName().toString();
+                            // Los temporales de generación empiezan con punto
+                            if (name.startsWith(".")) {
+                                continue;
+                            }
+                            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                            if (!attributes.isRegularFile()) {
+                                continue;
+                            }
+                            apply(OP_PUT, name.getBytes(StandardCharsets.UTF_8), epochDay, attributes.size(),
+                                attributes.creationTime().toMillis(), null);
+                            found++;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Iterable<Path> numericChildren(Path dir, int digits) throws IOException {
+        java.util.List<Path> children = new java.util.ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                entry -> Files.isDirectory(entry) && entry.getFileName().toString().matches("\\d{" + digits + "}"))) {
+            stream.forEach(children::add);
+        }
+        return children;
+    }
+
+    // ---- Tabla en memoria (requiere el candado correspondiente) ----
+
+    private void apply(byte op, byte[] key, int day, long size, long created, byte[] digest) {
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (op == OP_REMOVE) {
+            if (entry >= 0) {
+                removeEntry(entry);
+            }
+            return;
+        }
+        if (entry < 0) {
+            entry = addEntry(key, hash);
+        }
+        days[entry] = day;
+        sizes[entry] = size;
+        createdAt[entry] = created;
+        if (digest != null) {
+            System.arraycopy(digest, 0, checksums, entry * CHECKSUM_BYTES, CHECKSUM_BYTES);
+        } else {
+            Arrays.fill(checksums, entry * CHECKSUM_BYTES, (entry + 1) * CHECKSUM_BYTES, (byte) 0);
+        }
+    }
+
+    private void removeEntry(int entry) {
+        table[slotOf(entry)] = DELETED;
+        days[entry] = -1;
+        tombstones++;
+        live--;
+    }
+
+    private int dropPartition(int day) {
+        int removed = 0;
+        for (int entry = 0; entry < count; entry++) {
+            if (days[entry] == day) {
+                removeEntry(entry);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private int find(byte[] key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int cell = table[slot];
+            if (cell == FREE) {
+                return -1;
+            }
+            if (cell != DELETED) {
+                int entry = cell - 1;
+                if (hashes[entry] == hash && nameEquals(entry, key)) {
+                    return entry;
+                }
+            }
+        }
+    }
+
+    private int slotOf(int entry) {
+        int mask = table.length - 1;
+        for (int slot = hashes[entry] & mask; ; slot = (slot + 1) & mask) {
+            if (table[slot] == entry + 1) {
+                return slot;
+            }
+        }
+    }
+
+    private int addEntry(byte[] key, int hash) {
+        if (count == hashes.length) {
+            growEntries(hashes.length * 2);
+        }
+        if (live + tombstones + 1 > table.length * MAX_LOAD) {
+            rehash(live + 1 > table.length * MAX_LOAD / 2 ? table.length * 2 : table.length);
+        }
+        if (namesLength + key.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + key.length));
+        }
+        System.arraycopy(key, 0, names, namesLength, key.length);
+
+        int entry = count++;
+        hashes[entry] = hash;
+        nameRefs[entry] = ((long) namesLength << 16) | key.length;
+        namesLength += key.length;
+        insertSlot(entry);
+        live++;
+        return entry;
+    }
+
+    private void insertSlot(int entry) {
+        int mask = table.length - 1;
+        int slot = hashes[entry] & mask;
+        while (table[slot] != FREE && table[slot] != DELETED) {
+            slot = (slot + 1) & mask;
+        }
+        if (table[slot] == DELETED) {
+            tombstones--;
+        }
+        table[slot] = entry + 1;
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        tombstones = 0;
+        for (int entry = 0; entry < count; entry++) {
+            if (days[entry] >= 0) {
+                insertSlot(entry);
+            }
+        }
+    }
+
+    /**
+     * Reescribe los arreglos sólo con las entradas vigentes, liberando nombres y celdas de las
+     * eliminadas.
+     */
+    private void compact() {
+        int[] oldHashes = hashes;
+        long[] oldRefs = nameRefs;
+        byte[] oldNames = names;
+        int[] oldDays = days;
+        long[] oldSizes = sizes;
+        long[] oldCreated = createdAt;
+        byte[] oldChecksums = checksums;
+        int oldCount = count;
+
+        int capacity = Integer.highestOneBit(Math.max(16, live * 2 - 1)) << 1;
+        allocate(capacity);
+        for (int entry = 0; entry < oldCount; entry++) {
+            if (oldDays[entry] < 0) {
+                continue;
+            }
+            int offset = (int) (oldRefs[entry] >>> 16);
+            int length = (int) (oldRefs[entry] & 0xFFFF);
+            if (namesLength + length > names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + length));
+            }
+            System.arraycopy(oldNames, offset, names, namesLength, length);
+            int target = count++;
+            hashes[target] = oldHashes[entry];
+            nameRefs[target] = ((long) namesLength << 16) | length;
+            namesLength += length;
+            days[target] = oldDays[entry];
+            sizes[target] = oldSizes[entry];
+            createdAt[target] = oldCreated[entry];
+            System.arraycopy(oldChecksums, entry * CHECKSUM_BYTES, checksums, target * CHECKSUM_BYTES, CHECKSUM_BYTES);
+            insertSlot(target);
+        }
+        live = count;
+        logger.info("Índice de documentos compactado: {} entradas eliminadas liberadas", oldCount - count);
+    }
+
+    private void allocate(int capacity) {
+        int tableSize = Integer.highestOneBit((int) Math.ceil(capacity / MAX_LOAD)) << 1;
+        table = new int[tableSize];
+        tombstones = 0;
+        count = 0;
+        live = 0;
+        hashes = new int[capacity];
+        nameRefs = new long[capacity];
+        names = new byte[capacity * 48];
+        namesLength = 0;
+        days = new int[capacity];
+        sizes = new long[capacity];
+        createdAt = new long[capacity];
+        checksums = new byte[capacity * CHECKSUM_BYTES];
+    }
+
+    private void growEntries(int capacity) {
+        hashes = Arrays.copyOf(hashes, capacity);
+        nameRefs = Arrays.copyOf(nameRefs, capacity);
+        days = Arrays.copyOf(days, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        checksums = Arrays.copyOf(checksums, capacity * CHECKSUM_BYTES);
+    }
+
+    private boolean nameEquals(int entry, byte[] key) {
+        int offset = (int) (nameRefs[entry] >>> 16);
+        int length = (int) (nameRefs[entry] & 0xFFFF);
+        return length == key.length && Arrays.equals(names, offset, offset + length, key, 0, length);
+    }
+
+    private Document document(int entry, String filename) {
+        LocalDate day = LocalDate.ofEpochDay(days[entry]);
+        int month = day.getMonthValue();
+        int dayOfMonth = day.getDayOfMonth();
+        String partition = day.getYear() + (month < 10 ? "/0" : "/") + month + (dayOfMonth < 10 ? "/0" : "/") + dayOfMonth;
+        Path path = base.resolve(partition).resolve(filename);
+        return new Document(filename, path, sizes[entry], checksumHex(entry), Instant.ofEpochMilli(createdAt[entry]));
+    }
+
+    private String checksumHex(int entry) {
+        int offset = entry * CHECKSUM_BYTES;
+        boolean known = false;
+        char[] hex = new char[CHECKSUM_BYTES * 2];
+        for (int i = 0; i < CHECKSUM_BYTES; i++) {
+            int b = checksums[offset + i] & 0xff;
+            known |= b != 0;
+            hex[i * 2] = HEX[b >>> 4];
+            hex[i * 2 + 1] = HEX[b & 0x0f];
+        }
+        return known ? new String(hex) : null;
+    }
+
+    private static byte[] parseChecksum(String checksum) {
+        if (checksum == null || checksum.length() != CHECKSUM_BYTES * 2) {
+            return null;
+        }
+        byte[] digest = new byte[CHECKSUM_BYTES];
+        for (int i = 0; i < CHECKSUM_BYTES; i++) {
+            int high = Character.digit(checksum.charAt(i * 2), 16);
+            int low = Character.digit(checksum.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            digest[i] = (byte) ((high << 4) | low);
+        }
+        return digest;
+    }
+
+    /**
+     * Día de la partición {@code basePath/yyyy/MM/dd/} que contiene {@code path}.
+     */
+    private int partitionOf(Path path) {
+        Path relative = base.toAbsolutePath().normalize().relativize(path.toAbsolutePath().normalize());
+        if (relative.getNameCount() != 4) {
+            throw new IllegalArgumentException("El documento no está en una partición yyyy/MM/dd: " + path);
+        }
+        return (int) LocalDate.of(Integer.parseInt(relative.getName(0).toString()),
+            Integer.parseInt(relative.getName(1).toString()),
+            Integer.parseInt(relative.getName(2).toString())).toEpochDay();
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        // Mezcla para que nombres casi iguales (sólo cambia la hora) no se agrupen en la tabla
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private long memoryBytes() {
+        return table.length * 4L + hashes.length * (4L + 8 + 4 + 8 + 8 + CHECKSUM_BYTES) + names.length;
+    }
+}
@@ -3,23 +3,27 @@ package com.usiv.service;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -28,24 +32,32 @@ public class FileManagementService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileManagementService.class);
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Fecha de generación que llevan los nombres de los documentos: escritura_<rut>_yyyyMMdd_HHmmss[_n].pdf
+    private static final Pattern FILENAME_DATE = Pattern.compile("_(\\d{4})(\\d{2})(\\d{2})_\\d{6}(?:_\\d+)?\\.[^.]+$");
+
     @Value("${pdf.storage.base-path}")
     private String basePath;
 
     @Value("${pdf.storage.download-base-url}")
     private String downloadBaseUrl;
 
-    @Value("${pdf.cleanup.retention-months:6}")
-    private int retentionMonths;
-
-    @Value("${pdf.cleanup.trash-retention-days:30}")
-    private int trashRetentionDays;
-
     @Value("${pdf.cleanup.trash-folder-name:_trash}")
     private String trashFolderName;
 
     @Value("${pdf.cleanup.enabled:true}")
     private boolean cleanupEnabled;
 
+    @Autowired
+    private DocumentIndex documentIndex;
+
+    @Autowired
+    private DocumentCache documentCache;
+
+    @Autowired
+    private StorageCleanupService storageCleanupService;
+
     public String saveFile(byte[] fileContent, String filename) throws IOException {
         // Crear estructura de directorios basada en fecha actual
         LocalDate now = LocalDate.now();
@@ -61,12 +73,79 @@ public class FileManagementService {
         
         // Guardar archivo
         Files.write(filePath, fileContent);
+        documentIndex.put(uniqueFilename, filePath, fileContent.length, calculateChecksum(fileContent), Instant.now());
         
         logger.info("Archivo guardado: {} (tamaño: {} bytes)", filePath, fileContent.length);
         
         return filePath.toString();
     }
 
+    /**
+     * Reserva en el directorio del día un nombre libre para {@code filename} creando el archivo
+     * vacío, de modo que peticiones concurrentes con el mismo nombre reciban nombres distintos
+     * antes de incrustarlos en el documento (QR y token de descarga).
+     */
+    public Path reserveFile(String filename) throws IOException {
+        Path directoryPath = todayDirectory();
+        Files.createDirectories(directoryPath);
+        while (true) {
+            Path filePath = directoryPath.resolve(generateUniqueFilename(directoryPath, filename));
+            try {
+                return Files.createFile(filePath);
+            } catch (FileAlreadyExistsException e) {
+                // Otro hilo tomó el mismo nombre entre la búsqueda y la creación
+            }
+        }
+    }
+
+    /**
+     * Crea un archivo temporal junto al archivo reservado para escribir el documento
+     * directamente en su ubicación final. Se publica con
+     * {@link #commitStagingFile(Path, Path, String)} o se descarta con {@link #discardStagingFile}.
+     */
+    public Path createStagingFile(Path reservedFile) throws IOException {
+        // Files.createTempFile dejaría permisos 0600; el archivo publicado debe tener los habituales
+        String stagingName = "." + reservedFile.getFileName() + "." + UUID.randomUUID() + ".tmp";
+        return Files.createFile(reservedFile.getParent().resolve(stagingName));
+    }
+
+    /**
+     * Publica el archivo temporal sobre el nombre reservado mediante un movimiento atómico
+     * dentro del mismo directorio. El checksum lo calculó quien escribió el archivo y queda
+     * registrado en el índice de documentos, sin volver a leerlo.
+     */
+    public String commitStagingFile(Path stagingFile, Path reservedFile, String checksum) throws IOException {
+        Files.move(stagingFile, reservedFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        long size = Files.size(reservedFile);
+        documentIndex.put(reservedFile.getFileName().toString(), reservedFile, size, checksum, Instant.now());
+        logger.info("Archivo guardado: {} (tamaño: {} bytes)", reservedFile, size);
+
+        return reservedFile.toString();
+    }
+
+    public void discardStagingFile(Path stagingFile) {
+        try {
+            Files.deleteIfExists(stagingFile);
+        } catch (IOException e) {
+            logger.warn("No se pudo eliminar archivo temporal: {}", stagingFile, e);
+        }
+    }
+
+    /**
+     * Libera un nombre reservado con {@link #reserveFile} cuyo documento no llegó a publicarse.
+     */
+    public void releaseReservation(Path reservedFile) {
+        discardStagingFile(reservedFile);
+    }
+
+    private Path todayDirectory() {
+        LocalDate now = LocalDate.now();
+        String yearMonth = now.format(DateTimeFormatter.ofPattern("yyyy/MM"));
+        String day = now.format(DateTimeFormatter.ofPattern("dd"));
+        return Paths.get(basePath, yearMonth, day);
+    }
+
     public String generateDownloadUrl(String filePath, String downloadToken) {
         // Convertir ruta absoluta a ruta relativa desde base path
         String relativePath = Paths.get(basePath).relativize(Paths.get(filePath)).toString();
@@ -75,41 +154,117 @@ public class FileManagementService {
         return String.format("%s/%s?token=%s", downloadBaseUrl, relativePath, downloadToken);
     }
 
+    /**
+     * Contenido de un documento. Los recientes salen de {@link DocumentCache}; el arreglo
+     * puede ser el de la caché, así que no debe modificarse.
+     */
     public byte[] getFile(String relativePath) throws IOException {
-        Path filePath = Paths.get(basePath, relativePath);
-        
-        if (!Files.exists(filePath)) {
+        DocumentIndex.Document document = findDocument(relativePath);
+        if (document == null) {
             throw new IOException("Archivo no encontrado: " + relativePath);
         }
-        
-        if (!filePath.normalize().startsWith(Paths.get(basePath).normalize())) {
+
+        byte[] cached = documentCache.get(document);
+        return cached != null ? cached : Files.readAllBytes(document.getPath());
+    }
+
+    /**
+     * Metadatos de un documento almacenado (ruta, tamaño, checksum y fecha) sin leer su
+     * contenido, o {@code null} si no existe. El checksum viene del índice, calculado al
+     * escribir el archivo; sólo los documentos indexados sin él (anteriores al índice o
+     * recuperados) se leen una vez para calcularlo y se guarda.
+     */
+    public DocumentIndex.Document getDocumentInfo(String filename) throws IOException {
+        DocumentIndex.Document document = findDocument(filename);
+        if (document == null || document.getChecksum() != null) {
+            return document;
+        }
+        String checksum = calculateChecksum(document.getPath());
+        if (documentIndex.contains(filename)) {
+            documentIndex.put(filename, document.getPath(), document.getSize(), checksum, document.getCreatedAt());
+        }
+        return new DocumentIndex.Document(filename, document.getPath(), document.getSize(), checksum,
+            document.getCreatedAt());
+    }
+
+    /**
+     * Documento almacenado con ese nombre, o {@code null} si no existe. Se busca en el índice;
+     * si no está, se prueba la ruta relativa a {@code basePath} (documentos anteriores a las
+     * particiones por día) y la partición del día que indica el nombre (documentos cuyo
+     * registro en el índice se perdió en una caída del servidor), y lo que se encuentre se
+     * agrega al índice.
+     */
+    public DocumentIndex.Document findDocument(String relativePath) throws IOException {
+        DocumentIndex.Document document = documentIndex.get(relativePath);
+        if (document != null) {
+            return document;
+        }
+
+        Path root = Paths.get(basePath).normalize();
+        Path filePath = root.resolve(relativePath).normalize();
+        if (!filePath.startsWith(root)) {
             throw new SecurityException("Acceso denegado: ruta fuera del directorio permitido");
         }
-        
-        return Files.readAllBytes(filePath);
+        if (Files.isRegularFile(filePath)) {
+            return new DocumentIndex.Document(relativePath, filePath, Files.size(filePath), null,
+                Files.getLastModifiedTime(filePath).toInstant());
+        }
+
+        Matcher date = FILENAME_DATE.matcher(relativePath);
+        if (relativePath.indexOf('/') >= 0 || relativePath.indexOf('\\') >= 0 || !date.find()) {
+            return null;
+        }
+        Path candidate = root.resolve(date.group(1)).resolve(date.group(2)).resolve(date.group(3)).resolve(relativePath);
+        // Un nombre reservado cuyo documento aún se genera existe vacío: no es un documento
+        if (!Files.isRegularFile(candidate) || Files.size(candidate) == 0) {
+            return null;
+        }
+        Instant created = Files.getLastModifiedTime(candidate).toInstant();
+        documentIndex.put(relativePath, candidate, Files.size(candidate), null, created);
+        logger.info("Documento recuperado en el índice: {}", candidate);
+        return documentIndex.get(relativePath);
     }
 
     public String calculateChecksum(byte[] content) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(content);
-            StringBuilder hexString = new StringBuilder();
-            
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
+            return toHex(md.digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Error calculando checksum", e);
+            return "unknown";
+        }
+    }
+
+    /**
+     * Checksum SHA-256 de un archivo leído por bloques, sin cargarlo completo en memoria.
+     */
+    public String calculateChecksum(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] block = new byte[8192];
+            int read;
+            while ((read = in.read(block)) != -1) {
+                md.update(block, 0, read);
             }
-            
-            return hexString.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException e) {
             logger.error("Error calculando checksum", e);
             return "unknown";
         }
     }
 
+    /**
+     * Hexadecimal en minúsculas de un digest, sin un {@code String.format} por byte.
+     */
+    static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[hash[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
     private String generateUniqueFilename(Path directory, String originalFilename) {
         String name = originalFilename;
         String extension = "";
@@ -123,7 +278,8 @@ public class FileManagementService {
         String filename = originalFilename;
         int counter = 1;
         
-        while (Files.exists(directory.resolve(filename))) {
+        // El nombre es la clave de descarga: debe ser único en todo el almacenamiento, no sólo en el día
+        while (Files.exists(directory.resolve(filename)) || documentIndex.contains(filename)) {
             filename = String.format("%s_%d%s", name, counter, extension);
             counter++;
         }
@@ -131,6 +287,9 @@ public class FileManagementService {
         return filename;
     }
 
+    /**
+     * Limpieza nocturna por retención; ver {@link StorageCleanupService}.
+     */
     @Scheduled(cron = "${pdf.cleanup.schedule-cron:0 0 2 * * ?}")
     public void performCleanup() {
         if (!cleanupEnabled) {
@@ -139,93 +298,7 @@ public class FileManagementService {
         }
         
         logger.info("Iniciando limpieza automática de archivos");
-        
-        try {
-            // Paso 1: Mover archivos antiguos a papelera
-            moveOldFilesToTrash();
-            
-            // Paso 2: Eliminar archivos de papelera antiguos
-            deleteOldTrashFiles();
-            
-            logger.info("Limpieza automática completada");
-        } catch (Exception e) {
-            logger.error("Error durante la limpieza automática", e);
-        }
-    }
-
-    private void moveOldFilesToTrash() throws IOException {
-        LocalDate cutoffDate = LocalDate.now().minusMonths(retentionMonths);
-        Path baseDir = Paths.get(basePath);
-        Path trashDir = baseDir.resolve(trashFolderName);
-        
-        Files.createDirectories(trashDir);
-        
-        List<Path> filesToMove = new ArrayList<>();
-        
-        // Buscar archivos antiguos
-        try (Stream<Path> paths = Files.walk(baseDir)) {
-            paths.filter(Files::isRegularFile)
-                 .filter(path -> !path.startsWith(trashDir))
-                 .filter(path -> isFileOlderThan(path, cutoffDate))
-                 .forEach(filesToMove::add);
-        }
-        
-        // Mover archivos a papelera
-        for (Path file : filesToMove) {
-            try {
-                String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-                String trashFilename = timestamp + "_" + file.getFileName().toString();
-                Path trashFile = trashDir.resolve(trashFilename);
-                
-                Files.move(file, trashFile, StandardCopyOption.REPLACE_EXISTING);
-                logger.info("Archivo movido a papelera: {} -> {}", file, trashFile);
-            } catch (IOException e) {
-                logger.error("Error moviendo archivo a papelera: {}", file, e);
-            }
-        }
-        
-        logger.info("Archivos movidos a papelera: {}", filesToMove.size());
-    }
-
-    private void deleteOldTrashFiles() throws IOException {
-        LocalDate cutoffDate = LocalDate.now().minusDays(trashRetentionDays);
-        Path trashDir = Paths.get(basePath, trashFolderName);
-        
-        if (!Files.exists(trashDir)) {
-            return;
-        }
-        
-        List<Path> filesToDelete = new ArrayList<>();
-        
-        try (Stream<Path> paths = Files.walk(trashDir)) {
-            paths.filter(Files::isRegularFile)
-                 .filter(path -> isFileOlderThan(path, cutoffDate))
-                 .forEach(filesToDelete::add);
-        }
-        
-        // Eliminar archivos
-        for (Path file : filesToDelete) {
-            try {
-                Files.delete(file);
-                logger.info("Archivo eliminado de papelera: {}", file);
-            } catch (IOException e) {
-                logger.error("Error eliminando archivo de papelera: {}", file, e);
-            }
-        }
-        
-        logger.info("Archivos eliminados de papelera: {}", filesToDelete.size());
-    }
-
-    private boolean isFileOlderThan(Path file, LocalDate cutoffDate) {
-        try {
-            LocalDate fileDate = LocalDate.ofEpochDay(
-                Files.getLastModifiedTime(file).toInstant().getEpochSecond() / 86400
-            );
-            return fileDate.isBefore(cutoffDate);
-        } catch (IOException e) {
-            logger.error("Error obteniendo fecha de archivo: {}", file, e);
-            return false;
-        }
+        storageCleanupService.cleanup();
     }
 
     public void manualCleanup() {
@@ -235,8 +308,8 @@ public class FileManagementService {
 
     public boolean fileExists(String relativePath) {
         try {
-            Path fullPath = Paths.get(basePath, relativePath);
-            return Files.exists(fullPath) && Files.isRegularFile(fullPath);
+            DocumentIndex.Document document = findDocument(relativePath);
+            return document != null && Files.isRegularFile(document.getPath());
         } catch (Exception e) {
             logger.error("Error checking file existence: {}", relativePath, e);
             return false;
@@ -245,9 +318,11 @@ public class FileManagementService {
 
     public boolean deleteFile(String relativePath) {
         try {
-            Path fullPath = Paths.get(basePath, relativePath);
-            if (Files.exists(fullPath)) {
-                Files.delete(fullPath);
+            DocumentIndex.Document document = findDocument(relativePath);
+            if (document != null && Files.exists(document.getPath())) {
+                Files.delete(document.getPath());
+                documentIndex.remove(relativePath);
+                documentCache.invalidate(relativePath);
                 logger.info("File deleted: {}", relativePath);
                 return true;
             } else {
@@ -0,0 +1,59 @@
+package com.usiv.service;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fuente embebida de los documentos (Roboto). El TTF se parsea una sola vez al iniciar y el
+ * {@link FontProgram} se comparte entre todas las peticiones; cada documento crea su propio
+ * {@link PdfFont} con Identity-H, que se embebe como subconjunto con los glifos usados.
+ */
+@Service
+public class FontProgramCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FontProgramCache.class);
+
+    @Value("${pdf.font.regular:fonts/Roboto-Regular.ttf}")
+    private String regularFontPath;
+
+    private FontProgram regular;
+
+    @PostConstruct
+    public void init() throws IOException {
+        long start = System.nanoTime();
+        byte[] ttf;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(regularFontPath)) {
+            if (in == null) {
+                throw new IOException("No se encontró la fuente: " + regularFontPath);
+            }
+            ttf = in.readAllBytes();
+        }
+        // Sin la caché interna de iText: la instancia se conserva aquí durante toda la vida del proceso
+        regular = FontProgramFactory.createFont(ttf, false);
+        logger.info("Fuente {} cargada en {} ms", getRegularFontName(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Fuente regular para un documento nuevo, embebida como subconjunto. Un {@link PdfFont}
+     * pertenece a un único documento y no debe reutilizarse en otro.
+     */
+    public PdfFont createRegular() {
+        return PdfFontFactory.createFont(regular, PdfEncodings.IDENTITY_H,
+            PdfFontFactory.EmbeddingStrategy.FORCE_EMBEDDED);
+    }
+
+    public String getRegularFontName() {
+        return regular.getFontNames().getFontName();
+    }
+}
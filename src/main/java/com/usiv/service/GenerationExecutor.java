@@ -0,0 +1,141 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool donde corren las generaciones síncronas de los endpoints HTTP ({@code /generate},
+ * {@code /generate/consolidated}, {@code /firmar}). El controlador encola el trabajo y libera
+ * el hilo de Tomcat; la respuesta se escribe cuando el futuro se completa. Así la maquetación
+ * y la firma, que son de CPU, quedan acotadas a {@code pdf.generation.workers} hilos y los
+ * endpoints de E/S (descargas, estado, salud) no compiten por los hilos del servidor.
+ *
+ * <p>Con la cola llena {@link #submit} rechaza el trabajo en lugar de ejecutarlo en el hilo
+ * de la petición: el controlador responde 503 con {@code Retry-After}.
+ */
+@Service
+public class GenerationExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationExecutor.class);
+
+    // Hilos de generación (0 = núcleos disponibles)
+    @Value("${pdf.generation.workers:0}")
+    private int workerCount;
+
+    @Value("${pdf.generation.queue-capacity:200}")
+    private int queueCapacity;
+
+    // Tiempo máximo de la petición, incluida la espera en cola
+    @Value("${pdf.generation.timeout-ms:120000}")
+    private long timeoutMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+
+    private Timer waitTimer;
+    private Timer runTimer;
+    private Counter rejected;
+    private Counter abandoned;
+
+    @PostConstruct
+    public void init() {
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread thread = new Thread(r, "pdf-generate-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+        waitTimer = Timer.builder("pdf.generation.wait")
+            .description("Espera en cola antes de empezar la generación")
+            .register(meterRegistry);
+        runTimer = Timer.builder("pdf.generation.run")
+            .description("Tiempo de generación y firma en el pool")
+            .register(meterRegistry);
+        rejected = Counter.builder("pdf.generation.rejected")
+            .description("Generaciones rechazadas por cola llena")
+            .register(meterRegistry);
+        abandoned = Counter.builder("pdf.generation.abandoned")
+            .description("Generaciones descartadas en cola porque la petición ya había expirado")
+            .register(meterRegistry);
+        Gauge.builder("pdf.generation.queue.depth", executor, e -> e.getQueue().size())
+            .description("Generaciones en espera de un hilo")
+            .register(meterRegistry);
+        Gauge.builder("pdf.generation.queue.capacity", this, g -> g.queueCapacity)
+            .description("Capacidad de la cola de generación")
+            .register(meterRegistry);
+        Gauge.builder("pdf.generation.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Hilos de generación ocupados")
+            .register(meterRegistry);
+        Gauge.builder("pdf.generation.pool.size", executor, ThreadPoolExecutor::getMaximumPoolSize)
+            .description("Hilos del pool de generación")
+            .register(meterRegistry);
+
+        logger.info("Pool de generación iniciado: {} hilos, cola de {}", threads, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Encola una generación. El futuro se completa en un hilo del pool con el resultado o la
+     * excepción de la tarea; si se cancela mientras espera en cola, la tarea no llega a correr.
+     *
+     * @throws RejectedExecutionException si la cola está llena
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                waitTimer.record(start - queuedAt, TimeUnit.NANOSECONDS);
+                if (future.isDone()) {
+                    // El cliente ya recibió el timeout: no se gasta CPU en un documento que nadie espera
+                    abandoned.increment();
+                    return;
+                }
+                try {
+                    future.complete(task.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    runTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        return future;
+    }
+}
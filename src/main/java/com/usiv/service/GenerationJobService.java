@@ -0,0 +1,621 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Modo asíncrono de generación. Cada trabajo se registra en un journal local de sólo anexado
+ * (una línea JSON por evento, con fsync) antes de responder 202, y se ejecuta en un pool
+ * acotado. Al reiniciar se reproduce el journal: los trabajos sin resultado se vuelven a
+ * encolar y los terminados siguen consultables hasta que vence su retención.
+ */
+@Service
+public class GenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    private static final String JOURNAL_FILE = "jobs.journal";
+    private static final int CALLBACK_ATTEMPTS = 3;
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    @Value("${pdf.jobs.journal-dir:jobs}")
+    private String journalDir;
+
+    @Value("${pdf.jobs.workers:0}")
+    private int workerCount;
+
+    @Value("${pdf.jobs.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${pdf.jobs.retention-hours:24}")
+    private long retentionHours;
+
+    @Value("${pdf.jobs.callback-timeout-ms:5000}")
+    private long callbackTimeoutMs;
+
+    @Value("${pdf.jobs.callback-allowed-hosts:}")
+    private String callbackAllowedHosts;
+
+    @Autowired
+    private PdfService pdfService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    // Trabajos reanudados que no cupieron en la cola; se encolan a medida que se libera espacio
+    private final Queue<Job> backlog = new ConcurrentLinkedQueue<>();
+
+    private Path journalPath;
+    private FileChannel journal;
+    private ObjectWriter entryWriter;
+    private ObjectReader entryReader;
+    private ThreadPoolExecutor executor;
+    private HttpClient httpClient;
+    private Set<String> allowedHosts;
+
+    private Timer waitTimer;
+    private Timer runTimer;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path dir = Paths.get(journalDir);
+        Files.createDirectories(dir);
+        journalPath = dir.resolve(JOURNAL_FILE);
+
+        entryWriter = objectMapper.copy()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writerFor(JournalEntry.class);
+        entryReader = objectMapper.copy()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(JournalEntry.class);
+
+        allowedHosts = Arrays.stream(callbackAllowedHosts.split(","))
+            .map(String::trim).filter(h -> !h.isEmpty()).map(String::toLowerCase)
+            .collect(Collectors.toSet());
+        httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(callbackTimeoutMs))
+            .build();
+
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread thread = new Thread(r, "pdf-job-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        waitTimer = Timer.builder("pdf.jobs.wait")
+            .description("Tiempo en cola de los trabajos asíncronos")
+            .register(meterRegistry);
+        runTimer = Timer.builder("pdf.jobs.run")
+            .description("Tiempo de ejecución de los trabajos asíncronos")
+            .register(meterRegistry);
+        Gauge.builder("pdf.jobs.queue.depth", this, s -> s.executor.getQueue().size() + s.backlog.size())
+            .description("Trabajos asíncronos en espera")
+            .register(meterRegistry);
+        Gauge.builder("pdf.jobs.oldest.age", this, GenerationJobService::oldestPendingAgeSeconds)
+            .description("Antigüedad en segundos del trabajo pendiente más antiguo")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+
+        List<Job> pending = replay();
+        compact();
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        // Se reanudan en orden de llegada; lo que no cabe en la cola espera en el backlog
+        pending.sort(Comparator.comparing(j -> j.submittedAt));
+        for (Job job : pending) {
+            if (!backlog.isEmpty() || !enqueue(job)) {
+                backlog.add(job);
+            }
+        }
+        logger.info("Trabajos asíncronos: {} hilos, cola de {}, {} reanudados desde el journal ({} en espera)",
+            threads, queueCapacity, pending.size(), backlog.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        executor.shutdownNow();
+        synchronized (this) {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Registra el trabajo en el journal y lo encola. Devuelve {@code null} si la cola está llena;
+     * en ese caso el trabajo no se acepta y no queda en el journal.
+     *
+     * @param idempotencyKey Idempotency-Key del cliente ya acotada a su usuario, o {@code null}
+     */
+    public Job submit(PdfGenerationRequest request, String owner, String callbackUrl,
+                      String idempotencyKey) throws IOException {
+        if (callbackUrl != null && !callbackUrl.isEmpty()) {
+            validateCallback(callbackUrl);
+        } else {
+            callbackUrl = null;
+        }
+        // Un tipo de informe o perfil desconocido se rechaza aquí (400) y no como trabajo fallido
+        pdfService.validate(request);
+        if (!backlog.isEmpty() || executor.getQueue().remainingCapacity() == 0) {
+            return null;
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), owner, callbackUrl, idempotencyKey, request, Instant.now());
+        JournalEntry entry = JournalEntry.of("SUBMITTED", job);
+        entry.request = request;
+        entry.owner = owner;
+        entry.callbackUrl = callbackUrl;
+        entry.idempotencyKey = idempotencyKey;
+        // Bajo el monitor de la compactación y con el trabajo ya en el mapa: una compactación
+        // reescribe el journal a partir de los trabajos en memoria, y si corriera entre el
+        // anexado y el registro descartaría el SUBMITTED recién escrito
+        synchronized (this) {
+            jobs.put(job.id, job);
+            try {
+                append(entry);
+            } catch (IOException e) {
+                jobs.remove(job.id);
+                throw e;
+            }
+        }
+
+        if (!enqueue(job)) {
+            // La cola se llenó entre la verificación y el envío: se descarta el trabajo
+            jobs.remove(job.id);
+            append(JournalEntry.of("REJECTED", job));
+            return null;
+        }
+        return job;
+    }
+
+    public Job getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private boolean enqueue(Job job) {
+        try {
+            executor.execute(() -> run(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            execute(job);
+        } finally {
+            Job next = backlog.peek();
+            if (next != null && enqueue(next)) {
+                backlog.remove(next);
+            }
+        }
+    }
+
+    private void execute(Job job) {
+        job.startedAt = Instant.now();
+        job.status = Status.RUNNING;
+        waitTimer.record(Duration.between(job.submittedAt, job.startedAt));
+        appendQuietly(JournalEntry.of("STARTED", job));
+
+        PdfGenerationResponse response = runTimer.record(() -> generate(job));
+
+        job.result = response;
+        job.finishedAt = Instant.now();
+        job.status = response.isSuccess() ? Status.COMPLETED : Status.FAILED;
+        job.request = null;
+
+        JournalEntry entry = JournalEntry.of(job.status.name(), job);
+        entry.response = response;
+        appendQuietly(entry);
+
+        if (job.callbackUrl != null) {
+            notifyCallback(job);
+        }
+    }
+
+    private PdfGenerationResponse generate(Job job) {
+        try {
+            return pdfService.generateAndSignPdf(job.request, job.idempotencyKey);
+        } catch (IdempotencyService.KeyConflictException | IllegalArgumentException e) {
+            // Idempotency-Key reutilizada con otro contenido, o un trabajo reanudado del journal
+            // cuyo tipo de informe ya no existe: el trabajo termina con error
+            return PdfGenerationResponse.error(e.getMessage());
+        }
+    }
+
+    private void notifyCallback(Job job) {
+        // Se valida otra vez: la resolución del host pudo cambiar desde que se aceptó el
+        // trabajo, y un trabajo reanudado del journal pudo aceptarse con otra configuración
+        try {
+            validateCallback(job.callbackUrl);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Aviso del trabajo {} descartado: {}", job.id, e.getMessage());
+            return;
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(job.toView());
+        } catch (IOException e) {
+            logger.warn("No se pudo serializar el aviso del trabajo {}", job.id, e);
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(job.callbackUrl))
+            .timeout(Duration.ofMillis(callbackTimeoutMs))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+
+        for (int attempt = 1; attempt <= CALLBACK_ATTEMPTS; attempt++) {
+            try {
+                HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() < 300) {
+                    return;
+                }
+                logger.warn("Aviso del trabajo {} rechazado por {} (HTTP {}), intento {}",
+                    job.id, job.callbackUrl, response.statusCode(), attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                logger.warn("Aviso del trabajo {} a {} falló, intento {}: {}",
+                    job.id, job.callbackUrl, attempt, e.getMessage());
+            }
+            try {
+                Thread.sleep(1000L * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.error("No se pudo avisar la finalización del trabajo {} a {}", job.id, job.callbackUrl);
+    }
+
+    private void validateCallback(String callbackUrl) {
+        URI uri;
+        try {
+            uri = URI.create(callbackUrl);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("URL de aviso inválida: " + callbackUrl);
+        }
+        String scheme = uri.getScheme();
+        if ((!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) || uri.getHost() == null) {
+            throw new IllegalArgumentException("La URL de aviso debe ser http(s) absoluta");
+        }
+        if (allowedHosts.isEmpty()) {
+            throw new IllegalArgumentException("Los avisos de finalización no están habilitados");
+        }
+        if (!allowedHosts.contains(uri.getHost().toLowerCase())) {
+            throw new IllegalArgumentException("Host de aviso no permitido: " + uri.getHost());
+        }
+        checkPublicAddress(uri.getHost());
+    }
+
+    /**
+     * Rechaza hosts que resuelven a direcciones internas (loopback, enlace local, redes
+     * privadas): aunque el nombre esté permitido, un registro DNS podría apuntar el aviso a
+     * servicios de la red interna o a los metadatos de la nube.
+     */
+    private static void checkPublicAddress(String host) {
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Host de aviso desconocido: " + host);
+        }
+        for (InetAddress address : addresses) {
+            if (isInternal(address)) {
+                throw new IllegalArgumentException("Host de aviso con dirección interna: " + host);
+            }
+        }
+    }
+
+    private static boolean isInternal(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+                || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            // fc00::/7, direcciones únicas locales
+            return (bytes[0] & 0xfe) == 0xfc;
+        }
+        // 100.64.0.0/10, espacio compartido de NAT de operador
+        return bytes[0] == 100 && (bytes[1] & 0xc0) == 64;
+    }
+
+    private double oldestPendingAgeSeconds() {
+        Instant now = Instant.now();
+        return jobs.values().stream()
+            .filter(j -> j.status == Status.QUEUED || j.status == Status.RUNNING)
+            .mapToLong(j -> Duration.between(j.submittedAt, now).getSeconds())
+            .max()
+            .orElse(0);
+    }
+
+    private synchronized void append(JournalEntry entry) throws IOException {
+        byte[] line = entryWriter.writeValueAsBytes(entry);
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n');
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    private void appendQuietly(JournalEntry entry) {
+        try {
+            append(entry);
+        } catch (IOException e) {
+            logger.error("No se pudo escribir el journal de trabajos ({} {})", entry.type, entry.jobId, e);
+        }
+    }
+
+    /**
+     * Reconstruye el estado desde el journal. Una última línea incompleta (corte durante la
+     * escritura) se ignora.
+     */
+    private List<Job> replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return new ArrayList<>();
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                lines++;
+                JournalEntry entry;
+                try {
+                    entry = entryReader.readValue(line);
+                } catch (IOException e) {
+                    logger.warn("Línea {} del journal de trabajos ilegible, se ignora", lines);
+                    continue;
+                }
+                apply(entry);
+            }
+        }
+
+        Instant cutoff = Instant.now().minus(Duration.ofHours(retentionHours));
+        jobs.values().removeIf(j -> j.finishedAt != null && j.finishedAt.isBefore(cutoff));
+
+        List<Job> pending = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.status == Status.QUEUED || job.status == Status.RUNNING) {
+                // Un trabajo interrumpido a mitad de ejecución se repite completo
+                job.status = Status.QUEUED;
+                job.startedAt = null;
+                pending.add(job);
+            }
+        }
+        logger.info("Journal de trabajos reproducido: {} eventos, {} trabajos, {} pendientes",
+            lines, jobs.size(), pending.size());
+        return pending;
+    }
+
+    private void apply(JournalEntry entry) {
+        if ("SUBMITTED".equals(entry.type)) {
+            jobs.put(entry.jobId, new Job(entry.jobId, entry.owner, entry.callbackUrl, entry.idempotencyKey,
+                entry.request, entry.at));
+            return;
+        }
+        Job job = jobs.get(entry.jobId);
+        if (job == null) {
+            return;
+        }
+        switch (entry.type) {
+            case "STARTED":
+                job.status = Status.RUNNING;
+                job.startedAt = entry.at;
+                break;
+            case "COMPLETED":
+            case "FAILED":
+                job.status = Status.valueOf(entry.type);
+                job.finishedAt = entry.at;
+                job.result = entry.response;
+                job.request = null;
+                break;
+            case "REJECTED":
+                jobs.remove(entry.jobId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reescribe el journal sólo con los trabajos vigentes: los pendientes con su solicitud y los
+     * terminados con su resultado. Se escribe aparte y se reemplaza con un movimiento atómico.
+     */
+    private void compact() throws IOException {
+        Path tmp = journalPath.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Job job : jobs.values()) {
+                JournalEntry submitted = JournalEntry.of("SUBMITTED", job);
+                submitted.at = job.submittedAt;
+                submitted.owner = job.owner;
+                submitted.callbackUrl = job.callbackUrl;
+                submitted.idempotencyKey = job.idempotencyKey;
+                submitted.request = job.request;
+                writeLine(out, submitted);
+                if (job.finishedAt != null) {
+                    JournalEntry finished = JournalEntry.of(job.status.name(), job);
+                    finished.at = job.finishedAt;
+                    finished.response = job.result;
+                    writeLine(out, finished);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(tmp, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void writeLine(FileChannel out, JournalEntry entry) throws IOException {
+        byte[] line = entryWriter.writeValueAsBytes(entry);
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n');
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Descarta de memoria y del journal los trabajos terminados cuya retención venció.
+     */
+    @Scheduled(fixedDelayString = "${pdf.jobs.compaction-interval-ms:3600000}",
+               initialDelayString = "${pdf.jobs.compaction-interval-ms:3600000}")
+    public void expireFinishedJobs() {
+        Instant cutoff = Instant.now().minus(Duration.ofHours(retentionHours));
+        boolean removed = jobs.values().removeIf(j -> j.finishedAt != null && j.finishedAt.isBefore(cutoff));
+        if (!removed) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                journal.close();
+                compact();
+            } catch (IOException e) {
+                logger.error("No se pudo compactar el journal de trabajos", e);
+            } finally {
+                try {
+                    journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    logger.error("No se pudo reabrir el journal de trabajos", e);
+                }
+            }
+        }
+    }
+
+    public static class Job {
+        private final String id;
+        private final String owner;
+        private final String callbackUrl;
+        private final String idempotencyKey;
+        private final Instant submittedAt;
+        private volatile PdfGenerationRequest request;
+        private volatile Status status = Status.QUEUED;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile PdfGenerationResponse result;
+
+        Job(String id, String owner, String callbackUrl, String idempotencyKey, PdfGenerationRequest request,
+            Instant submittedAt) {
+            this.id = id;
+            this.owner = owner;
+            this.callbackUrl = callbackUrl;
+            this.idempotencyKey = idempotencyKey;
+            this.request = request;
+            this.submittedAt = submittedAt;
+        }
+
+        public String getId() { return id; }
+        public String getOwner() { return owner; }
+        public Status getStatus() { return status; }
+
+        /**
+         * Vista para la API y el aviso de finalización (sin la solicitud original).
+         */
+        public Map<String, Object> toView() {
+            Map<String, Object> view = new LinkedHashMap<>();
+            view.put("jobId", id);
+            view.put("status", status);
+            view.put("submittedAt", submittedAt);
+            view.put("startedAt", startedAt);
+            view.put("finishedAt", finishedAt);
+            if (result != null) {
+                view.put("result", result);
+            }
+            return view;
+        }
+    }
+
+    /**
+     * Línea del journal. Sólo el evento SUBMITTED lleva la solicitud y sólo los finales llevan
+     * la respuesta.
+     */
+    public static class JournalEntry {
+        public String type;
+        public String jobId;
+        public Instant at;
+        public String owner;
+        public String callbackUrl;
+        public String idempotencyKey;
+        public PdfGenerationRequest request;
+        public PdfGenerationResponse response;
+
+        static JournalEntry of(String type, Job job) {
+            JournalEntry entry = new JournalEntry();
+            entry.type = type;
+            entry.jobId = job.id;
+            entry.at = Instant.now();
+            return entry;
+        }
+    }
+}
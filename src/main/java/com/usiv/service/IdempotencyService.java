@@ -0,0 +1,418 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Idempotencia de la generación. Una solicitud repetida dentro de la ventana configurada
+ * devuelve el documento ya firmado en lugar de generar otro. La clave es la
+ * {@code Idempotency-Key} enviada por el cliente o, si no la hay, el SHA-256 del JSON canónico
+ * de la solicitud (propiedades y mapas ordenados por nombre).
+ *
+ * <p>Las claves vigentes se guardan en una caché Caffeine acotada y en un índice local de sólo
+ * anexado (una línea JSON por documento), que se vuelve a cargar al iniciar. Sólo se registran
+ * las generaciones exitosas; solicitudes iguales simultáneas esperan a la primera.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private static final String INDEX_FILE = "idempotency.index";
+
+    @Value("${pdf.idempotency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdf.idempotency.window-minutes:15}")
+    private long windowMinutes;
+
+    @Value("${pdf.idempotency.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${pdf.idempotency.index-dir:idempotency}")
+    private String indexDir;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, IndexEntry> entries;
+
+    // Generaciones en curso por clave: las solicitudes iguales que llegan mientras tanto esperan
+    private final Map<String, CompletableFuture<PdfGenerationResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private Path indexPath;
+    private FileChannel index;
+    private ObjectWriter canonicalWriter;
+    private ObjectWriter entryWriter;
+    private ObjectReader entryReader;
+
+    private Counter replayed;
+    private Counter keyConflicts;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            logger.info("Idempotencia de generación deshabilitada");
+            return;
+        }
+        entries = Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            // La ventana corre desde la generación (entry.at), no desde que la entrada llegó a la
+            // caché: una clave recargada del índice al iniciar conserva sólo lo que le quedaba
+            .expireAfter(new WindowExpiry(Duration.ofMinutes(windowMinutes)))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "pdf.idempotency");
+
+        replayed = Counter.builder("pdf.idempotency.replayed")
+            .description("Solicitudes repetidas respondidas con un documento ya generado")
+            .register(meterRegistry);
+        keyConflicts = Counter.builder("pdf.idempotency.conflicts")
+            .description("Idempotency-Key reutilizadas con una solicitud distinta")
+            .register(meterRegistry);
+
+        canonicalWriter = objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        entryWriter = objectMapper.copy()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .writerFor(IndexEntry.class);
+        entryReader = objectMapper.copy()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(IndexEntry.class);
+
+        Path dir = Paths.get(indexDir);
+        Files.createDirectories(dir);
+        indexPath = dir.resolve(INDEX_FILE);
+        int loaded = load();
+        compact();
+        index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        logger.info("Idempotencia de generación: ventana de {} min, hasta {} claves, {} cargadas del índice",
+            windowMinutes, maxEntries, loaded);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        synchronized (this) {
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta {@code generator} salvo que la misma solicitud (o la misma {@code clientKey}) ya
+     * tenga un documento vigente, en cuyo caso devuelve una copia de esa respuesta.
+     *
+     * @throws KeyConflictException si la {@code clientKey} ya se usó con otra solicitud
+     *
+     * @param clientKey clave enviada por el cliente, ya acotada a su usuario; {@code null} usa el hash
+     */
+    public PdfGenerationResponse execute(PdfGenerationRequest request, String clientKey,
+                                         Supplier<PdfGenerationResponse> generator) {
+        if (!enabled) {
+            return generator.get();
+        }
+        String requestHash = canonicalHash(request);
+        String key = clientKey != null ? "key:" + clientKey : "hash:" + requestHash;
+
+        PdfGenerationResponse previous = lookup(key, requestHash);
+        if (previous != null) {
+            return previous;
+        }
+
+        CompletableFuture<PdfGenerationResponse> mine = new CompletableFuture<>();
+        CompletableFuture<PdfGenerationResponse> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            await(running);
+            // Si la primera falló se reintenta desde el principio
+            previous = lookup(key, requestHash);
+            return previous != null ? previous : execute(request, clientKey, generator);
+        }
+
+        try {
+            // Pudo terminar otra generación entre la consulta y el registro en curso
+            previous = lookup(key, requestHash);
+            if (previous != null) {
+                mine.complete(previous);
+                return previous;
+            }
+            PdfGenerationResponse response = generator.get();
+            if (response.isSuccess()) {
+                record(new IndexEntry(key, requestHash, Instant.now(), response));
+            }
+            mine.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private PdfGenerationResponse lookup(String key, String requestHash) {
+        IndexEntry entry = entries.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.requestHash.equals(requestHash)) {
+            keyConflicts.increment();
+            throw new KeyConflictException("La Idempotency-Key ya se usó con una solicitud distinta");
+        }
+        // El documento pudo haberse eliminado (limpieza o borrado manual): se genera de nuevo
+        if (entry.storedPath == null || !Files.exists(Paths.get(entry.storedPath))) {
+            entries.invalidate(key);
+            return null;
+        }
+        replayed.increment();
+        return entry.toResponse();
+    }
+
+    private static void await(CompletableFuture<PdfGenerationResponse> running) {
+        try {
+            running.join();
+        } catch (CompletionException e) {
+            // El error es de la otra solicitud; ésta lo intenta por su cuenta
+        }
+    }
+
+    String canonicalHash(PdfGenerationRequest request) {
+        try {
+            // Como mapa para que todas las propiedades, incluidos los campos adicionales, salgan ordenadas
+            Map<String, Object> tree = objectMapper.convertValue(request, new TypeReference<Map<String, Object>>() {});
+            byte[] canonical = canonicalWriter.writeValueAsBytes(tree);
+            return FileManagementService.toHex(MessageDigest.getInstance("SHA-256").digest(canonical));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No se pudo calcular el hash de la solicitud", e);
+        }
+    }
+
+    private void record(IndexEntry entry) {
+        entries.put(entry.key, entry);
+        try {
+            append(entry);
+        } catch (IOException e) {
+            // Sin el índice la clave sigue vigente en memoria; sólo se pierde tras un reinicio
+            logger.warn("No se pudo escribir el índice de idempotencia ({})", entry.key, e);
+        }
+    }
+
+    /**
+     * Anexa sin fsync: perder las últimas líneas ante un corte de energía sólo permite que una
+     * solicitud repetida genere otro documento.
+     */
+    private synchronized void append(IndexEntry entry) throws IOException {
+        writeLine(index, entry);
+    }
+
+    private void writeLine(FileChannel out, IndexEntry entry) throws IOException {
+        byte[] line = entryWriter.writeValueAsBytes(entry);
+        ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n');
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Carga las claves del índice que siguen dentro de la ventana. Las líneas ilegibles (por
+     * ejemplo una última línea cortada) se ignoran.
+     */
+    private int load() throws IOException {
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(windowMinutes));
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                IndexEntry entry;
+                try {
+                    entry = entryReader.readValue(line);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (entry.key == null || entry.at == null || entry.at.isBefore(cutoff)) {
+                    continue;
+                }
+                entries.put(entry.key, entry);
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Reescribe el índice sólo con las claves vigentes. Se escribe aparte y se reemplaza con un
+     * movimiento atómico.
+     */
+    private void compact() throws IOException {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(windowMinutes));
+        List<IndexEntry> live = new ArrayList<>(entries.asMap().values());
+        live.removeIf(e -> e.at.isBefore(cutoff));
+        live.sort((a, b) -> a.at.compareTo(b.at));
+
+        Path tmp = indexPath.resolveSibling(INDEX_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (IndexEntry entry : live) {
+                writeLine(out, entry);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Quita del índice en disco las claves que ya salieron de la ventana.
+     */
+    @Scheduled(fixedDelayString = "${pdf.idempotency.compaction-interval-ms:3600000}",
+               initialDelayString = "${pdf.idempotency.compaction-interval-ms:3600000}")
+    public void compactIndex() {
+        if (!enabled) {
+            return;
+        }
+        entries.cleanUp();
+        synchronized (this) {
+            try {
+                index.close();
+                compact();
+            } catch (IOException e) {
+                logger.error("No se pudo compactar el índice de idempotencia", e);
+            } finally {
+                try {
+                    index = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    logger.error("No se pudo reabrir el índice de idempotencia", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Idempotency-Key reutilizada con una solicitud distinta de la que la registró.
+     */
+    public static class KeyConflictException extends RuntimeException {
+        KeyConflictException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Vencimiento de cada clave al cumplirse la ventana contada desde {@code entry.at}. Una
+     * lectura no la extiende.
+     */
+    private static class WindowExpiry implements Expiry<String, IndexEntry> {
+        private final long windowNanos;
+
+        WindowExpiry(Duration window) {
+            this.windowNanos = window.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String key, IndexEntry entry, long currentTime) {
+            long elapsed = Duration.between(entry.at, Instant.now()).toNanos();
+            return Math.max(0, windowNanos - elapsed);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, IndexEntry entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, IndexEntry entry, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    /**
+     * Línea del índice: la clave, el hash de la solicitud que la produjo y la respuesta
+     * entregada (la ruta en disco va aparte porque la respuesta no la serializa).
+     */
+    static class IndexEntry {
+        public String key;
+        public String requestHash;
+        public Instant at;
+        public String storedPath;
+        public PdfGenerationResponse response;
+
+        public IndexEntry() {
+        }
+
+        IndexEntry(String key, String requestHash, Instant at, PdfGenerationResponse response) {
+            this.key = key;
+            this.requestHash = requestHash;
+            this.at = at;
+            this.storedPath = response.getStoredPath();
+            this.response = response;
+        }
+
+        PdfGenerationResponse toResponse() {
+            PdfGenerationResponse copy = new PdfGenerationResponse(true, response.getMessage());
+            copy.setFilename(response.getFilename());
+            copy.setDownloadUrl(response.getDownloadUrl());
+            copy.setDownloadToken(response.getDownloadToken());
+            copy.setShortUrl(response.getShortUrl());
+            copy.setQrCode(response.getQrCode());
+            copy.setGeneratedAt(response.getGeneratedAt());
+            copy.setExpiresAt(response.getExpiresAt());
+            copy.setFileSizeBytes(response.getFileSizeBytes());
+            copy.setChecksum(response.getChecksum());
+            copy.setStoredPath(storedPath);
+            copy.setReplayed(true);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.usiv.service;
+
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import java.util.Locale;
+
+/**
+ * Perfiles de salida de los documentos generados. Cada uno fija cómo escribe iText el PDF sin
+ * firmar y la revisión que agrega el firmante:
+ * <ul>
+ *   <li>{@code fullCompression}: objetos en object streams y tabla xref comprimida.</li>
+ *   <li>{@code compressionLevel}: nivel Deflate de los streams nuevos (contenido, fuentes, imágenes).</li>
+ *   <li>{@code smartMode}: reutiliza objetos repetidos entre páginas en lugar de escribirlos de nuevo.</li>
+ *   <li>{@code reencodeImages}: la plantilla usa el logo remuestreado al tamaño en que se muestra
+ *       (el QR es siempre vectorial).</li>
+ * </ul>
+ * Los valores medidos de cada perfil se obtienen con {@code OutputProfileBenchmark}.
+ */
+public enum PdfOutputProfile {
+
+    /** Menor latencia: sin object streams y Deflate al mínimo. */
+    FAST(false, CompressionConstants.BEST_SPEED, false, false),
+
+    /** Object streams con el nivel Deflate por defecto e imágenes recodificadas. */
+    BALANCED(true, CompressionConstants.DEFAULT_COMPRESSION, false, true),
+
+    /** Menor tamaño: Deflate al máximo, object streams, modo inteligente e imágenes recodificadas. */
+    COMPACT(true, CompressionConstants.BEST_COMPRESSION, true, true);
+
+    private final boolean fullCompression;
+    private final int compressionLevel;
+    private final boolean smartMode;
+    private final boolean reencodeImages;
+
+    PdfOutputProfile(boolean fullCompression, int compressionLevel, boolean smartMode, boolean reencodeImages) {
+        this.fullCompression = fullCompression;
+        this.compressionLevel = compressionLevel;
+        this.smartMode = smartMode;
+        this.reencodeImages = reencodeImages;
+    }
+
+    /**
+     * Perfil por nombre, sin distinguir mayúsculas ({@code fast}, {@code balanced}, {@code compact}).
+     */
+    public static PdfOutputProfile from(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Perfil de salida desconocido: " + name);
+        }
+    }
+
+    /**
+     * Propiedades para el {@link PdfWriter} del documento sin firmar.
+     */
+    public WriterProperties writerProperties() {
+        WriterProperties properties = new WriterProperties()
+            .setFullCompressionMode(fullCompression)
+            .setCompressionLevel(compressionLevel);
+        if (smartMode) {
+            properties.useSmartMode();
+        }
+        return properties;
+    }
+
+    /**
+     * Ajusta el writer que abre el firmante. Al reescribir el documento conserva los streams
+     * ya comprimidos tal como vienen y hereda las object streams del original; sólo los
+     * objetos nuevos de la firma (sello, DSS) usan estos valores.
+     */
+    public void applyTo(PdfWriter writer) {
+        writer.setCompressionLevel(compressionLevel);
+        writer.setSmartMode(smartMode);
+    }
+
+    public boolean isFullCompression() { return fullCompression; }
+    public int getCompressionLevel() { return compressionLevel; }
+    public boolean isSmartMode() { return smartMode; }
+    public boolean isReencodeImages() { return reencodeImages; }
+}
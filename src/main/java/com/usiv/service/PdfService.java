@@ -1,295 +1,440 @@
 
 package com.usiv.service;
 
-import com.itextpdf.io.font.constants.StandardFonts;
-import com.itextpdf.io.image.ImageData;
-import com.itextpdf.io.image.ImageDataFactory;
-import com.itextpdf.kernel.colors.ColorConstants;
-import com.itextpdf.kernel.colors.DeviceRgb;
 import com.itextpdf.kernel.font.PdfFont;
-import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.pdf.*;
+import com.itextpdf.kernel.pdf.navigation.PdfExplicitDestination;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
 import com.itextpdf.layout.Document;
-import com.itextpdf.layout.element.Image;
-import com.itextpdf.layout.element.Paragraph;
-import com.itextpdf.layout.element.Text;
-import com.itextpdf.layout.properties.TextAlignment;
-import com.itextpdf.signatures.*;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.itextpdf.layout.element.AreaBreak;
+import com.itextpdf.layout.properties.AreaBreakType;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import com.usiv.dto.ConsolidatedPdfRequest;
 import com.usiv.dto.PdfGenerationRequest;
 import com.usiv.dto.PdfGenerationResponse;
 import com.usiv.security.JwtTokenProvider;
 
-import java.io.*;
-import java.security.*;
-import java.security.cert.Certificate;
+import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Service
 public class PdfService {
 
+    // null si la JVM no expone la extensión de HotSpot con los bytes asignados por hilo
+    private static final com.sun.management.ThreadMXBean THREADS = allocationMXBean();
+
     @Autowired
     private QrCodeService qrCodeService;
 
     @Autowired
     private FileManagementService fileManagementService;
 
+    @Autowired
+    private DocumentCache documentCache;
+
     @Autowired
     private JwtTokenProvider jwtTokenProvider;
 
-    @Value("${pdf.signature.p12-path}")
-    private String keystorePath;
+    @Autowired
+    private PdfSigningService pdfSigningService;
+
+    @Autowired
+    private SignatureAppearanceService signatureAppearanceService;
+
+    @Autowired
+    private ReportTemplateService reportTemplateService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
 
-    @Value("${pdf.signature.password}")
-    private String keystorePassword;
+    @Autowired
+    private ReportPlanService reportPlanService;
 
-    @Value("${pdf.signature.reason}")
-    private String reason;
+    @Autowired
+    private BufferPool bufferPool;
 
-    @Value("${pdf.signature.location}")
-    private String location;
+    @Autowired
+    private ShortLinkService shortLinkService;
 
-    @Value("${pdf.signature.contact}")
-    private String contact;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @Value("${pdf.storage.download-url}")
     private String downloadBaseUrl;
 
+    @Value("${pdf.output.profile:balanced}")
+    private String defaultOutputProfile;
+
+    // Incluir el QR en PNG (base64) en la respuesta cuando la solicitud no lo indica
+    @Value("${qr.response-png:false}")
+    private boolean defaultQrPng;
+
+    @Value("${pdf.consolidated.max-reports:500}")
+    private int maxConsolidatedReports;
+
+    private DistributionSummary consolidatedReports;
+    private DistributionSummary allocatedPerRequest;
+
+    @PostConstruct
+    public void init() {
+        consolidatedReports = DistributionSummary.builder("pdf.consolidated.reports")
+            .description("Informes incluidos en cada documento consolidado")
+            .register(meterRegistry);
+        allocatedPerRequest = DistributionSummary.builder("pdf.generate.allocated.bytes")
+            .description("Memoria asignada por documento en el hilo de la petición (sin la operación RSA del pool de firma)")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
     public PdfGenerationResponse generateAndSignPdf(PdfGenerationRequest request) {
+        return generateAndSignPdf(request, null);
+    }
+
+    /**
+     * Genera y firma el documento, salvo que la misma solicitud (o la misma
+     * {@code idempotencyKey}) ya tenga uno vigente: en ese caso devuelve esa respuesta.
+     */
+    public PdfGenerationResponse generateAndSignPdf(PdfGenerationRequest request, String idempotencyKey) {
+        return idempotencyService.execute(request, idempotencyKey, () -> generate(request));
+    }
+
+    /**
+     * Comprueba que el tipo de informe y el perfil de salida de la solicitud existan.
+     *
+     * @throws IllegalArgumentException si alguno es desconocido
+     */
+    public void validate(PdfGenerationRequest request) {
+        reportPlanService.getPlan(request.getTipoInforme());
+        outputProfile(request.getPerfilSalida());
+    }
+
+    private PdfGenerationResponse generate(PdfGenerationRequest request) {
+        // Antes de reservar el archivo y fuera del manejo de errores de generación: un tipo de
+        // informe o perfil desconocido es un error del cliente (IllegalArgumentException)
+        ReportPlanService.ReportPlan plan = reportPlanService.getPlan(request.getTipoInforme());
+        PdfOutputProfile profile = outputProfile(request.getPerfilSalida());
+        long allocatedBefore = threadAllocatedBytes();
         try {
-            // Generar nombre de archivo único
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String filename = String.format("escritura_%s_%s.pdf", request.getRut(), timestamp);
-            
-            // Generar URL de descarga y token
-            String downloadUrl = downloadBaseUrl + "/download/" + filename;
+            // En memoria: un único buffer del documento, tomado del pool
+            PdfGenerationResponse response = publish(
+                String.format("escritura_%s_%s.pdf", request.getRut(), timestamp),
+                request.getIncluirQrPng(), profile, false, stage -> stageTimer(stage, profile),
+                (out, qrText, documentUrl) -> generatePdf(request, plan, out, qrText, documentUrl, profile));
+            long allocatedAfter = threadAllocatedBytes();
+            if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                allocatedPerRequest.record(allocatedAfter - allocatedBefore);
+            }
+            response.setMessage("PDF generado y firmado exitosamente");
+            return response;
+        } catch (Exception e) {
+            PdfGenerationResponse errorResponse = new PdfGenerationResponse();
+            errorResponse.setSuccess(false);
+            errorResponse.setMessage("Error al generar PDF: " + e.getMessage());
+            return errorResponse;
+        }
+    }
+
+    /**
+     * Publica un documento firmado. Reserva {@code baseName} (el QR y el token de descarga
+     * llevan el nombre definitivo), arma la URL de descarga y el enlace corto, maqueta con
+     * {@code layout}, firma directamente en un archivo temporal junto al destino y lo publica
+     * con su enlace. Si algo falla se libera la reserva y no queda nada publicado.
+     *
+     * @param spoolToFile maquetar a un archivo temporal en lugar de un buffer del pool, para
+     *                    documentos que pueden no caber en él
+     * @param stageTimer  timer de cada etapa ({@code layout}, {@code sign})
+     * @return la respuesta exitosa, sin mensaje
+     */
+    private PdfGenerationResponse publish(String baseName, Boolean incluirQrPng, PdfOutputProfile profile,
+                                          boolean spoolToFile, Function<String, Timer> stageTimer,
+                                          Layout layout) throws Exception {
+        Path reservedFile = fileManagementService.reserveFile(baseName);
+        String filename = reservedFile.getFileName().toString();
+
+        DocumentBuffer unsignedPdf = null;
+        Path unsignedFile = null;
+        Path stagingFile = null;
+        try {
+            String downloadUrl = downloadBaseUrl + "/" + filename;
             String downloadToken = jwtTokenProvider.generateDownloadToken(filename, "admin");
             String downloadUrlWithToken = downloadUrl + "?token=" + downloadToken;
-            
-            // Generar código QR con la URL de descarga
-            String qrText = String.format("Documento: %s\nFecha: %s\nURL: %s", 
-                filename, 
-                LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm")),
-                downloadUrlWithToken);
-            String qrCodeBase64 = qrCodeService.generateQrCodeBase64(qrText);
-            
-            // Generar PDF en memoria con QR code
-            ByteArrayOutputStream pdfOutputStream = new ByteArrayOutputStream();
-            generatePdf(request, pdfOutputStream, qrCodeBase64, downloadUrlWithToken);
-
-            // Firmar PDF
-            byte[] unsignedPdf = pdfOutputStream.toByteArray();
-            byte[] signedPdf = signPdf(unsignedPdf);
-
-            // Guardar archivo firmado
-            String savedPath = fileManagementService.saveFile(signedPdf, filename);
-            String checksum = fileManagementService.calculateChecksum(signedPdf);
-            
-            // Crear respuesta
+
+            // El QR lleva el enlace corto si están habilitados; el PNG sólo si el cliente lo pide
+            String shortLinkId = shortLinkService.isEnabled() ? shortLinkService.newId() : null;
+            String documentUrl = shortLinkId != null ? shortLinkService.urlFor(shortLinkId) : downloadUrlWithToken;
+            String qrText = shortLinkId != null ? documentUrl : qrText(filename, downloadUrlWithToken);
+            String qrCodeBase64 = includeQrPng(incluirQrPng) ? qrCodeService.generateQrCodeBase64(qrText) : null;
+
+            long layoutStart = System.nanoTime();
+            if (spoolToFile) {
+                unsignedFile = fileManagementService.createStagingFile(reservedFile);
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(unsignedFile))) {
+                    layout.write(out, qrText, documentUrl);
+                }
+            } else {
+                unsignedPdf = bufferPool.acquire(BufferPool.Kind.DOCUMENT);
+                layout.write(unsignedPdf, qrText, documentUrl);
+            }
+            stageTimer.apply("layout").record(System.nanoTime() - layoutStart, TimeUnit.NANOSECONDS);
+
+            // Firmar directamente en el archivo de destino y publicarlo
+            stagingFile = fileManagementService.createStagingFile(reservedFile);
+            long signStart = System.nanoTime();
+            String checksum = unsignedPdf != null
+                ? pdfSigningService.signToFile(unsignedPdf, stagingFile, profile)
+                : pdfSigningService.signToFile(unsignedFile, stagingFile, profile);
+            stageTimer.apply("sign").record(System.nanoTime() - signStart, TimeUnit.NANOSECONDS);
+            long fileSize = Files.size(stagingFile);
+            // Antes de publicar: si el enlace no se puede registrar, el documento se descarta
+            registerShortLink(shortLinkId, filename, reservedFile, checksum);
+            fileManagementService.commitStagingFile(stagingFile, reservedFile, checksum);
+            // El QR se escanea en los minutos siguientes: las primeras descargas salen de memoria
+            documentCache.put(filename, reservedFile, checksum);
+
             PdfGenerationResponse response = new PdfGenerationResponse();
             response.setSuccess(true);
-            response.setMessage("PDF generado y firmado exitosamente");
             response.setFilename(filename);
             response.setDownloadUrl(downloadUrlWithToken);
             response.setDownloadToken(downloadToken);
+            response.setShortUrl(shortLinkId != null ? documentUrl : null);
             response.setQrCode(qrCodeBase64);
             response.setGeneratedAt(LocalDateTime.now());
-            response.setExpiresAt(LocalDateTime.now().plusDays(30)); // Token válido por 30 días
-            response.setFileSizeBytes(signedPdf.length);
+            // Vencen juntos el token de descarga y el enlace corto (jwt.download-expiration)
+            response.setExpiresAt(LocalDateTime.now().plus(Duration.ofMillis(jwtTokenProvider.getDownloadExpirationMs())));
+            response.setFileSizeBytes(fileSize);
             response.setChecksum(checksum);
-            
+            response.setStoredPath(reservedFile.toString());
             return response;
         } catch (Exception e) {
-            PdfGenerationResponse errorResponse = new PdfGenerationResponse();
-            errorResponse.setSuccess(false);
-            errorResponse.setMessage("Error al generar PDF: " + e.getMessage());
-            return errorResponse;
+            if (stagingFile != null) {
+                fileManagementService.discardStagingFile(stagingFile);
+            }
+            fileManagementService.releaseReservation(reservedFile);
+            throw e;
+        } finally {
+            // El lector del firmante ya se cerró: el buffer puede volver al pool
+            bufferPool.release(BufferPool.Kind.DOCUMENT, unsignedPdf);
+            if (unsignedFile != null) {
+                fileManagementService.discardStagingFile(unsignedFile);
+            }
         }
     }
 
-    private void generatePdf(PdfGenerationRequest request, ByteArrayOutputStream outputStream, 
-                           String qrCodeBase64, String downloadUrl) throws Exception {
+    /**
+     * Paso de maquetación de {@link #publish}: escribe el documento sin firmar con el QR y la
+     * URL que lleva impresa.
+     */
+    @FunctionalInterface
+    private interface Layout {
+        void write(OutputStream out, String qrText, String documentUrl) throws Exception;
+    }
+
+    private void generatePdf(PdfGenerationRequest request, ReportPlanService.ReportPlan plan, OutputStream outputStream,
+                           String qrText, String downloadUrl, PdfOutputProfile profile) throws Exception {
         
-        PdfWriter writer = new PdfWriter(outputStream);
+        PdfWriter writer = new PdfWriter(outputStream, profile.writerProperties());
         PdfDocument pdfDoc = new PdfDocument(writer);
         Document document = new Document(pdfDoc);
-        PdfFont fuente = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        // Reservar el pie de página para el sello visible de firma
+        document.setBottomMargin(Math.max(document.getBottomMargin(), signatureAppearanceService.getReservedHeight()));
+        PdfFont fuente = reportTemplateService.createFont();
         document.setFont(fuente);
-        
-        // Imagen del logo
-        ImageData logoData = ImageDataFactory.create(getClass().getClassLoader().getResource("logoUsivComprimido.png"));
-        Image logo = new Image(logoData).scaleToFit(75, 75);
-        logo.setFixedPosition(500, 770);
-        document.add(logo);
-
-        // Agregar QR code en la esquina superior izquierda
-        if (qrCodeBase64 != null && !qrCodeBase64.isEmpty()) {
-            byte[] qrBytes = Base64.getDecoder().decode(qrCodeBase64);
-            ImageData qrImageData = ImageDataFactory.create(qrBytes);
-            Image qrImage = new Image(qrImageData).scaleToFit(80, 80);
-            qrImage.setFixedPosition(50, 750);
-            document.add(qrImage);
+
+        // Capas fijas precompiladas: logo, título, subtítulo, textos legales y encabezados
+        ReportTemplateService.StaticLayers plantilla = reportTemplateService.open(pdfDoc, profile.isReencodeImages());
+        pdfDoc.getDocumentInfo().setMoreInfo("UsivTemplateVersion", reportTemplateService.getVersion());
+        pdfDoc.getDocumentInfo().setMoreInfo("UsivReport", plan.getId() + "@" + plan.getVersion());
+
+        PdfFormXObject qrCode = qrCodeService.createVectorQr(qrText, pdfDoc);
+
+        // Contenido según el informe declarativo (ver resources/reports)
+        String fecha = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+        plan.render(document, new ReportPlanService.RenderContext(request, plantilla, qrCode, fecha, downloadUrl));
+
+        // El campo de firma queda reservado en la maquetación; el firmante sólo lo completa
+        pdfSigningService.reserveSignatureField(pdfDoc);
+        document.close();
+    }
+
+    /**
+     * Genera un solo documento con todos los informes de la solicitud, cada uno desde una página
+     * nueva y con su marcador, y lo firma una vez. La fuente, las capas fijas (logo incluido) y
+     * el QR se embeben una sola vez para todo el documento. Las páginas se escriben a un archivo
+     * temporal a medida que se completan y el firmante lo lee desde disco, así que la memoria no
+     * crece con la cantidad de informes.
+     *
+     * @throws IllegalArgumentException si se excede pdf.consolidated.max-reports o algún
+     *         informe tiene un tipo desconocido
+     */
+    public PdfGenerationResponse generateConsolidated(ConsolidatedPdfRequest request) {
+        List<PdfGenerationRequest> informes = request.getInformes();
+        if (informes.size() > maxConsolidatedReports) {
+            throw new IllegalArgumentException("El documento consolidado admite hasta "
+                + maxConsolidatedReports + " informes (recibidos: " + informes.size() + ")");
+        }
+        // Resolver los planes antes de reservar el archivo: un tipo desconocido es un error del cliente
+        List<ReportPlanService.ReportPlan> plans = new ArrayList<>(informes.size());
+        for (PdfGenerationRequest informe : informes) {
+            plans.add(reportPlanService.getPlan(informe.getTipoInforme()));
         }
+        PdfOutputProfile profile = outputProfile(request.getPerfilSalida());
 
-        // Colores y formato
-        DeviceRgb azulUsiv = new DeviceRgb(16, 41, 77);
-
-        // Título
-        document.add(new Paragraph("USIV - LICENSE")
-            .setFontSize(26)
-            .setFontColor(ColorConstants.LIGHT_GRAY)
-            .setTextAlignment(TextAlignment.CENTER)
-            .setOpacity(0.5f));
-
-        // Subtítulo
-        document.add(new Paragraph("INFORME TÉCNICO DE VERIFICACIÓN GEOGRÁFICA")
-            .setFontSize(16)
-            .setBold()
-            .setFontColor(azulUsiv)
-            .setTextAlignment(TextAlignment.CENTER));
-
-        // Fecha
-        String fecha = "Fecha del informe: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-        document.add(new Paragraph(fecha)
-            .setFontSize(9)
-            .setBold()
-            .setTextAlignment(TextAlignment.LEFT)
-            .setMultipliedLeading(0.5f));
-
-        // URL de descarga
-        document.add(new Paragraph("URL de descarga: " + downloadUrl)
-            .setFontSize(8)
-            .setFontColor(ColorConstants.BLUE)
-            .setTextAlignment(TextAlignment.LEFT)
-            .setMultipliedLeading(0.5f));
-
-        // Texto introductorio
-        String texto1 = "El presente informe tiene por objeto presentar los resultados del proceso de validación de ubicación geográfica e identidad realizado mediante la plataforma USIV. Esta validación se efectúa a través de coordenadas geográficas obtenidas desde el dispositivo móvil del usuario, así como mediante tecnologías de reconocimiento facial, con el propósito de verificar la identidad de la persona evaluada.";
-        String texto2 = "USIV garantiza que los datos consignados corresponden a la información registrada durante el proceso de validación, y se reserva el derecho de rechazar aquellos casos en que se detecten manipulaciones en la geolocalización, falsificación de identidad o cualquier intento de interferencia con los mecanismos de autenticación provistos por la plataforma.";
-        document.add(new Paragraph(texto1).setFontSize(10).setTextAlignment(TextAlignment.JUSTIFIED));
-        document.add(new Paragraph(texto2).setFontSize(10).setTextAlignment(TextAlignment.JUSTIFIED));
-
-        // Sección datos del paciente
-        document.add(new Paragraph("DATOS DEL PACIENTE")
-            .setFontSize(14)
-            .setBold()
-            .setFontColor(azulUsiv));
-
-        agregarCampo(document, "Nombre del afiliado:", request.getNombre());
-        agregarCampo(document, "RUT:", request.getRut());
-        agregarCampo(document, "Número de licencia médica:", request.getNumeroLicencia());
-        agregarCampo(document, "Fecha de emisión de licencia:", request.getFechaLicencia());
-        agregarCampo(document, "Sistema de salud:", request.getSistemaSalud());
-
-        // Validación
-        document.add(new Paragraph("VALIDACIÓN DE UBICACIÓN E IDENTIDAD")
-            .setFontSize(14)
-            .setBold()
-            .setFontColor(azulUsiv));
-
-        agregarCampo(document, "Fecha y hora de validación:", request.getFechaHoraValidacion());
-        agregarCampo(document, "Medio de validación:", "Aplicación móvil USIV - License");
-        agregarCampo(document, "- Latitud GPS:", request.getLatitud());
-        agregarCampo(document, "- Longitud GPS:", request.getLongitud());
-        agregarCampo(document, "- Precisión GPS:", request.getPrecision());
-        agregarCampo(document, "- GPS Alterado:", request.getGpsAlterado());
-        
-        agregarCampo(document, "- Dirección aproximada registrada por GPS:", request.getDireccionGps());
-        agregarCampo(document, "- Domicilio registrado para reposo:", request.getDomicilioReposo());
-        agregarCampo(document, "- Distancia entre ubicación real y domicilio:", request.getDistanciaReposo());
-        
-        agregarCampo(document, "Resultado de validación geográfica:", "");
-       
-        // Resultado geográfico con color dinámico
-        DeviceRgb colorResultado = "COINCIDE CON DOMICILIO DE REPOSO".equalsIgnoreCase(request.getResultadoGeografico()) ? 
-            new DeviceRgb(0, 128, 0) : new DeviceRgb(204, 0, 0);
-
-        document.add(new Paragraph(request.getResultadoGeografico() != null ? request.getResultadoGeografico() : "N/A")
-            .setFontSize(11).setFontColor(colorResultado).setBold());
-
-        agregarCampo(document, "Resultado de reconocimiento facial:", request.getResultadoFacial());
-        agregarCampo(document, "Usuario gestor:", request.getUsuarioGestor());
-
-        // Campos adicionales si existen
-        if (request.getCamposAdicionales() != null && !request.getCamposAdicionales().isEmpty()) {
-            document.add(new Paragraph("CAMPOS ADICIONALES")
-                .setFontSize(13)
-                .setBold()
-                .setFontColor(azulUsiv));
-            
-            for (Map.Entry<String, String> entry : request.getCamposAdicionales().entrySet()) {
-                agregarCampo(document, entry.getKey() + ":", entry.getValue());
-            }
+        try {
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            String rut = commonRut(informes);
+            // Las páginas van a un archivo temporal: la memoria no crece con la cantidad de informes
+            PdfGenerationResponse response = publish(rut != null
+                    ? String.format("consolidado_%s_%s.pdf", rut, timestamp)
+                    : String.format("consolidado_%s.pdf", timestamp),
+                request.getIncluirQrPng(), profile, true, this::consolidatedTimer,
+                (out, qrText, documentUrl) -> generateConsolidatedPdf(request, plans, out, qrText, documentUrl, profile));
+            consolidatedReports.record(informes.size());
+            response.setMessage("PDF consolidado con " + informes.size() + " informes generado y firmado exitosamente");
+            return response;
+        } catch (Exception e) {
+            PdfGenerationResponse errorResponse = new PdfGenerationResponse();
+            errorResponse.setSuccess(false);
+            errorResponse.setMessage("Error al generar PDF consolidado: " + e.getMessage());
+            return errorResponse;
         }
+    }
 
-        document.add(new Paragraph("OBSERVACIONES")
-            .setFontSize(13)
-            .setBold()
-            .setFontColor(azulUsiv));
-        document.add(new Paragraph(request.getTextoObservacion() != null ? request.getTextoObservacion() : "")
-            .setFontSize(11).setTextAlignment(TextAlignment.JUSTIFIED));
-        document.add(new Paragraph(request.getTextoUsoInforme() != null ? request.getTextoUsoInforme() : "")
-            .setFontSize(11).setTextAlignment(TextAlignment.JUSTIFIED));
+    private void generateConsolidatedPdf(ConsolidatedPdfRequest request, List<ReportPlanService.ReportPlan> plans,
+                                         OutputStream outputStream, String qrText, String downloadUrl,
+                                         PdfOutputProfile profile) throws Exception {
+        List<PdfGenerationRequest> informes = request.getInformes();
+        String titulo = request.getTitulo() != null && !request.getTitulo().isBlank()
+            ? request.getTitulo() : "Informes consolidados";
+
+        PdfDocument pdfDoc = new PdfDocument(new PdfWriter(outputStream, profile.writerProperties()));
+        // Cada página se vacía al archivo en cuanto el documento pasa a la siguiente
+        Document document = new Document(pdfDoc, PageSize.A4, true);
+        document.setBottomMargin(Math.max(document.getBottomMargin(), signatureAppearanceService.getReservedHeight()));
+        document.setFont(reportTemplateService.createFont());
+
+        ReportTemplateService.StaticLayers plantilla = reportTemplateService.open(pdfDoc, profile.isReencodeImages());
+        pdfDoc.getDocumentInfo().setTitle(titulo);
+        pdfDoc.getDocumentInfo().setMoreInfo("UsivTemplateVersion", reportTemplateService.getVersion());
+        pdfDoc.getDocumentInfo().setMoreInfo("UsivReportCount", String.valueOf(informes.size()));
+        pdfDoc.getCatalog().setPageMode(PdfName.UseOutlines);
+
+        PdfFormXObject qrCode = qrCodeService.createVectorQr(qrText, pdfDoc);
+        String fecha = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+        PdfOutline outlines = pdfDoc.getOutlines(false);
+
+        for (int i = 0; i < informes.size(); i++) {
+            PdfGenerationRequest informe = informes.get(i);
+            // Cada informe empieza en una página nueva; el salto la crea de inmediato
+            int firstPage = pdfDoc.getNumberOfPages() + 1;
+            if (i > 0) {
+                document.add(new AreaBreak(AreaBreakType.NEXT_PAGE));
+            }
+            plans.get(i).render(document,
+                new ReportPlanService.RenderContext(informe, plantilla, qrCode, fecha, downloadUrl));
+
+            // Una página ya vaciada al archivo sigue siendo un destino válido para el marcador
+            outlines.addOutline(String.format("%d. %s - Licencia %s", i + 1, informe.getNombre(), informe.getNumeroLicencia()))
+                .addDestination(PdfExplicitDestination.createFit(pdfDoc.getPage(firstPage)));
+        }
 
+        pdfSigningService.reserveSignatureField(pdfDoc);
         document.close();
     }
 
-    private byte[] signPdf(byte[] pdfBytes) throws Exception {
-        InputStream certStream = getClass().getClassLoader().getResourceAsStream(keystorePath);
-        if (certStream == null) {
-            throw new RuntimeException("No se pudo encontrar el archivo de certificado: " + keystorePath);
+    /**
+     * RUT común a todos los informes, o {@code null} si hay más de uno.
+     */
+    private static String commonRut(List<PdfGenerationRequest> informes) {
+        String rut = informes.get(0).getRut();
+        for (PdfGenerationRequest informe : informes) {
+            if (rut == null || !rut.equals(informe.getRut())) {
+                return null;
+            }
         }
-        
-        KeyStore ks = KeyStore.getInstance("PKCS12");
-        ks.load(certStream, keystorePassword.toCharArray());
-        String alias = ks.aliases().nextElement();
-        PrivateKey pk = (PrivateKey) ks.getKey(alias, keystorePassword.toCharArray());
-        Certificate[] chain = ks.getCertificateChain(alias);
-
-        Security.addProvider(new BouncyCastleProvider());
-
-        ByteArrayOutputStream signedBaos = new ByteArrayOutputStream();
-        PdfReader reader = new PdfReader(new ByteArrayInputStream(pdfBytes));
-        PdfSigner signer = new PdfSigner(reader, signedBaos, new StampingProperties());
-
-        PdfSignatureAppearance appearance = signer.getSignatureAppearance()
-                .setReason(reason)
-                .setLocation(location)
-                .setContact(contact)
-                .setReuseAppearance(false);
-        signer.setFieldName("sig");
-
-        IExternalSignature pks = new PrivateKeySignature(pk, DigestAlgorithms.SHA256, "BC");
-
-        signer.signDetached(
-            new BouncyCastleDigest(),
-            pks,
-            chain,
-            null,
-            null,
-            null,
-            0,
-            PdfSigner.CryptoStandard.CADES
-        );
-
-        return signedBaos.toByteArray();
+        return rut;
+    }
+
+    private Timer consolidatedTimer(String stage) {
+        return Timer.builder("pdf.consolidated.stage")
+            .description("Tiempo de maquetación y de firma de los documentos consolidados")
+            .tag("stage", stage)
+            .register(meterRegistry);
+    }
+
+    private void registerShortLink(String id, String filename, Path file, String checksum) throws IOException {
+        if (id != null) {
+            shortLinkService.register(id, filename, file, checksum);
+        }
+    }
+
+    /**
+     * Texto del QR cuando los enlaces cortos están deshabilitados.
+     */
+    private static String qrText(String filename, String downloadUrl) {
+        return String.format("Documento: %s\nFecha: %s\nURL: %s",
+            filename,
+            LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm")),
+            downloadUrl);
     }
 
-    private void agregarCampo(Document doc, String label, String valor) {
-        doc.add(new Paragraph()
-            .add(new Text(label).setBold())
-            .add(new Text(" " + (valor != null ? valor : "N/A")))
-            .setFontSize(11).setMultipliedLeading(0.5f));
+    private PdfOutputProfile outputProfile(String requested) {
+        return PdfOutputProfile.from(requested != null ? requested : defaultOutputProfile);
     }
 
-    // Método de compatibilidad para el controlador existente
-    public byte[] generateAndSignPdf(Map<String, String> data) throws Exception {
+    private boolean includeQrPng(Boolean requested) {
+        return requested != null ? requested : defaultQrPng;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationMXBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+    }
+
+    /**
+     * Bytes asignados hasta ahora por el hilo actual, o -1 si la JVM no lo informa.
+     */
+    private static long threadAllocatedBytes() {
+        if (THREADS == null || !THREADS.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Tiempo de cada etapa (maquetación o firma) por perfil de salida.
+     */
+    private Timer stageTimer(String stage, PdfOutputProfile profile) {
+        return Timer.builder("pdf.generate.stage")
+            .description("Tiempo de maquetación y de firma de los documentos por perfil de salida")
+            .tag("stage", stage)
+            .tag("profile", profile.name().toLowerCase())
+            .register(meterRegistry);
+    }
+
+    // Método de compatibilidad para el controlador existente. El documento queda en
+    // getStoredPath() de la respuesta; no se vuelve a leer desde disco aquí.
+    public PdfGenerationResponse generateAndSignPdf(Map<String, String> data) {
         // Convertir Map a PdfGenerationRequest para compatibilidad
         PdfGenerationRequest request = new PdfGenerationRequest();
         request.setNombre(data.get("nombre"));
@@ -310,13 +455,12 @@ public class PdfService {
         request.setUsuarioGestor(data.get("usuarioGestor"));
         request.setTextoObservacion(data.get("textoObservacion"));
         request.setTextoUsoInforme(data.get("textoUsoInforme"));
-        
-        PdfGenerationResponse response = generateAndSignPdf(request);
-        if (response.isSuccess()) {
-            // Leer el archivo guardado y retornarlo como bytes
-            return fileManagementService.getFile(response.getFilename());
-        } else {
-            throw new RuntimeException(response.getMessage());
+        request.setTipoInforme(data.get("tipoInforme"));
+        request.setPerfilSalida(data.get("perfilSalida"));
+        if (data.containsKey("incluirQrPng")) {
+            request.setIncluirQrPng(Boolean.valueOf(data.get("incluirQrPng")));
         }
+        
+        return generateAndSignPdf(request);
     }
 }
@@ -0,0 +1,363 @@
+package com.usiv.service;
+
+import com.itextpdf.forms.PdfAcroForm;
+import com.itextpdf.forms.fields.PdfFormField;
+import com.itextpdf.forms.fields.PdfSignatureFormField;
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDeveloperExtension;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.signatures.DigestAlgorithms;
+import com.itextpdf.signatures.IExternalSignatureContainer;
+import com.itextpdf.signatures.PdfSigner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Firma en dos fases. La fase uno escribe el documento con un contenedor de firma vacío
+ * y calcula el digest del rango de bytes en el hilo de la petición. La fase dos delega la
+ * operación con llave privada al {@link SignatureWorkerPool} e inyecta el CMS resultante
+ * directamente en el archivo de destino.
+ */
+@Service
+public class PdfSigningService {
+
+    static final String SIGNATURE_FIELD = "sig";
+
+    private static final int ESTIMATED_CONTAINER_SIZE = 8192;
+    // Tramo final del documento (tras /Contents) que se guarda en memoria para el checksum del archivo
+    private static final int MAX_BUFFERED_TAIL = 1 << 20;
+    private static final int BLOCK_SIZE = 8192;
+
+    @Autowired
+    private SigningMaterialRegistry signingMaterialRegistry;
+
+    @Autowired
+    private SignatureWorkerPool signatureWorkerPool;
+
+    @Autowired
+    private RevocationCache revocationCache;
+
+    @Autowired
+    private SignatureAppearanceService signatureAppearanceService;
+
+    @Value("${pdf.signature.timeout-ms:30000}")
+    private long signTimeoutMs;
+
+    /**
+     * Firma el documento y lo escribe directamente en {@code destination}: el único buffer en
+     * memoria es el del documento sin firmar; el contenedor CMS se escribe en su lugar dentro
+     * del archivo sin volver a leerlo ni a parsearlo.
+     *
+     * @return SHA-256 en hexadecimal del archivo firmado, calculado mientras se escribe
+     */
+    public String signToFile(DocumentBuffer unsigned, Path destination, PdfOutputProfile profile) throws Exception {
+        PreparedSignature prepared = prepare(unsigned, destination, profile);
+        byte[] container = awaitContainer(prepared);
+        return inject(prepared, container);
+    }
+
+    /**
+     * Igual que {@link #signToFile(DocumentBuffer, Path, PdfOutputProfile)} para documentos sin
+     * firmar escritos en disco (consolidados grandes): el lector accede al archivo por posición
+     * y no lo carga completo en memoria.
+     */
+    public String signToFile(Path unsigned, Path destination, PdfOutputProfile profile) throws Exception {
+        PreparedSignature prepared = prepare(new PdfReader(unsigned.toString()), destination, profile);
+        byte[] container = awaitContainer(prepared);
+        return inject(prepared, container);
+    }
+
+    /**
+     * Reserva durante la maquetación el campo de firma en la última página, donde irá el sello
+     * visible. Con firma invisible no se reserva nada y el firmante crea el campo.
+     */
+    public void reserveSignatureField(PdfDocument document) {
+        if (!signatureAppearanceService.isVisible()) {
+            return;
+        }
+        PdfPage lastPage = document.getLastPage();
+        PdfSignatureFormField field = PdfFormField.createSignature(document,
+            signatureAppearanceService.stampRectangle(lastPage));
+        field.setFieldName(SIGNATURE_FIELD);
+        PdfAcroForm.getAcroForm(document, true).addField(field, lastPage);
+    }
+
+    /**
+     * Fase uno: completa el campo de firma con un contenedor vacío, escribe el resultado en
+     * {@code destination} y calcula el digest SHA-256 de los rangos cubiertos por la firma.
+     */
+    public PreparedSignature prepare(DocumentBuffer unsigned, Path destination, PdfOutputProfile profile)
+            throws IOException, GeneralSecurityException {
+        return prepare(new PdfReader(unsigned.asSource(), new ReaderProperties()), destination, profile);
+    }
+
+    private PreparedSignature prepare(PdfReader reader, Path destination, PdfOutputProfile profile)
+            throws IOException, GeneralSecurityException {
+        // Material de firma ya cargado; una recarga concurrente no afecta a este documento
+        SigningMaterialRegistry.SigningMaterial material = signingMaterialRegistry.getCurrent();
+
+        FileSigner signer = new FileSigner(reader, destination);
+        profile.applyTo(signer.getDocument().getWriter());
+
+        signer.setFieldName(SIGNATURE_FIELD);
+        signatureAppearanceService.apply(signer, (X509Certificate) material.getChain()[0]);
+
+        if (revocationCache.isEnabled()) {
+            addValidationData(signer.getDocument(), material.getChain(), revocationCache.lookup(material.getChain()));
+        }
+
+        DigestCapturingContainer capture = new DigestCapturingContainer(material, signer);
+        signer.signExternalContainer(capture, ESTIMATED_CONTAINER_SIZE);
+
+        PreparedSignature prepared = new PreparedSignature(destination, signer.getByteRange(), capture.digest, material);
+        prepared.fileDigest = capture.fileDigest;
+        prepared.tail = capture.tail;
+        return prepared;
+    }
+
+    /**
+     * Fase dos: espera el contenedor CMS calculado por el pool de firma. Si vence
+     * {@code pdf.signature.timeout-ms} el trabajo se cancela y el pool lo salta sin firmarlo.
+     */
+    public byte[] awaitContainer(PreparedSignature prepared) throws Exception {
+        CompletableFuture<byte[]> container = signatureWorkerPool.submit(prepared.getDigest(), prepared.getMaterial());
+        try {
+            return container.get(signTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            // El pool descarta los trabajos ya cancelados en vez de firmarlos
+            container.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Escribe el contenedor en hexadecimal dentro del hueco de /Contents. El hueco va entre
+     * el fin del primer rango y el inicio del segundo, delimitado por {@code <} y {@code >}.
+     *
+     * <p>Completa además el SHA-256 del archivo: el tramo anterior al hueco ya se digirió en la
+     * fase uno, al calcular el digest de la firma; aquí se agregan el hueco ya escrito y el tramo
+     * final, normalmente pequeño y guardado en memoria.
+     *
+     * @return SHA-256 en hexadecimal del archivo firmado
+     */
+    public String inject(PreparedSignature prepared, byte[] container) throws IOException {
+        long[] range = prepared.getByteRange();
+        long available = range[2] - range[1] - 2;
+        byte[] hex = toHex(container);
+        if (hex.length > available) {
+            throw new IOException("Contenedor de firma de " + container.length
+                + " bytes no cabe en el espacio reservado de " + available / 2 + " bytes");
+        }
+
+        try (FileChannel channel = FileChannel.open(prepared.getFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(hex);
+            long position = range[1] + 1;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            MessageDigest fileDigest = prepared.fileDigest;
+            if (fileDigest == null) {
+                fileDigest = MessageDigest.getInstance("SHA-256");
+                digestRegion(channel, 0, range[1], fileDigest);
+            }
+            digestRegion(channel, range[1], range[2] - range[1], fileDigest);
+            if (prepared.tail != null) {
+                fileDigest.update(prepared.tail);
+            } else {
+                digestRegion(channel, range[2], range[3], fileDigest);
+            }
+            channel.force(false);
+            return new String(toHex(fileDigest.digest()), StandardCharsets.US_ASCII);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("SHA-256 no disponible", e);
+        }
+    }
+
+    private static void digestRegion(FileChannel channel, long position, long length, MessageDigest digest)
+            throws IOException {
+        ByteBuffer block = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE * 8, Math.max(length, 1)));
+        long end = position + length;
+        while (position < end) {
+            block.clear().limit((int) Math.min(block.capacity(), end - position));
+            int read = channel.read(block, position);
+            if (read < 0) {
+                throw new IOException("Archivo firmado más corto que su rango de bytes");
+            }
+            block.flip();
+            digest.update(block);
+            position += read;
+        }
+    }
+
+    /**
+     * Incrusta la cadena y la información de revocación en el DSS del catálogo (PAdES-LTV).
+     * Se escribe en la misma revisión que la firma, por lo que queda cubierta por ella.
+     */
+    private void addValidationData(PdfDocument document, Certificate[] chain, RevocationCache.RevocationData revocation)
+            throws CertificateEncodingException {
+        if (revocation.isEmpty()) {
+            return;
+        }
+
+        PdfArray certs = new PdfArray();
+        for (Certificate cert : chain) {
+            certs.add(new PdfStream(cert.getEncoded()).makeIndirect(document));
+        }
+        PdfArray ocsps = new PdfArray();
+        for (byte[] ocsp : revocation.getOcsps()) {
+            ocsps.add(new PdfStream(ocsp).makeIndirect(document));
+        }
+        PdfArray crls = new PdfArray();
+        for (byte[] crl : revocation.getCrls()) {
+            crls.add(new PdfStream(crl).makeIndirect(document));
+        }
+
+        PdfDictionary dss = new PdfDictionary();
+        dss.put(PdfName.Certs, certs.makeIndirect(document));
+        if (!ocsps.isEmpty()) {
+            dss.put(PdfName.OCSPs, ocsps.makeIndirect(document));
+        }
+        if (!crls.isEmpty()) {
+            dss.put(PdfName.CRLs, crls.makeIndirect(document));
+        }
+
+        document.getCatalog().put(PdfName.DSS, dss.makeIndirect(document));
+        document.getCatalog().addDeveloperExtension(PdfDeveloperExtension.ESIC_1_7_EXTENSIONLEVEL5);
+    }
+
+    /**
+     * Documento ya escrito en disco con el campo de firma reservado, el rango de bytes
+     * cubierto y su digest.
+     */
+    public static class PreparedSignature {
+        private final Path file;
+        private final long[] byteRange;
+        private final byte[] digest;
+        private final SigningMaterialRegistry.SigningMaterial material;
+        // SHA-256 del archivo hasta el hueco de /Contents y tramo posterior, si cupo en memoria
+        private MessageDigest fileDigest;
+        private byte[] tail;
+
+        public PreparedSignature(Path file, long[] byteRange, byte[] digest, SigningMaterialRegistry.SigningMaterial material) {
+            this.file = file;
+            this.byteRange = byteRange;
+            this.digest = digest;
+            this.material = material;
+        }
+
+        public Path getFile() { return file; }
+        public long[] getByteRange() { return byteRange; }
+        public byte[] getDigest() { return digest; }
+        public SigningMaterialRegistry.SigningMaterial getMaterial() { return material; }
+    }
+
+    private static byte[] toHex(byte[] data) {
+        byte[] digits = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        byte[] hex = new byte[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            hex[2 * i] = digits[(data[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[data[i] & 0xf];
+        }
+        return hex;
+    }
+
+    private static void markAsCades(PdfDictionary signDic) {
+        signDic.put(PdfName.Filter, PdfName.Adobe_PPKLite);
+        signDic.put(PdfName.SubFilter, PdfName.ETSI_CAdES_DETACHED);
+    }
+
+    /**
+     * Captura el digest de los rangos firmados. En la misma lectura digiere el primer rango
+     * (el archivo hasta el hueco de /Contents) para el checksum del archivo y guarda el segundo,
+     * que se agrega cuando el hueco ya tiene el contenedor.
+     */
+    private static class DigestCapturingContainer implements IExternalSignatureContainer {
+        private final SigningMaterialRegistry.SigningMaterial material;
+        private final FileSigner signer;
+        private byte[] digest;
+        private MessageDigest fileDigest;
+        private byte[] tail;
+
+        private DigestCapturingContainer(SigningMaterialRegistry.SigningMaterial material, FileSigner signer) {
+            this.material = material;
+            this.signer = signer;
+        }
+
+        @Override
+        public byte[] sign(InputStream data) throws GeneralSecurityException {
+            MessageDigest signed = material.getExternalDigest().getMessageDigest(DigestAlgorithms.SHA256);
+            MessageDigest file = MessageDigest.getInstance("SHA-256");
+            long[] range = signer.getByteRange();
+            long head = range[1];
+            byte[] rest = range[3] <= MAX_BUFFERED_TAIL ? new byte[(int) range[3]] : null;
+            try {
+                byte[] block = new byte[BLOCK_SIZE];
+                long offset = 0;
+                int read;
+                while ((read = data.read(block)) != -1) {
+                    signed.update(block, 0, read);
+                    int inHead = (int) Math.max(0, Math.min(read, head - offset));
+                    file.update(block, 0, inHead);
+                    if (rest != null && inHead < read) {
+                        System.arraycopy(block, inHead, rest, (int) (offset + inHead - head), read - inHead);
+                    }
+                    offset += read;
+                }
+            } catch (IOException e) {
+                throw new GeneralSecurityException(e);
+            }
+            digest = signed.digest();
+            fileDigest = file;
+            tail = rest;
+            return new byte[0];
+        }
+
+        @Override
+        public void modifySigningDictionary(PdfDictionary signDic) {
+            markAsCades(signDic);
+        }
+    }
+
+    /**
+     * Firmante que escribe directamente en el archivo de destino (sin el buffer interno de
+     * {@link PdfSigner}) y expone el rango de bytes para inyectar el contenedor después.
+     */
+    private static class FileSigner extends PdfSigner {
+        private FileSigner(PdfReader reader, Path destination) throws IOException {
+            super(reader, null, destination.toString(), new StampingProperties());
+        }
+
+        private long[] getByteRange() {
+            return range.clone();
+        }
+    }
+}
@@ -1,30 +1,89 @@
 package com.usiv.service;
 
-import com.google.zxing.BarcodeFormat;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
-import com.google.zxing.common.BitMatrix;
-import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.itextpdf.kernel.colors.ColorConstants;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
+import javax.annotation.PostConstruct;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+/**
+ * Códigos QR del documento y de la respuesta. La codificación (texto a módulos) se guarda como
+ * tramos horizontales de módulos oscuros por fila; cada salida (vector PDF, PNG, SVG, PBM o
+ * imagen en memoria) se dibuja desde esos tramos escribiendo directamente en su arreglo de
+ * píxeles o bits, sin {@code Graphics2D} ni un acceso por píxel.
+ *
+ * <p>{@link #render} (PNG, SVG y PBM) atiende {@code /q/<id>/qr}, que entrega el QR de un
+ * documento para reimprimirlo. Las salidas raster ({@link #render} y {@code generateQrCode*})
+ * guardan la codificación en una caché acotada por texto y nivel de corrección, para quien
+ * dibuja el mismo texto varias veces. El QR vectorial del documento no la llena: cada documento lleva su propio enlace corto,
+ * así que su texto no se repite; sólo reutiliza la codificación del PNG de la respuesta cuando
+ * la solicitud lo pidió, que se dibuja justo antes.
+ *
+ * <p>Las salidas raster reproducen la disposición de ZXing: cada módulo ocupa un múltiplo entero
+ * de píxeles y el sobrante se reparte como margen alrededor de la zona de silencio.
+ */
 @Service
 public class QrCodeService {
 
     private static final Logger logger = LoggerFactory.getLogger(QrCodeService.class);
 
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /**
+     * Formatos de {@link #render}.
+     */
+    public enum QrFormat {
+        /** PNG en escala de grises de 1 bit. */
+        PNG("image/png"),
+        /** SVG en unidades de módulo; el tamaño sólo fija width y height. */
+        SVG("image/svg+xml"),
+        /** PBM binario (P4): un bit por píxel, 1 = negro. */
+        PBM("image/x-portable-bitmap");
+
+        private final String contentType;
+
+        QrFormat(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Value("${qr.size:150}")
     private int qrSize;
 
@@ -34,39 +93,22 @@ public class QrCodeService {
     @Value("${qr.error-correction:M}")
     private String errorCorrectionLevel;
 
-    public byte[] generateQrCode(String text) throws WriterException, IOException {
-        Map<EncodeHintType, Object> hints = new HashMap<>();
-        hints.put(EncodeHintType.ERROR_CORRECTION, getErrorCorrectionLevel());
-        hints.put(EncodeHintType.MARGIN, qrMargin);
-        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
-
-        QRCodeWriter qrCodeWriter = new QRCodeWriter();
-        BitMatrix bitMatrix = qrCodeWriter.encode(text, BarcodeFormat.QR_CODE, qrSize, qrSize, hints);
-
-        BufferedImage image = new BufferedImage(qrSize, qrSize, BufferedImage.TYPE_INT_RGB);
-        image.createGraphics();
-
-        Graphics2D graphics = (Graphics2D) image.getGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, qrSize, qrSize);
-        graphics.setColor(Color.BLACK);
-
-        for (int i = 0; i < qrSize; i++) {
-            for (int j = 0; j < qrSize; j++) {
-                if (bitMatrix.get(i, j)) {
-                    graphics.fillRect(i, j, 1, 1);
-                }
-            }
-        }
+    @Value("${qr.cache.max-entries:1000}")
+    private int cacheMaxEntries;
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "PNG", baos);
-        
-        logger.debug("QR Code generado para texto: {} (tamaño: {} bytes)", 
-                    text.length() > 50 ? text.substring(0, 50) + "..." : text, 
-                    baos.size());
-        
-        return baos.toByteArray();
+    private Cache<EncodingKey, Modules> encodings;
+
+    @PostConstruct
+    public void init() {
+        encodings = Caffeine.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, encodings, "qr.encodings");
+    }
+
+    public byte[] generateQrCode(String text) throws WriterException, IOException {
+        return render(text, qrSize, getErrorCorrectionLevel(), QrFormat.PNG);
     }
 
     public String generateQrCodeBase64(String text) throws WriterException, IOException {
@@ -74,30 +116,323 @@ public class QrCodeService {
         return Base64.getEncoder().encodeToString(qrBytes);
     }
 
+    /**
+     * Igual que {@link #render(String, int, ErrorCorrectionLevel, QrFormat)} con el nivel de
+     * corrección configurado, el mismo del QR impreso en los documentos.
+     */
+    public byte[] render(String text, int size, QrFormat format) throws WriterException, IOException {
+        return render(text, size, getErrorCorrectionLevel(), format);
+    }
+
+    /**
+     * QR de {@code size} x {@code size} píxeles (o el mínimo de un píxel por módulo si no cabe)
+     * en el formato pedido, con la zona de silencio de {@code qr.margin} módulos.
+     */
+    public byte[] render(String text, int size, ErrorCorrectionLevel ecc, QrFormat format) throws WriterException, IOException {
+        Modules modules = modules(text, ecc);
+        byte[] encoded;
+        switch (format) {
+            case SVG:
+                encoded = svg(modules, size);
+                break;
+            case PBM:
+                encoded = pbm(modules, size);
+                break;
+            default:
+                encoded = png(modules, size);
+                break;
+        }
+        logger.debug("QR Code generado para texto: {} ({}, {} bytes)",
+                    text.length() > 50 ? text.substring(0, 50) + "..." : text, format, encoded.length);
+        return encoded;
+    }
+
+    public int getDefaultSize() {
+        return qrSize;
+    }
+
     public BufferedImage generateQrCodeImage(String text) throws WriterException {
-        Map<EncodeHintType, Object> hints = new HashMap<>();
-        hints.put(EncodeHintType.ERROR_CORRECTION, getErrorCorrectionLevel());
-        hints.put(EncodeHintType.MARGIN, qrMargin);
-        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
-
-        QRCodeWriter qrCodeWriter = new QRCodeWriter();
-        BitMatrix bitMatrix = qrCodeWriter.encode(text, BarcodeFormat.QR_CODE, qrSize, qrSize, hints);
-
-        BufferedImage image = new BufferedImage(qrSize, qrSize, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics = (Graphics2D) image.getGraphics();
-        graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, qrSize, qrSize);
-        graphics.setColor(Color.BLACK);
-
-        for (int i = 0; i < qrSize; i++) {
-            for (int j = 0; j < qrSize; j++) {
-                if (bitMatrix.get(i, j)) {
-                    graphics.fillRect(i, j, 1, 1);
+        Modules modules = modules(text, getErrorCorrectionLevel());
+        Layout layout = layout(modules, qrSize);
+        int size = layout.size;
+
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, 0xFFFFFF);
+        for (int y = 0; y < modules.dimension; y++) {
+            int rowStart = (layout.padding + y * layout.multiple) * size;
+            int[] runs = modules.runs[y];
+            for (int i = 0; i < runs.length; i += 2) {
+                Arrays.fill(pixels, rowStart + layout.pixel(runs[i]), rowStart + layout.pixel(runs[i + 1]), 0);
+            }
+            for (int k = 1; k < layout.multiple; k++) {
+                System.arraycopy(pixels, rowStart, pixels, rowStart + k * size, size);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Dibuja el QR como vectores en un form XObject del documento: un rectángulo por cada tramo
+     * horizontal de módulos oscuros, extendido hacia abajo mientras las filas siguientes repitan
+     * el mismo tramo, y todos rellenados como un solo trazado. Una unidad del XObject equivale a
+     * un módulo (zona de silencio de {@code qr.margin} módulos incluida); quien lo inserta lo
+     * escala al tamaño deseado. No pasa por raster, PNG ni base64 y se ve nítido a cualquier zoom.
+     */
+    public PdfFormXObject createVectorQr(String text, PdfDocument document) throws WriterException {
+        EncodingKey key = new EncodingKey(text, getErrorCorrectionLevel());
+        Modules modules = encodings.getIfPresent(key);
+        if (modules == null) {
+            modules = encode(key);
+        }
+        int full = modules.dimension + 2 * qrMargin;
+
+        PdfFormXObject xObject = new PdfFormXObject(new Rectangle(full, full));
+        PdfCanvas canvas = new PdfCanvas(xObject, document);
+        canvas.setFillColor(ColorConstants.WHITE).rectangle(0, 0, full, full).fill();
+        canvas.setFillColor(ColorConstants.BLACK);
+        // PDF tiene el origen abajo; la fila 0 de la matriz es la de arriba
+        forEachRect(modules, (x, y, width, height) ->
+            canvas.rectangle(x + qrMargin, full - qrMargin - y - height, width, height));
+        canvas.fill();
+        canvas.release();
+        return xObject;
+    }
+
+    private Modules modules(String text, ErrorCorrectionLevel ecc) throws WriterException {
+        try {
+            return encodings.get(new EncodingKey(text, ecc), key -> {
+                try {
+                    return encode(key);
+                } catch (WriterException e) {
+                    throw new EncodingFailure(e);
                 }
+            });
+        } catch (EncodingFailure e) {
+            throw (WriterException) e.getCause();
+        }
+    }
+
+    private static Modules encode(EncodingKey key) throws WriterException {
+        ByteMatrix matrix = Encoder.encode(key.text, key.ecc, Map.of(EncodeHintType.CHARACTER_SET, "UTF-8")).getMatrix();
+        int dimension = matrix.getWidth();
+        int[][] runs = new int[dimension][];
+        int[] row = new int[dimension + 1];
+        for (int y = 0; y < dimension; y++) {
+            int count = 0;
+            int x = 0;
+            while (x < dimension) {
+                if (matrix.get(x, y) != 1) {
+                    x++;
+                    continue;
+                }
+                row[count++] = x;
+                while (x < dimension && matrix.get(x, y) == 1) {
+                    x++;
+                }
+                row[count++] = x;
             }
+            runs[y] = Arrays.copyOf(row, count);
         }
+        return new Modules(dimension, runs);
+    }
 
-        return image;
+    private Layout layout(Modules modules, int size) {
+        // Igual que QRCodeWriter: múltiplo entero por módulo y el resto centrado
+        int full = modules.dimension + 2 * qrMargin;
+        int output = Math.max(size, full);
+        int multiple = output / full;
+        return new Layout(output, multiple, (output - modules.dimension * multiple) / 2);
+    }
+
+    /**
+     * Filas de bits empaquetados (el bit más alto primero), cada una de {@code (size + 7) / 8}
+     * bytes. {@code darkBit} indica el valor de los píxeles oscuros.
+     */
+    private static byte[] packBits(Modules modules, Layout layout, boolean darkBit) {
+        int stride = (layout.size + 7) / 8;
+        byte[] bits = new byte[stride * layout.size];
+        if (!darkBit) {
+            Arrays.fill(bits, (byte) 0xFF);
+        }
+        for (int y = 0; y < modules.dimension; y++) {
+            int rowStart = (layout.padding + y * layout.multiple) * stride;
+            int[] runs = modules.runs[y];
+            for (int i = 0; i < runs.length; i += 2) {
+                setBits(bits, rowStart, layout.pixel(runs[i]), layout.pixel(runs[i + 1]), darkBit);
+            }
+            for (int k = 1; k < layout.multiple; k++) {
+                System.arraycopy(bits, rowStart, bits, rowStart + k * stride, stride);
+            }
+        }
+        return bits;
+    }
+
+    private static void setBits(byte[] bits, int rowStart, int from, int to, boolean value) {
+        while (from < to && (from & 7) != 0) {
+            setBit(bits, rowStart, from++, value);
+        }
+        byte whole = value ? (byte) 0xFF : 0;
+        while (to - from >= 8) {
+            bits[rowStart + (from >> 3)] = whole;
+            from += 8;
+        }
+        while (from < to) {
+            setBit(bits, rowStart, from++, value);
+        }
+    }
+
+    private static void setBit(byte[] bits, int rowStart, int x, boolean value) {
+        int index = rowStart + (x >> 3);
+        int mask = 0x80 >>> (x & 7);
+        bits[index] = (byte) (value ? bits[index] | mask : bits[index] & ~mask);
+    }
+
+    /**
+     * PNG mínimo en escala de grises de 1 bit (0 = negro), sin filtros: un QR se comprime bien
+     * así y se evita el costo de ImageIO por imagen.
+     */
+    private byte[] png(Modules modules, int size) throws IOException {
+        Layout layout = layout(modules, size);
+        int stride = (layout.size + 7) / 8;
+        byte[] bits = packBits(modules, layout, false);
+        byte[] scanlines = new byte[(stride + 1) * layout.size];
+        for (int y = 0; y < layout.size; y++) {
+            // El primer byte de cada fila es el tipo de filtro (0 = ninguno)
+            System.arraycopy(bits, y * stride, scanlines, y * (stride + 1) + 1, stride);
+        }
+
+        byte[] compressed = new byte[scanlines.length / 4 + 64];
+        int compressedLength = 0;
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(scanlines);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        byte[] header = new byte[13];
+        putInt(header, 0, layout.size);
+        putInt(header, 4, layout.size);
+        header[8] = 1;  // profundidad de bits
+        header[9] = 0;  // escala de grises
+
+        DocumentBuffer png = bufferPool.acquire(BufferPool.Kind.QR);
+        try {
+            png.write(PNG_SIGNATURE);
+            writeChunk(png, "IHDR", header, header.length);
+            writeChunk(png, "IDAT", compressed, compressedLength);
+            writeChunk(png, "IEND", new byte[0], 0);
+            return png.toByteArray();
+        } finally {
+            bufferPool.release(BufferPool.Kind.QR, png);
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        out.write(word);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private byte[] pbm(Modules modules, int size) {
+        Layout layout = layout(modules, size);
+        byte[] header = ("P4\n" + layout.size + " " + layout.size + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] bits = packBits(modules, layout, true);
+        byte[] pbm = Arrays.copyOf(header, header.length + bits.length);
+        System.arraycopy(bits, 0, pbm, header.length, bits.length);
+        return pbm;
+    }
+
+    /**
+     * SVG con los mismos rectángulos que el QR vectorial del PDF, en un solo trazado.
+     */
+    private byte[] svg(Modules modules, int size) {
+        int full = modules.dimension + 2 * qrMargin;
+        int output = Math.max(size, full);
+        StringBuilder svg = new StringBuilder(256 + modules.dimension * modules.dimension);
+        svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+            .append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(output)
+            .append("\" height=\"").append(output)
+            .append("\" viewBox=\"0 0 ").append(full).append(' ').append(full)
+            .append("\" shape-rendering=\"crispEdges\">")
+            .append("<rect width=\"").append(full).append("\" height=\"").append(full).append("\" fill=\"#fff\"/>")
+            .append("<path fill=\"#000\" d=\"");
+        forEachRect(modules, (x, y, width, height) -> svg.append('M').append(x + qrMargin).append(' ').append(y + qrMargin)
+            .append('h').append(width).append('v').append(height).append('h').append(-width).append('z'));
+        svg.append("\"/></svg>\n");
+        return svg.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Recorre los rectángulos que cubren los módulos oscuros: cada tramo horizontal se extiende
+     * hacia abajo mientras las filas siguientes tengan un tramo idéntico. Coordenadas en módulos,
+     * con el origen arriba a la izquierda y sin zona de silencio.
+     */
+    private static void forEachRect(Modules modules, RectConsumer consumer) {
+        int dimension = modules.dimension;
+        // Tramos abiertos por columna de inicio: largo (0 = ninguno) y fila donde empezaron
+        int[] openLength = new int[dimension];
+        int[] openTop = new int[dimension];
+        boolean[] seen = new boolean[dimension];
+        for (int y = 0; y < dimension; y++) {
+            Arrays.fill(seen, false);
+            int[] runs = modules.runs[y];
+            for (int i = 0; i < runs.length; i += 2) {
+                int start = runs[i];
+                int length = runs[i + 1] - start;
+                if (openLength[start] != length) {
+                    closeRun(consumer, start, openLength, openTop, y);
+                    openLength[start] = length;
+                    openTop[start] = y;
+                }
+                seen[start] = true;
+            }
+            // Los tramos que no continúan en esta fila terminan en la anterior
+            for (int start = 0; start < dimension; start++) {
+                if (!seen[start]) {
+                    closeRun(consumer, start, openLength, openTop, y);
+                }
+            }
+        }
+        for (int start = 0; start < dimension; start++) {
+            closeRun(consumer, start, openLength, openTop, dimension);
+        }
+    }
+
+    /**
+     * Emite el tramo abierto en {@code start}, que ocupa desde su fila inicial hasta la fila
+     * {@code endRow} (excluida).
+     */
+    private static void closeRun(RectConsumer consumer, int start, int[] openLength, int[] openTop, int endRow) {
+        if (openLength[start] == 0) {
+            return;
+        }
+        consumer.accept(start, openTop[start], openLength[start], endRow - openTop[start]);
+        openLength[start] = 0;
     }
 
     private ErrorCorrectionLevel getErrorCorrectionLevel() {
@@ -123,4 +458,74 @@ public class QrCodeService {
             java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"))
         );
     }
-}
\ No newline at end of file
+
+    /**
+     * Módulos de un QR sin zona de silencio: por cada fila, pares {@code [inicio, fin)} de los
+     * tramos oscuros. Inmutable una vez construido; se comparte desde la caché.
+     */
+    private static class Modules {
+        private final int dimension;
+        private final int[][] runs;
+
+        private Modules(int dimension, int[][] runs) {
+            this.dimension = dimension;
+            this.runs = runs;
+        }
+    }
+
+    /**
+     * Disposición raster: tamaño final, píxeles por módulo y margen hasta el primer módulo.
+     */
+    private static class Layout {
+        private final int size;
+        private final int multiple;
+        private final int padding;
+
+        private Layout(int size, int multiple, int padding) {
+            this.size = size;
+            this.multiple = multiple;
+            this.padding = padding;
+        }
+
+        private int pixel(int module) {
+            return padding + module * multiple;
+        }
+    }
+
+    private static class EncodingKey {
+        private final String text;
+        private final ErrorCorrectionLevel ecc;
+
+        private EncodingKey(String text, ErrorCorrectionLevel ecc) {
+            this.text = text;
+            this.ecc = ecc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EncodingKey)) return false;
+            EncodingKey other = (EncodingKey) o;
+            return ecc == other.ecc && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, ecc);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RectConsumer {
+        void accept(int x, int y, int width, int height);
+    }
+
+    /**
+     * Transporta la excepción del codificador fuera de la función de carga de la caché.
+     */
+    private static class EncodingFailure extends RuntimeException {
+        private EncodingFailure(WriterException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,563 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.itextpdf.kernel.colors.Color;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Image;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Text;
+import com.itextpdf.layout.properties.TextAlignment;
+import com.usiv.dto.PdfGenerationRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Informes declarativos. Cada tipo de informe se define en un archivo JSON (estilos con nombre
+ * y una lista ordenada de elementos: bloques fijos de la plantilla, campos, textos, QR y mapas
+ * de campos adicionales) y se compila una sola vez en un {@link ReportPlan}: los estilos, los
+ * colores condicionales y el acceso a cada propiedad de la solicitud quedan resueltos, y por
+ * petición sólo se leen los valores y se agregan los párrafos.
+ *
+ * <p>Los informes incluidos están en {@code classpath:reports/}; {@code pdf.report.templates-dir}
+ * puede agregar tipos nuevos o reemplazar los incluidos (mismo nombre de archivo) y se revisa
+ * periódicamente para recompilar los que cambien. El nombre del archivo sin {@code .json} es el
+ * tipo de informe.
+ */
+@Service
+public class ReportPlanService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportPlanService.class);
+
+    private static final String CLASSPATH_TEMPLATES = "classpath*:reports/*.json";
+    private static final String EXTENSION = ".json";
+
+    // Valores que no vienen de la solicitud sino del proceso de generación
+    private static final String SOURCE_FECHA_INFORME = "fechaInforme";
+    private static final String SOURCE_DOWNLOAD_URL = "downloadUrl";
+
+    @Value("${pdf.report.default-template:verificacion-geografica}")
+    private String defaultTemplate;
+
+    @Value("${pdf.report.templates-dir:}")
+    private String templatesDir;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, ReportPlan> plans = new ConcurrentHashMap<>();
+
+    // Última modificación y tamaño de cada archivo externo compilado, para detectar cambios
+    private final Map<Path, String> externalStamps = new ConcurrentHashMap<>();
+
+    private ObjectReader definitionReader;
+
+    @PostConstruct
+    public void init() throws IOException {
+        definitionReader = objectMapper.copy()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true)
+            .readerFor(TemplateDefinition.class);
+
+        Resource[] bundled = new PathMatchingResourcePatternResolver().getResources(CLASSPATH_TEMPLATES);
+        for (Resource resource : bundled) {
+            String id = idOf(resource.getFilename());
+            try (InputStream in = resource.getInputStream()) {
+                plans.put(id, compile(id, in.readAllBytes()));
+            }
+        }
+        // Al iniciar un informe externo inválido detiene la aplicación, igual que uno incluido
+        for (Path file : listExternal()) {
+            loadExternal(file);
+        }
+
+        if (!plans.containsKey(defaultTemplate)) {
+            throw new IllegalStateException("No existe el informe por defecto: " + defaultTemplate);
+        }
+        logger.info("Informes compilados: {} (por defecto: {})", plans.keySet(), defaultTemplate);
+    }
+
+    /**
+     * Plan compilado del tipo de informe indicado, o del informe por defecto si es {@code null}.
+     */
+    public ReportPlan getPlan(String reportType) {
+        String id = reportType != null && !reportType.isEmpty() ? reportType : defaultTemplate;
+        ReportPlan plan = plans.get(id);
+        if (plan == null) {
+            throw new IllegalArgumentException("Tipo de informe desconocido: " + id);
+        }
+        return plan;
+    }
+
+    /**
+     * Recompila los informes externos nuevos o modificados. Si uno no compila se registra el
+     * error y se sigue usando la versión anterior.
+     */
+    @Scheduled(fixedDelayString = "${pdf.report.reload-check-interval-ms:30000}",
+               initialDelayString = "${pdf.report.reload-check-interval-ms:30000}")
+    public void reloadChanged() {
+        if (templatesDir.isEmpty()) {
+            return;
+        }
+        try {
+            for (Path file : listExternal()) {
+                if (!stampOf(file).equals(externalStamps.get(file))) {
+                    try {
+                        loadExternal(file);
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("No se pudo recompilar el informe {}; se mantiene la versión anterior", file, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo revisar el directorio de informes {}", templatesDir, e);
+        }
+    }
+
+    private List<Path> listExternal() throws IOException {
+        if (templatesDir.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Path dir = Paths.get(templatesDir);
+        if (!Files.isDirectory(dir)) {
+            logger.warn("El directorio de informes {} no existe", dir);
+            return Collections.emptyList();
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private void loadExternal(Path file) throws IOException {
+        // Se registra antes de compilar: un archivo inválido no se reintenta hasta que vuelva a cambiar
+        externalStamps.put(file, stampOf(file));
+        String id = idOf(file.getFileName().toString());
+        ReportPlan plan = compile(id, Files.readAllBytes(file));
+        ReportPlan previous = plans.put(id, plan);
+        if (previous != null && !previous.getVersion().equals(plan.getVersion())) {
+            logger.info("Informe {} recompilado desde {} (versión {})", id, file, plan.getVersion());
+        }
+    }
+
+    private static String stampOf(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file);
+    }
+
+    private static String idOf(String filename) {
+        return filename.substring(0, filename.length() - EXTENSION.length());
+    }
+
+    /**
+     * Valida la definición y la convierte en pasos ya resueltos. Cualquier referencia inválida
+     * (estilo, bloque, propiedad o color) falla aquí y no en una petición.
+     */
+    ReportPlan compile(String id, byte[] json) throws IOException {
+        TemplateDefinition definition = definitionReader.readValue(json);
+        if (definition.elements == null || definition.elements.isEmpty()) {
+            throw new IllegalStateException("El informe " + id + " no tiene elementos");
+        }
+
+        Map<String, ParagraphStyle> styles = new HashMap<>();
+        if (definition.styles != null) {
+            definition.styles.forEach((name, style) -> styles.put(name, ParagraphStyle.compile(id, name, style)));
+        }
+        ParagraphStyle fieldStyle = style(id, styles, definition.fieldStyle);
+
+        List<Step> steps = new ArrayList<>();
+        int position = 0;
+        for (ElementDefinition element : definition.elements) {
+            position++;
+            String where = id + " (elemento " + position + ")";
+            if (element.type == null) {
+                throw new IllegalStateException("Elemento sin tipo en " + where);
+            }
+            switch (element.type) {
+                case "header":
+                    steps.add((document, context) -> {
+                        document.add(context.layers.header());
+                        document.add(context.layers.headerSpacer());
+                    });
+                    break;
+                case "block":
+                    steps.add(blockStep(where, element.block));
+                    break;
+                case "qr":
+                    steps.add(qrStep(where, element));
+                    break;
+                case "field":
+                    steps.add(fieldStep(where, element, element.style != null ? style(where, styles, element.style) : fieldStyle));
+                    break;
+                case "text":
+                    steps.add(textStep(where, element, style(where, styles, element.style)));
+                    break;
+                case "map":
+                    steps.add(mapStep(where, element, element.style != null ? style(where, styles, element.style) : fieldStyle));
+                    break;
+                default:
+                    throw new IllegalStateException("Tipo de elemento desconocido '" + element.type + "' en " + where);
+            }
+        }
+        return new ReportPlan(id, versionOf(json), steps);
+    }
+
+    private static Step blockStep(String where, String name) {
+        ReportTemplateService.Block block = block(where, name);
+        return (document, context) -> document.add(context.layers.block(block));
+    }
+
+    private static Step qrStep(String where, ElementDefinition element) {
+        if (element.size == null || element.x == null || element.y == null) {
+            throw new IllegalStateException("El QR requiere size, x e y en " + where);
+        }
+        float size = element.size;
+        float x = element.x;
+        float y = element.y;
+        return (document, context) -> {
+            if (context.qrImage != null) {
+                document.add(new Image(context.qrImage).scaleToFit(size, size).setFixedPosition(x, y));
+            }
+        };
+    }
+
+    private static Step fieldStep(String where, ElementDefinition element, ParagraphStyle style) {
+        if (element.label == null) {
+            throw new IllegalStateException("El campo requiere label en " + where);
+        }
+        String label = element.label;
+        String fallback = element.defaultValue != null ? element.defaultValue : "N/A";
+        Function<RenderContext, String> value = valueOf(where, element);
+        return (document, context) -> {
+            String v = value.apply(context);
+            document.add(style.apply(new Paragraph()
+                .add(new Text(label).setBold())
+                .add(new Text(" " + (v != null ? v : fallback)))));
+        };
+    }
+
+    private static Step textStep(String where, ElementDefinition element, ParagraphStyle style) {
+        String prefix = element.prefix != null ? element.prefix : "";
+        String fallback = element.defaultValue != null ? element.defaultValue : "";
+        Function<RenderContext, String> value = valueOf(where, element);
+        Function<String, Color> color = element.color != null ? element.color.compile(where) : null;
+        return (document, context) -> {
+            String v = value.apply(context);
+            Paragraph paragraph = style.apply(new Paragraph(prefix + (v != null ? v : fallback)));
+            if (color != null) {
+                paragraph.setFontColor(color.apply(v));
+            }
+            document.add(paragraph);
+        };
+    }
+
+    private static Step mapStep(String where, ElementDefinition element, ParagraphStyle style) {
+        Method getter = getter(where, element.source, Map.class);
+        ReportTemplateService.Block block = element.block != null ? block(where, element.block) : null;
+        String suffix = element.labelSuffix != null ? element.labelSuffix : ":";
+        return (document, context) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, String> values = (Map<String, String>) read(getter, context.request);
+            if (values == null || values.isEmpty()) {
+                return;
+            }
+            if (block != null) {
+                document.add(context.layers.block(block));
+            }
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                document.add(style.apply(new Paragraph()
+                    .add(new Text(entry.getKey() + suffix).setBold())
+                    .add(new Text(" " + (entry.getValue() != null ? entry.getValue() : "N/A")))));
+            }
+        };
+    }
+
+    /**
+     * Valor de un campo o texto: un literal ({@code text}), un valor del proceso de generación o
+     * una propiedad de tipo texto de {@link PdfGenerationRequest}.
+     */
+    private static Function<RenderContext, String> valueOf(String where, ElementDefinition element) {
+        if (element.text != null) {
+            if (element.source != null) {
+                throw new IllegalStateException("text y source son excluyentes en " + where);
+            }
+            String text = element.text;
+            return context -> text;
+        }
+        if (element.source == null) {
+            throw new IllegalStateException("Se requiere text o source en " + where);
+        }
+        switch (element.source) {
+            case SOURCE_FECHA_INFORME:
+                return context -> context.fechaInforme;
+            case SOURCE_DOWNLOAD_URL:
+                return context -> context.downloadUrl;
+            default:
+                Method getter = getter(where, element.source, String.class);
+                return context -> (String) read(getter, context.request);
+        }
+    }
+
+    private static Method getter(String where, String property, Class<?> type) {
+        PropertyDescriptor descriptor = property != null
+            ? BeanUtils.getPropertyDescriptor(PdfGenerationRequest.class, property)
+            : null;
+        if (descriptor == null || descriptor.getReadMethod() == null
+                || !type.isAssignableFrom(descriptor.getPropertyType())) {
+            throw new IllegalStateException("Propiedad '" + property + "' inexistente o de tipo incorrecto en " + where);
+        }
+        return descriptor.getReadMethod();
+    }
+
+    private static Object read(Method getter, PdfGenerationRequest request) {
+        try {
+            return getter.invoke(request);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("No se pudo leer " + getter.getName(), e);
+        }
+    }
+
+    private static ReportTemplateService.Block block(String where, String name) {
+        try {
+            return ReportTemplateService.Block.valueOf(name);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalStateException("Bloque de plantilla desconocido '" + name + "' en " + where);
+        }
+    }
+
+    private static ParagraphStyle style(String where, Map<String, ParagraphStyle> styles, String name) {
+        if (name == null) {
+            return ParagraphStyle.NONE;
+        }
+        ParagraphStyle style = styles.get(name);
+        if (style == null) {
+            throw new IllegalStateException("Estilo desconocido '" + name + "' en " + where);
+        }
+        return style;
+    }
+
+    private static Color parseColor(String where, String hex) {
+        if (hex == null || !hex.matches("#[0-9A-Fa-f]{6}")) {
+            throw new IllegalStateException("Color inválido '" + hex + "' en " + where + " (se espera #RRGGBB)");
+        }
+        int rgb = Integer.parseInt(hex.substring(1), 16);
+        return new DeviceRgb(rgb >> 16 & 0xff, rgb >> 8 & 0xff, rgb & 0xff);
+    }
+
+    private static String versionOf(byte[] json) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(json);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No se pudo calcular la versión del informe", e);
+        }
+    }
+
+    /**
+     * Informe compilado. Es inmutable y se comparte entre peticiones.
+     */
+    public static class ReportPlan {
+        private final String id;
+        private final String version;
+        private final List<Step> steps;
+
+        private ReportPlan(String id, String version, List<Step> steps) {
+            this.id = id;
+            this.version = version;
+            this.steps = Collections.unmodifiableList(steps);
+        }
+
+        public String getId() { return id; }
+
+        /**
+         * Hash del archivo de definición; cambia con cualquier modificación del informe.
+         */
+        public String getVersion() { return version; }
+
+        public void render(Document document, RenderContext context) {
+            for (Step step : steps) {
+                step.apply(document, context);
+            }
+        }
+    }
+
+    /**
+     * Datos de una petición: la solicitud, las capas fijas ya copiadas al documento y los
+     * valores calculados al generar.
+     */
+    public static class RenderContext {
+        private final PdfGenerationRequest request;
+        private final ReportTemplateService.StaticLayers layers;
+        private final PdfFormXObject qrImage;
+        private final String fechaInforme;
+        private final String downloadUrl;
+
+        /**
+         * @param qrImage QR vectorial del documento (ver {@link QrCodeService#createVectorQr});
+         *                varios informes del mismo documento lo comparten
+         */
+        public RenderContext(PdfGenerationRequest request, ReportTemplateService.StaticLayers layers,
+                             PdfFormXObject qrImage, String fechaInforme, String downloadUrl) {
+            this.request = request;
+            this.layers = layers;
+            this.qrImage = qrImage;
+            this.fechaInforme = fechaInforme;
+            this.downloadUrl = downloadUrl;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Document document, RenderContext context);
+    }
+
+    /**
+     * Estilo de párrafo ya resuelto: sólo aplica las propiedades definidas.
+     */
+    private static class ParagraphStyle {
+        private static final ParagraphStyle NONE = new ParagraphStyle(null, false, null, null, null);
+
+        private final Float fontSize;
+        private final boolean bold;
+        private final Color color;
+        private final TextAlignment align;
+        private final Float leading;
+
+        private ParagraphStyle(Float fontSize, boolean bold, Color color, TextAlignment align, Float leading) {
+            this.fontSize = fontSize;
+            this.bold = bold;
+            this.color = color;
+            this.align = align;
+            this.leading = leading;
+        }
+
+        private static ParagraphStyle compile(String template, String name, StyleDefinition definition) {
+            String where = template + " (estilo " + name + ")";
+            TextAlignment align = null;
+            if (definition.align != null) {
+                try {
+                    align = TextAlignment.valueOf(definition.align.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException("Alineación desconocida '" + definition.align + "' en " + where);
+                }
+            }
+            return new ParagraphStyle(definition.fontSize, Boolean.TRUE.equals(definition.bold),
+                definition.color != null ? parseColor(where, definition.color) : null, align, definition.leading);
+        }
+
+        private Paragraph apply(Paragraph paragraph) {
+            if (fontSize != null) {
+                paragraph.setFontSize(fontSize);
+            }
+            if (bold) {
+                paragraph.setBold();
+            }
+            if (color != null) {
+                paragraph.setFontColor(color);
+            }
+            if (align != null) {
+                paragraph.setTextAlignment(align);
+            }
+            if (leading != null) {
+                paragraph.setMultipliedLeading(leading);
+            }
+            return paragraph;
+        }
+    }
+
+    // Estructura del archivo JSON
+
+    static class TemplateDefinition {
+        public String description;
+        public String fieldStyle;
+        public Map<String, StyleDefinition> styles;
+        public List<ElementDefinition> elements;
+    }
+
+    static class StyleDefinition {
+        public Float fontSize;
+        public Boolean bold;
+        public String color;
+        public String align;
+        public Float leading;
+    }
+
+    static class ElementDefinition {
+        /** header, block, qr, field, text o map. */
+        public String type;
+        public String block;
+        public String label;
+        public String labelSuffix;
+        public String source;
+        public String text;
+        public String prefix;
+        @JsonProperty("default")
+        public String defaultValue;
+        public String style;
+        public ColorRule color;
+        public Float size;
+        public Float x;
+        public Float y;
+    }
+
+    /**
+     * Color según el valor: {@code then} si coincide con {@code equals} (o {@code equalsIgnoreCase}),
+     * {@code else} en otro caso. Un valor nulo nunca coincide.
+     */
+    static class ColorRule {
+        public String equals;
+        public String equalsIgnoreCase;
+        public String then;
+        @JsonProperty("else")
+        public String otherwise;
+
+        private Function<String, Color> compile(String where) {
+            Color match = parseColor(where, then);
+            Color other = parseColor(where, otherwise);
+            if (equalsIgnoreCase != null) {
+                String expected = equalsIgnoreCase;
+                return value -> expected.equalsIgnoreCase(value) ? match : other;
+            }
+            if (equals != null) {
+                String expected = equals;
+                return value -> expected.equals(value) ? match : other;
+            }
+            throw new IllegalStateException("La regla de color requiere equals o equalsIgnoreCase en " + where);
+        }
+    }
+}
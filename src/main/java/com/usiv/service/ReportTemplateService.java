@@ -0,0 +1,301 @@
+package com.usiv.service;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.ColorConstants;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.Canvas;
+import com.itextpdf.layout.element.Div;
+import com.itextpdf.layout.element.Image;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.layout.LayoutArea;
+import com.itextpdf.layout.layout.LayoutContext;
+import com.itextpdf.layout.properties.TextAlignment;
+import com.itextpdf.layout.renderer.IRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plantilla precompilada del informe. Las partes invariables (logo, título, subtítulo, textos
+ * legales y encabezados de sección) se maquetan una sola vez en un PDF plantilla; cada
+ * documento sólo copia esas páginas como form XObject y maqueta los campos de la solicitud.
+ * La versión incluye un hash de los textos fijos y de la fuente, así que cambiarlos genera
+ * otra plantilla.
+ *
+ * <p>Los textos fijos usan Helvetica estándar (sin embeber; cubren WinAnsi, tildes incluidas) y
+ * no la fuente de los campos: una capa copiada desde otro PDF trae sus propias fuentes, así que
+ * con Roboto cada documento llevaría dos subconjuntos, el de la plantilla y el de los campos.
+ */
+@Service
+public class ReportTemplateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportTemplateService.class);
+
+    private static final String TEMPLATE_REVISION = "3";
+
+    static final DeviceRgb AZUL_USIV = new DeviceRgb(16, 41, 77);
+
+    private static final String LOGO_RESOURCE = "logoUsivComprimido.png";
+    private static final float LOGO_SIZE = 75;
+    // Resolución del logo remuestreado: suficiente para impresión de oficina
+    private static final int RESAMPLED_DPI = 150;
+
+    private static final float PAGE_MARGIN = 36;
+    private static final float CONTENT_WIDTH = PageSize.A4.getWidth() - PAGE_MARGIN * 2;
+
+    private static final String TITULO = "USIV - LICENSE";
+    private static final String SUBTITULO = "INFORME TÉCNICO DE VERIFICACIÓN GEOGRÁFICA";
+    private static final String TEXTO_INTRO_1 = "El presente informe tiene por objeto presentar los resultados del proceso de validación de ubicación geográfica e identidad realizado mediante la plataforma USIV. Esta validación se efectúa a través de coordenadas geográficas obtenidas desde el dispositivo móvil del usuario, así como mediante tecnologías de reconocimiento facial, con el propósito de verificar la identidad de la persona evaluada.";
+    private static final String TEXTO_INTRO_2 = "USIV garantiza que los datos consignados corresponden a la información registrada durante el proceso de validación, y se reserva el derecho de rechazar aquellos casos en que se detecten manipulaciones en la geolocalización, falsificación de identidad o cualquier intento de interferencia con los mecanismos de autenticación provistos por la plataforma.";
+    private static final String SECCION_PACIENTE = "DATOS DEL PACIENTE";
+    private static final String SECCION_VALIDACION = "VALIDACIÓN DE UBICACIÓN E IDENTIDAD";
+    private static final String SECCION_ADICIONALES = "CAMPOS ADICIONALES";
+    private static final String SECCION_OBSERVACIONES = "OBSERVACIONES";
+
+    /**
+     * Bloques fijos del informe, en el orden de las páginas de la plantilla.
+     */
+    public enum Block {
+        /** Página completa: logo en posición fija, título y subtítulo. */
+        HEADER,
+        /** Textos legales y encabezado de datos del paciente. */
+        INTRO,
+        VALIDACION,
+        ADICIONALES,
+        OBSERVACIONES
+    }
+
+    @Autowired
+    private FontProgramCache fontProgramCache;
+
+    private final Map<String, CompiledTemplate> compiled = new ConcurrentHashMap<>();
+
+    private String version;
+
+    @PostConstruct
+    public void init() {
+        version = computeVersion(StandardFonts.HELVETICA);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Fuente base del informe para un documento nuevo (ver {@link FontProgramCache}).
+     */
+    public PdfFont createFont() {
+        return fontProgramCache.createRegular();
+    }
+
+    /**
+     * Copia las capas fijas de la plantilla vigente al documento destino. Con
+     * {@code resampleImages} se usa la variante con el logo remuestreado al tamaño en que se
+     * muestra (ver {@link PdfOutputProfile#isReencodeImages()}).
+     */
+    public StaticLayers open(PdfDocument target, boolean resampleImages) throws IOException {
+        CompiledTemplate template = compiled.computeIfAbsent(resampleImages ? version + "-r" : version,
+            v -> compile(resampleImages));
+
+        Map<Block, PdfFormXObject> layers = new EnumMap<>(Block.class);
+        try (PdfDocument source = new PdfDocument(new PdfReader(new ByteArrayInputStream(template.pdf)))) {
+            for (Block block : Block.values()) {
+                layers.put(block, source.getPage(block.ordinal() + 1).copyAsFormXObject(target));
+            }
+        }
+        return new StaticLayers(layers, template.headerFlowHeight);
+    }
+
+    private CompiledTemplate compile(boolean resampleImages) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        float headerFlowHeight;
+
+        try (PdfDocument doc = new PdfDocument(new PdfWriter(baos))) {
+            PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+            ImageData logo = resampleImages
+                ? resampledLogo()
+                : ImageDataFactory.create(getClass().getClassLoader().getResource(LOGO_RESOURCE));
+
+            // Cabecera: página completa para conservar la posición absoluta del logo
+            Div header = new Div()
+                .add(new Paragraph(TITULO)
+                    .setFontSize(26)
+                    .setFontColor(ColorConstants.LIGHT_GRAY)
+                    .setTextAlignment(TextAlignment.CENTER)
+                    .setOpacity(0.5f))
+                .add(new Paragraph(SUBTITULO)
+                    .setFontSize(16)
+                    .setBold()
+                    .setFontColor(AZUL_USIV)
+                    .setTextAlignment(TextAlignment.CENTER));
+            headerFlowHeight = measure(doc, header, font);
+            PdfCanvas headerPage = new PdfCanvas(doc.addNewPage(PageSize.A4));
+            Rectangle contentArea = new Rectangle(PAGE_MARGIN, PAGE_MARGIN, CONTENT_WIDTH, PageSize.A4.getHeight() - PAGE_MARGIN * 2);
+            try (Canvas canvas = new Canvas(headerPage, contentArea)) {
+                canvas.setFont(font);
+                canvas.add(new Image(logo).scaleToFit(LOGO_SIZE, LOGO_SIZE).setFixedPosition(500, 770));
+                canvas.add(header);
+            }
+
+            addBlock(doc, font, new Div()
+                .add(new Paragraph(TEXTO_INTRO_1).setFontSize(10).setTextAlignment(TextAlignment.JUSTIFIED))
+                .add(new Paragraph(TEXTO_INTRO_2).setFontSize(10).setTextAlignment(TextAlignment.JUSTIFIED))
+                .add(sectionTitle(SECCION_PACIENTE, 14)));
+            addBlock(doc, font, new Div().add(sectionTitle(SECCION_VALIDACION, 14)));
+            addBlock(doc, font, new Div().add(sectionTitle(SECCION_ADICIONALES, 13)));
+            addBlock(doc, font, new Div().add(sectionTitle(SECCION_OBSERVACIONES, 13)));
+        } catch (RuntimeException | IOException e) {
+            throw new IllegalStateException("No se pudo compilar la plantilla del informe", e);
+        }
+
+        logger.info("Plantilla de informe {}{} compilada en {} ms ({} bytes)",
+            version, resampleImages ? " (logo remuestreado)" : "", (System.nanoTime() - start) / 1_000_000, baos.size());
+        return new CompiledTemplate(baos.toByteArray(), headerFlowHeight);
+    }
+
+    /**
+     * El logo original (300 px) se muestra a 75 pt, unos 288 dpi. Se remuestrea a
+     * {@link #RESAMPLED_DPI} conservando el canal alfa.
+     */
+    private ImageData resampledLogo() throws IOException {
+        BufferedImage original = ImageIO.read(getClass().getClassLoader().getResource(LOGO_RESOURCE));
+        int target = (int) Math.ceil(LOGO_SIZE * RESAMPLED_DPI / 72f);
+        float scale = Math.min(1f, (float) target / Math.max(original.getWidth(), original.getHeight()));
+        int width = Math.max(1, Math.round(original.getWidth() * scale));
+        int height = Math.max(1, Math.round(original.getHeight() * scale));
+
+        BufferedImage resampled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = resampled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(resampled, "PNG", png);
+        return ImageDataFactory.create(png.toByteArray());
+    }
+
+    private static Paragraph sectionTitle(String text, float fontSize) {
+        return new Paragraph(text).setFontSize(fontSize).setBold().setFontColor(AZUL_USIV);
+    }
+
+    /**
+     * Maqueta un bloque en una página del alto exacto que ocupa (márgenes incluidos), para que
+     * al insertarlo como imagen en el flujo ocupe lo mismo que los párrafos originales.
+     */
+    private static void addBlock(PdfDocument doc, PdfFont font, Div block) {
+        float height = measure(doc, block, font);
+        PdfCanvas page = new PdfCanvas(doc.addNewPage(new PageSize(CONTENT_WIDTH, height)));
+        try (Canvas canvas = new Canvas(page, new Rectangle(0, 0, CONTENT_WIDTH, height))) {
+            canvas.setFont(font);
+            canvas.add(block);
+        }
+    }
+
+    private static float measure(PdfDocument doc, Div block, PdfFont font) {
+        Rectangle area = new Rectangle(0, 0, CONTENT_WIDTH, PageSize.A4.getHeight() * 4);
+        // Lienzo auxiliar sólo para heredar las propiedades por defecto del renderer raíz
+        try (Canvas scratch = new Canvas(new PdfFormXObject(area), doc)) {
+            block.setFont(font);
+            IRenderer renderer = block.createRendererSubTree().setParent(scratch.getRenderer());
+            return renderer.layout(new LayoutContext(new LayoutArea(1, area))).getOccupiedArea().getBBox().getHeight();
+        }
+    }
+
+    private static String computeVersion(String fontName) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(fontName.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            for (String text : new String[] {TITULO, SUBTITULO, TEXTO_INTRO_1, TEXTO_INTRO_2,
+                    SECCION_PACIENTE, SECCION_VALIDACION, SECCION_ADICIONALES, SECCION_OBSERVACIONES}) {
+                md.update(text.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            byte[] hash = md.digest();
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return TEMPLATE_REVISION + "-" + hex;
+        } catch (Exception e) {
+            throw new IllegalStateException("No se pudo calcular la versión de la plantilla", e);
+        }
+    }
+
+    private static class CompiledTemplate {
+        private final byte[] pdf;
+        private final float headerFlowHeight;
+
+        private CompiledTemplate(byte[] pdf, float headerFlowHeight) {
+            this.pdf = pdf;
+            this.headerFlowHeight = headerFlowHeight;
+        }
+    }
+
+    /**
+     * Capas fijas ya copiadas a un documento concreto.
+     */
+    public static class StaticLayers {
+        private final Map<Block, PdfFormXObject> layers;
+        private final float headerFlowHeight;
+
+        StaticLayers(Map<Block, PdfFormXObject> layers, float headerFlowHeight) {
+            this.layers = layers;
+            this.headerFlowHeight = headerFlowHeight;
+        }
+
+        /**
+         * Cabecera a página completa, fija sobre la página actual (la primera de cada informe
+         * en los documentos consolidados).
+         */
+        public Image header() {
+            return new Image(layers.get(Block.HEADER)).setFixedPosition(0, 0);
+        }
+
+        /**
+         * Espacio que la cabecera ocupa en el flujo (título y subtítulo).
+         */
+        public Div headerSpacer() {
+            return new Div().setHeight(headerFlowHeight).setMargin(0).setPadding(0);
+        }
+
+        /**
+         * Bloque fijo para insertar en el flujo del documento.
+         */
+        public Image block(Block block) {
+            return new Image(layers.get(block));
+        }
+    }
+}
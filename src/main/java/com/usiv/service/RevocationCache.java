@@ -0,0 +1,490 @@
+package com.usiv.service;
+
+import com.itextpdf.signatures.CertificateUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Caché de respuestas OCSP y CRL para firmas LTV, indexada por emisor y número de serie.
+ * Las entradas se refrescan antes de su {@code nextUpdate} en segundo plano y se persisten
+ * en disco para sobrevivir reinicios. Las URLs de los respondedores pueden sobrescribirse
+ * por configuración para probar contra un respondedor local.
+ *
+ * <p>La firma nunca espera al respondedor: ante una entrada vencida se incrusta la que hay
+ * y, si no hay ninguna, el documento va sin DSS. En ambos casos la consulta se encarga a un
+ * hilo propio, con timeouts de conexión y de lectura, y una sola a la vez por certificado.
+ */
+@Service
+public class RevocationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationCache.class);
+
+    private static final String OCSP = "ocsp";
+    private static final String CRL = "crl";
+
+    @Value("${pdf.signature.ltv.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pdf.signature.ltv.cache-dir:revocation-cache}")
+    private String cacheDir;
+
+    @Value("${pdf.signature.ltv.ocsp-url:}")
+    private String ocspUrlOverride;
+
+    @Value("${pdf.signature.ltv.crl-url:}")
+    private String crlUrlOverride;
+
+    @Value("${pdf.signature.ltv.refresh-ahead-minutes:60}")
+    private long refreshAheadMinutes;
+
+    @Value("${pdf.signature.ltv.default-validity-minutes:60}")
+    private long defaultValidityMinutes;
+
+    @Value("${pdf.signature.ltv.retry-after-failure-ms:60000}")
+    private long retryAfterFailureMs;
+
+    @Value("${pdf.signature.ltv.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${pdf.signature.ltv.read-timeout-ms:10000}")
+    private long readTimeoutMs;
+
+    @Autowired
+    private SigningMaterialRegistry signingMaterialRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastFailure = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private HttpClient httpClient;
+    private ExecutorService refresher;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter stale;
+
+    @PostConstruct
+    public void init() {
+        hits = Counter.builder("pdf.signature.revocation.lookups").tag("result", "hit")
+            .description("Consultas de revocación resueltas desde caché").register(meterRegistry);
+        misses = Counter.builder("pdf.signature.revocation.lookups").tag("result", "miss")
+            .description("Consultas de revocación sin respuesta en caché (documento sin DSS)").register(meterRegistry);
+        stale = Counter.builder("pdf.signature.revocation.lookups").tag("result", "stale")
+            .description("Consultas servidas con una respuesta vencida mientras se refresca").register(meterRegistry);
+        Gauge.builder("pdf.signature.revocation.hit.ratio", this, RevocationCache::hitRatio)
+            .description("Proporción de consultas de revocación resueltas desde caché")
+            .register(meterRegistry);
+        Gauge.builder("pdf.signature.revocation.entries", entries, Map::size)
+            .description("Respuestas OCSP/CRL en caché")
+            .register(meterRegistry);
+
+        httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+        refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "revocation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (enabled) {
+            loadFromDisk();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Devuelve la información de revocación disponible para cada certificado de la cadena
+     * que no sea un ancla de confianza autofirmada. Preferentemente OCSP, si no CRL.
+     */
+    public RevocationData lookup(Certificate[] chain) {
+        RevocationData data = new RevocationData();
+        if (!enabled) {
+            return data;
+        }
+
+        for (int i = 0; i < chain.length; i++) {
+            X509Certificate cert = (X509Certificate) chain[i];
+            if (isSelfSigned(cert)) {
+                continue;
+            }
+            X509Certificate issuer = i + 1 < chain.length ? (X509Certificate) chain[i + 1] : null;
+            Entry entry = get(cert, issuer);
+            if (entry != null) {
+                (OCSP.equals(entry.type) ? data.ocsps : data.crls).add(entry.encoded);
+            }
+        }
+        return data;
+    }
+
+    private Entry get(X509Certificate cert, X509Certificate issuer) {
+        String key = keyOf(cert);
+        Entry entry = entries.get(key);
+        Instant now = Instant.now();
+
+        if (entry != null && now.isBefore(entry.nextUpdate)) {
+            hits.increment();
+            return entry;
+        }
+
+        refreshAsync(key, cert, issuer);
+        if (entry != null) {
+            stale.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Refresca en segundo plano las entradas de la cadena vigente que vencen pronto, de modo
+     * que las firmas casi nunca incrustan una respuesta vencida.
+     */
+    @Scheduled(fixedDelayString = "${pdf.signature.ltv.refresh-interval-ms:300000}", initialDelay = 5000)
+    public void refreshAhead() {
+        if (!enabled) {
+            return;
+        }
+        Certificate[] chain = signingMaterialRegistry.getCurrent().getChain();
+        Instant threshold = Instant.now().plus(Duration.ofMinutes(refreshAheadMinutes));
+
+        for (int i = 0; i < chain.length; i++) {
+            X509Certificate cert = (X509Certificate) chain[i];
+            if (isSelfSigned(cert)) {
+                continue;
+            }
+            X509Certificate issuer = i + 1 < chain.length ? (X509Certificate) chain[i + 1] : null;
+            String key = keyOf(cert);
+            Entry entry = entries.get(key);
+            if (entry == null || entry.nextUpdate.isBefore(threshold)) {
+                refreshAsync(key, cert, issuer);
+            }
+        }
+    }
+
+    /**
+     * Encarga la consulta al hilo de refresco salvo que ya haya una pendiente para el mismo
+     * certificado, de modo que varias firmas a la vez no repiten la consulta.
+     */
+    private void refreshAsync(String key, X509Certificate cert, X509Certificate issuer) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    refreshIfDue(key, cert, issuer);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private void refreshIfDue(String key, X509Certificate cert, X509Certificate issuer) {
+        Entry current = entries.get(key);
+        if (current != null && Instant.now().plus(Duration.ofMinutes(refreshAheadMinutes)).isBefore(current.nextUpdate)) {
+            return;
+        }
+        Long failedAt = lastFailure.get(key);
+        if (failedAt != null && System.currentTimeMillis() - failedAt < retryAfterFailureMs) {
+            return;
+        }
+        fetch(key, cert, issuer);
+    }
+
+    private void fetch(String key, X509Certificate cert, X509Certificate issuer) {
+
+        Entry fetched = issuer != null ? fetchOcsp(cert, issuer) : null;
+        if (fetched == null) {
+            fetched = fetchCrl(cert);
+        }
+
+        if (fetched == null) {
+            lastFailure.put(key, System.currentTimeMillis());
+            return;
+        }
+
+        lastFailure.remove(key);
+        entries.put(key, fetched);
+        persist(key, fetched);
+    }
+
+    private Entry fetchOcsp(X509Certificate cert, X509Certificate issuer) {
+        String url = !ocspUrlOverride.isEmpty() ? ocspUrlOverride : CertificateUtil.getOCSPURL(cert);
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            byte[] encoded = post(url, "application/ocsp-request", ocspRequest(cert, issuer).getEncoded());
+            OCSPResp response = new OCSPResp(encoded);
+            if (response.getStatus() != OCSPResp.SUCCESSFUL || !(response.getResponseObject() instanceof BasicOCSPResp)) {
+                logger.warn("Respondedor OCSP {} devolvió estado {}", url, response.getStatus());
+                return null;
+            }
+            Entry entry = parse(OCSP, encoded);
+            outcome = "success";
+            return entry;
+        } catch (Exception e) {
+            logger.warn("No se pudo obtener respuesta OCSP de {}: {}", url, e.getMessage());
+            return null;
+        } finally {
+            fetchTimer(OCSP, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Entry fetchCrl(X509Certificate cert) {
+        String url = !crlUrlOverride.isEmpty() ? crlUrlOverride : CertificateUtil.getCRLURL(cert);
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            Entry entry = parse(CRL, download(url));
+            outcome = "success";
+            return entry;
+        } catch (Exception e) {
+            logger.warn("No se pudo obtener CRL de {}: {}", url, e.getMessage());
+            return null;
+        } finally {
+            fetchTimer(CRL, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Solicitud OCSP para un certificado, con nonce como la que arma iText.
+     */
+    private static OCSPReq ocspRequest(X509Certificate cert, X509Certificate issuer) throws Exception {
+        DigestCalculator sha1 = new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1);
+        CertificateID id = new CertificateID(sha1, new JcaX509CertificateHolder(issuer), cert.getSerialNumber());
+        byte[] nonce = new byte[16];
+        new SecureRandom().nextBytes(nonce);
+        Extension nonceExtension = new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false,
+            new DEROctetString(new DEROctetString(nonce).getEncoded()));
+        return new OCSPReqBuilder()
+            .addRequest(id)
+            .setRequestExtensions(new Extensions(nonceExtension))
+            .build();
+    }
+
+    private byte[] post(String url, String contentType, byte[] body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url))
+            .timeout(Duration.ofMillis(readTimeoutMs))
+            .header("Content-Type", contentType)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build());
+    }
+
+    private byte[] download(String url) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(url))
+            .timeout(Duration.ofMillis(readTimeoutMs))
+            .GET()
+            .build());
+    }
+
+    private byte[] send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private Timer fetchTimer(String type, String outcome) {
+        return Timer.builder("pdf.signature.revocation.fetch")
+            .description("Latencia de consulta a respondedores OCSP/CRL")
+            .tag("type", type)
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private Entry parse(String type, byte[] encoded) throws Exception {
+        Date nextUpdate;
+        if (OCSP.equals(type)) {
+            BasicOCSPResp basic = (BasicOCSPResp) new OCSPResp(encoded).getResponseObject();
+            SingleResp[] responses = basic.getResponses();
+            nextUpdate = responses.length > 0 ? responses[0].getNextUpdate() : null;
+        } else {
+            X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509")
+                .generateCRL(new ByteArrayInputStream(encoded));
+            nextUpdate = crl.getNextUpdate();
+        }
+
+        Instant expires = nextUpdate != null
+            ? nextUpdate.toInstant()
+            : Instant.now().plus(Duration.ofMinutes(defaultValidityMinutes));
+        return new Entry(type, encoded, expires);
+    }
+
+    private void loadFromDisk() {
+        Path dir = Paths.get(cacheDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot <= 0) {
+                    return;
+                }
+                String type = name.substring(dot + 1);
+                if (!OCSP.equals(type) && !CRL.equals(type)) {
+                    return;
+                }
+                try {
+                    entries.put(name.substring(0, dot), parse(type, Files.readAllBytes(file)));
+                } catch (Exception e) {
+                    logger.warn("Respuesta de revocación ilegible en caché, se descarta: {}", file);
+                }
+            });
+            logger.info("Caché de revocación cargada: {} respuestas desde {}", entries.size(), dir);
+        } catch (IOException e) {
+            logger.error("Error leyendo caché de revocación {}", dir, e);
+        }
+    }
+
+    private void persist(String key, Entry entry) {
+        try {
+            Path dir = Paths.get(cacheDir);
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(key + "." + entry.type + ".tmp");
+            Files.write(tmp, entry.encoded);
+            Files.move(tmp, dir.resolve(key + "." + entry.type),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(dir.resolve(key + "." + (OCSP.equals(entry.type) ? CRL : OCSP)));
+        } catch (IOException e) {
+            logger.warn("No se pudo persistir respuesta de revocación {}: {}", key, e.getMessage());
+        }
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count() + stale.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private static boolean isSelfSigned(X509Certificate cert) {
+        if (!cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal())) {
+            return false;
+        }
+        try {
+            cert.verify(cert.getPublicKey());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Clave emisor/serie: SHA-1 del nombre del emisor (como en OCSP CertID) más el serial en hex.
+     */
+    private static String keyOf(X509Certificate cert) {
+        try {
+            byte[] issuerHash = MessageDigest.getInstance("SHA-1").digest(cert.getIssuerX500Principal().getEncoded());
+            StringBuilder key = new StringBuilder();
+            for (byte b : issuerHash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.append('_').append(cert.getSerialNumber().toString(16)).toString();
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+
+    private static class Entry {
+        private final String type;
+        private final byte[] encoded;
+        private final Instant nextUpdate;
+
+        private Entry(String type, byte[] encoded, Instant nextUpdate) {
+            this.type = type;
+            this.encoded = encoded;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    /**
+     * Respuestas OCSP (OCSPResponse DER) y CRLs (DER) para incrustar en el DSS del documento.
+     */
+    public static class RevocationData {
+        private final List<byte[]> ocsps = new ArrayList<>();
+        private final List<byte[]> crls = new ArrayList<>();
+
+        public List<byte[]> getOcsps() { return ocsps; }
+        public List<byte[]> getCrls() { return crls; }
+        public boolean isEmpty() { return ocsps.isEmpty() && crls.isEmpty(); }
+    }
+}
@@ -0,0 +1,256 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.regex.Pattern;
+
+/**
+ * Enlaces cortos para el QR de los documentos: en lugar de la URL de descarga con el JWT
+ * completo (cientos de caracteres), el QR lleva {@code <base-url>/q/<id>}, con un id aleatorio
+ * de 100 bits. {@code /q/{id}} lo resuelve al archivo firmado y a su vigencia.
+ *
+ * <p>Cada enlace se guarda como un archivo JSON propio en {@code pdf.short-links.store-dir},
+ * repartido en subdirectorios por los dos primeros caracteres del id: la búsqueda es una
+ * lectura directa, sin índice que cargar al iniciar ni compactar. Delante hay una caché
+ * Caffeine acotada para los escaneos repetidos de documentos recientes. Los enlaces vencidos
+ * se borran en una pasada programada.
+ */
+@Service
+public class ShortLinkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShortLinkService.class);
+
+    // Base32 en minúsculas sin i, l, o, u: no se confunde al leerlo ni depende de mayúsculas
+    private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final int ID_LENGTH = 20;
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-hjkmnp-tv-z]{" + ID_LENGTH + "}");
+    private static final String EXTENSION = ".json";
+
+    @Value("${pdf.short-links.enabled:true}")
+    private boolean enabled;
+
+    // Raíz pública de la aplicación; el enlace es <base-url>/q/<id>
+    @Value("${pdf.short-links.base-url:http://localhost:8080}")
+    private String baseUrl;
+
+    // /q/<id> es público: por omisión vive lo mismo que el token de descarga que reemplaza
+    @Value("${pdf.short-links.ttl-ms:${jwt.download-expiration:86400000}}")
+    private long ttlMs;
+
+    @Value("${pdf.short-links.store-dir:short-links}")
+    private String storeDir;
+
+    @Value("${pdf.short-links.cache.max-entries:10000}")
+    private long cacheMaxEntries;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private Path store;
+    private Cache<String, ShortLink> links;
+    private ObjectWriter linkWriter;
+    private ObjectReader linkReader;
+
+    private Counter created;
+    private Counter notFound;
+    private Counter expired;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            logger.info("Enlaces cortos deshabilitados: el QR lleva la URL de descarga completa");
+            return;
+        }
+        store = Paths.get(storeDir);
+        Files.createDirectories(store);
+
+        links = Caffeine.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, links, "pdf.short-links");
+
+        created = Counter.builder("pdf.short-links.created")
+            .description("Enlaces cortos registrados")
+            .register(meterRegistry);
+        notFound = Counter.builder("pdf.short-links.resolved").tag("result", "not_found")
+            .description("Resoluciones de enlaces cortos por resultado")
+            .register(meterRegistry);
+        expired = Counter.builder("pdf.short-links.resolved").tag("result", "expired")
+            .description("Resoluciones de enlaces cortos por resultado")
+            .register(meterRegistry);
+
+        linkWriter = objectMapper.writerFor(ShortLink.class);
+        linkReader = objectMapper.copy()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(ShortLink.class);
+
+        logger.info("Enlaces cortos: {}/q/<id>, vigencia de {} min, almacén en {}", baseUrl, ttlMs / 60000, store.toAbsolutePath());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Id nuevo para un documento que aún se está generando: el QR lo necesita antes de que
+     * exista el archivo. Sólo queda resoluble después de {@link #register}.
+     */
+    public String newId() {
+        char[] id = new char[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i++) {
+            id[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(id);
+    }
+
+    public String urlFor(String id) {
+        return baseUrl + "/q/" + id;
+    }
+
+    /**
+     * Registra el enlace de un documento ya publicado. Se escribe aparte y se mueve a su lugar
+     * para que una lectura simultánea nunca vea el JSON a medias.
+     */
+    public ShortLink register(String id, String filename, Path storedPath, String checksum) throws IOException {
+        Instant now = Instant.now();
+        ShortLink link = new ShortLink(id, filename, storedPath.toString(), checksum, now, now.plus(Duration.ofMillis(ttlMs)));
+
+        Path file = pathFor(id);
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(id + ".tmp");
+        Files.write(tmp, linkWriter.writeValueAsBytes(link));
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        links.put(id, link);
+        created.increment();
+        return link;
+    }
+
+    /**
+     * Enlace vigente o vencido con ese id, o {@code null} si no existe o el id no tiene el
+     * formato esperado (no se llega a tocar el disco).
+     */
+    public ShortLink resolve(String id) {
+        if (!enabled) {
+            return null;
+        }
+        ShortLink link = id != null && ID_PATTERN.matcher(id).matches() ? links.get(id, this::read) : null;
+        if (link == null) {
+            notFound.increment();
+        } else if (link.isExpired()) {
+            expired.increment();
+        }
+        return link;
+    }
+
+    private ShortLink read(String id) {
+        try {
+            return linkReader.readValue(Files.readAllBytes(pathFor(id)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("No se pudo leer el enlace corto {}", id, e);
+            return null;
+        }
+    }
+
+    private Path pathFor(String id) {
+        return store.resolve(id.substring(0, 2)).resolve(id + EXTENSION);
+    }
+
+    /**
+     * Borra del almacén los enlaces vencidos. Recorre sólo el almacén de enlaces, no el de
+     * documentos.
+     */
+    @Scheduled(cron = "${pdf.short-links.purge-cron:0 30 2 * * ?}")
+    public void purgeExpired() {
+        if (!enabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        int removed = 0;
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(store)) {
+            for (Path shard : shards) {
+                if (!Files.isDirectory(shard)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*" + EXTENSION)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        String id = name.substring(0, name.length() - EXTENSION.length());
+                        ShortLink link = read(id);
+                        if (link == null || link.expiresAt == null || link.expiresAt.isBefore(now)) {
+                            Files.deleteIfExists(file);
+                            links.invalidate(id);
+                            removed++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error al purgar enlaces cortos vencidos", e);
+        }
+        logger.info("Purga de enlaces cortos: {} vencidos eliminados", removed);
+    }
+
+    /**
+     * Enlace de un documento: el archivo al que apunta y hasta cuándo se puede abrir.
+     */
+    public static class ShortLink {
+        public String id;
+        public String filename;
+        public String storedPath;
+        public String checksum;
+        public Instant createdAt;
+        public Instant expiresAt;
+
+        public ShortLink() {
+        }
+
+        ShortLink(String id, String filename, String storedPath, String checksum, Instant createdAt, Instant expiresAt) {
+            this.id = id;
+            this.filename = filename;
+            this.storedPath = storedPath;
+            this.checksum = checksum;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        @JsonIgnore
+        public boolean isExpired() {
+            return expiresAt != null && expiresAt.isBefore(Instant.now());
+        }
+    }
+}
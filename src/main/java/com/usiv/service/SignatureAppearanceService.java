@@ -0,0 +1,296 @@
+package com.usiv.service;
+
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
+import com.itextpdf.io.font.PdfEncodings;
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageData;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfResources;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+import com.itextpdf.layout.Canvas;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.signatures.PdfSignatureAppearance;
+import com.itextpdf.signatures.PdfSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Set;
+
+/**
+ * Sello visible de firma. Las capas estáticas (borde, logo, firmante, razón, ubicación y
+ * contacto) se maquetan una sola vez por certificado y se guarda el content stream ya
+ * compilado. En cada documento se arma el form XObject con ese stream, el logo ya decodificado
+ * y Helvetica, sin leer ni copiar un PDF, y se escribe la fecha de firma.
+ *
+ * <p>Sólo se conserva la plantilla del certificado vigente: tras una recarga del keystore la
+ * primera firma con el certificado nuevo la reemplaza.
+ */
+@Service
+public class SignatureAppearanceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureAppearanceService.class);
+
+    static final float STAMP_WIDTH = 230;
+    static final float STAMP_HEIGHT = 56;
+    private static final float STAMP_MARGIN = 36;
+    private static final float PADDING = 4;
+    private static final float FONT_SIZE = 7;
+
+    private static final DeviceRgb AZUL_USIV = new DeviceRgb(16, 41, 77);
+
+    @Value("${pdf.signature.visible:true}")
+    private boolean visible;
+
+    @Value("${pdf.signature.reason}")
+    private String reason;
+
+    @Value("${pdf.signature.location}")
+    private String location;
+
+    @Value("${pdf.signature.contact}")
+    private String contact;
+
+    private volatile Template template;
+
+    private volatile ImageData logo;
+    private volatile FontProgram helvetica;
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Alto que el documento debe reservar al pie de página para que el sello no tape contenido.
+     */
+    public float getReservedHeight() {
+        return visible ? STAMP_HEIGHT + PADDING * 2 : 0;
+    }
+
+    /**
+     * Configura la apariencia de la firma. Si el sello visible está deshabilitado deja la
+     * firma invisible como antes.
+     */
+    public void apply(PdfSigner signer, X509Certificate signingCert) throws IOException {
+        PdfSignatureAppearance appearance = signer.getSignatureAppearance()
+            .setReason(reason)
+            .setLocation(location)
+            .setContact(contact)
+            .setReuseAppearance(false);
+        if (!visible) {
+            return;
+        }
+
+        PdfDocument target = signer.getDocument();
+        String fingerprint = fingerprint(signingCert);
+        Template current = template;
+        if (current == null || !current.fingerprint.equals(fingerprint)) {
+            current = buildTemplate(signingCert, fingerprint);
+            template = current;
+        }
+
+        PdfFont font = PdfFontFactory.createFont(getHelvetica(), PdfEncodings.WINANSI);
+        PdfFormXObject staticLayer = current.instantiate(target, font, new PdfImageXObject(getLogo()));
+
+        appearance.setPageNumber(target.getNumberOfPages())
+            .setPageRect(stampRectangle(target.getLastPage()));
+
+        // Única parte que cambia por documento: la fecha de firma
+        Calendar signDate = signer.getSignDate();
+        String fecha = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss Z").format(signDate.getTime());
+
+        PdfCanvas canvas = new PdfCanvas(appearance.getLayer2(), target);
+        canvas.addXObjectAt(staticLayer, 0, 0);
+        canvas.beginText()
+            .setFontAndSize(font, FONT_SIZE)
+            .moveText(STAMP_HEIGHT, PADDING + 2)
+            .showText("Fecha: " + fecha)
+            .endText();
+    }
+
+    /**
+     * Posición del sello: esquina inferior derecha, dentro del margen reservado al maquetar.
+     */
+    public Rectangle stampRectangle(PdfPage page) {
+        Rectangle pageSize = page.getPageSize();
+        return new Rectangle(pageSize.getRight() - STAMP_MARGIN - STAMP_WIDTH,
+            pageSize.getBottom() + PADDING, STAMP_WIDTH, STAMP_HEIGHT);
+    }
+
+    /**
+     * Maqueta las capas estáticas en un form XObject de un documento descartable y se queda
+     * con su content stream y los nombres con que referencia la fuente y el logo.
+     */
+    private Template buildTemplate(X509Certificate cert, String fingerprint) {
+        long start = System.nanoTime();
+        PdfFormXObject form = new PdfFormXObject(new Rectangle(STAMP_WIDTH, STAMP_HEIGHT));
+
+        try (PdfDocument doc = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))) {
+            doc.addNewPage(new PageSize(STAMP_WIDTH, STAMP_HEIGHT));
+            PdfFont font = PdfFontFactory.createFont(getHelvetica(), PdfEncodings.WINANSI);
+            PdfCanvas canvas = new PdfCanvas(form, doc);
+            canvas.setStrokeColor(AZUL_USIV)
+                .setLineWidth(0.5f)
+                .rectangle(0.5, 0.5, STAMP_WIDTH - 1, STAMP_HEIGHT - 1)
+                .stroke();
+
+            float logoSize = STAMP_HEIGHT - PADDING * 2;
+            canvas.addXObjectFittedIntoRectangle(new PdfImageXObject(getLogo()), new Rectangle(PADDING, PADDING, logoSize, logoSize));
+
+            // El espacio inferior queda libre para la fecha de firma de cada documento
+            float textX = STAMP_HEIGHT;
+            float textBottom = PADDING + FONT_SIZE + 4;
+            Rectangle textArea = new Rectangle(textX, textBottom, STAMP_WIDTH - textX - PADDING, STAMP_HEIGHT - textBottom - PADDING);
+            try (Canvas layout = new Canvas(canvas, textArea)) {
+                layout.setFont(font).setFontSize(FONT_SIZE);
+                layout.add(new Paragraph("Firmado digitalmente por: " + commonName(cert))
+                    .setBold().setFontColor(AZUL_USIV).setMargin(0).setMultipliedLeading(1f));
+                layout.add(new Paragraph("Razón: " + reason).setMargin(0).setMultipliedLeading(1f));
+                layout.add(new Paragraph("Ubicación: " + location).setMargin(0).setMultipliedLeading(1f));
+                layout.add(new Paragraph("Contacto: " + contact).setMargin(0).setMultipliedLeading(1f));
+            }
+
+            PdfResources resources = form.getResources();
+            Template built = new Template(fingerprint, form.getPdfObject().getBytes(),
+                single(resources, PdfName.Font), single(resources, PdfName.XObject));
+            logger.info("Plantilla de sello de firma construida para {} en {} ms",
+                commonName(cert), (System.nanoTime() - start) / 1_000_000);
+            return built;
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo construir la plantilla del sello de firma", e);
+        }
+    }
+
+    private static PdfName single(PdfResources resources, PdfName type) {
+        Set<PdfName> names = resources.getResourceNames(type);
+        if (names.size() != 1) {
+            throw new IllegalStateException("La plantilla del sello debe usar un solo recurso " + type + ": " + names);
+        }
+        return names.iterator().next();
+    }
+
+    private FontProgram getHelvetica() throws IOException {
+        if (helvetica == null) {
+            helvetica = FontProgramFactory.createFont(StandardFonts.HELVETICA);
+        }
+        return helvetica;
+    }
+
+    /**
+     * Miniatura del logo al doble de la resolución del sello; el original completo duplicaría
+     * decenas de KB en cada documento, que ya lo incluye en la cabecera. Se guarda como RGB
+     * crudo sobre blanco (el fondo del sello) para no decodificar un PNG en cada firma.
+     */
+    private ImageData getLogo() throws IOException {
+        if (logo == null) {
+            BufferedImage original = ImageIO.read(getClass().getClassLoader().getResource("logoUsivComprimido.png"));
+            int target = (int) (STAMP_HEIGHT - PADDING * 2) * 2;
+            double scale = Math.min(1.0, (double) target / Math.max(original.getWidth(), original.getHeight()));
+            int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+
+            BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = thumbnail.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(original, 0, 0, width, height, null);
+            graphics.dispose();
+
+            byte[] rgb = new byte[width * height * 3];
+            int i = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int pixel = thumbnail.getRGB(x, y);
+                    rgb[i++] = (byte) (pixel >> 16);
+                    rgb[i++] = (byte) (pixel >> 8);
+                    rgb[i++] = (byte) pixel;
+                }
+            }
+            logo = ImageDataFactory.create(width, height, 3, 8, rgb, null);
+        }
+        return logo;
+    }
+
+    private static String commonName(X509Certificate cert) {
+        try {
+            for (Rdn rdn : new LdapName(cert.getSubjectX500Principal().getName()).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    return rdn.getValue().toString();
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("No se pudo leer el CN del certificado", e);
+        }
+        return cert.getSubjectX500Principal().getName();
+    }
+
+    /**
+     * Capas estáticas compiladas para un certificado: el content stream y los nombres de
+     * recurso que usa. No depende de ningún documento y se comparte entre hilos.
+     */
+    private static class Template {
+        private final String fingerprint;
+        private final byte[] content;
+        private final PdfName fontName;
+        private final PdfName imageName;
+
+        private Template(String fingerprint, byte[] content, PdfName fontName, PdfName imageName) {
+            this.fingerprint = fingerprint;
+            this.content = content;
+            this.fontName = fontName;
+            this.imageName = imageName;
+        }
+
+        /**
+         * Form XObject en {@code target} con el content stream compilado. Unos recursos nuevos
+         * asignan los mismos nombres (F1, Im1) que recibió la plantilla.
+         */
+        private PdfFormXObject instantiate(PdfDocument target, PdfFont font, PdfImageXObject image) {
+            PdfFormXObject form = new PdfFormXObject(new Rectangle(STAMP_WIDTH, STAMP_HEIGHT));
+            PdfName assignedFont = form.getResources().addFont(target, font);
+            PdfName assignedImage = form.getResources().addImage(image);
+            if (!assignedFont.equals(fontName) || !assignedImage.equals(imageName)) {
+                throw new IllegalStateException("Recursos del sello con nombres distintos a la plantilla: "
+                    + assignedFont + "/" + assignedImage + " en vez de " + fontName + "/" + imageName);
+            }
+            form.getPdfObject().setData(content);
+            return form;
+        }
+    }
+
+    private static String fingerprint(X509Certificate cert) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+        } catch (Exception e) {
+            throw new IllegalStateException("No se pudo calcular la huella del certificado", e);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.usiv.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itextpdf.io.source.RandomAccessSourceFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.ReaderProperties;
+import com.itextpdf.signatures.CertificateInfo;
+import com.itextpdf.signatures.CertificateVerification;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.SignatureUtil;
+import com.itextpdf.signatures.VerificationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verificación de firmas de PDFs: integridad y autenticidad del CMS, cobertura del rango de
+ * bytes, tipo de firma (CAdES) y cadena de certificados. Los resultados se guardan por checksum
+ * SHA-256 del documento, de modo que una segunda verificación del mismo archivo no vuelve a
+ * parsearlo.
+ *
+ * <p>Anclas de confianza: los certificados de {@code pdf.verification.trusted-certificates}
+ * más todas las cadenas de firma cargadas desde el inicio. Una recarga del keystore agrega la
+ * cadena nueva sin quitar las anteriores, así los documentos ya emitidos siguen validando; para
+ * que lo hagan también tras un reinicio, el certificado anterior debe estar en la configuración.
+ */
+@Service
+public class SignatureVerificationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureVerificationService.class);
+
+    @Value("${pdf.verification.cache.max-entries:10000}")
+    private long cacheMaxEntries;
+
+    @Value("${pdf.verification.cache.ttl-minutes:60}")
+    private long cacheTtlMinutes;
+
+    @Value("${pdf.verification.workers:0}")
+    private int workerCount;
+
+    @Value("${pdf.verification.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${pdf.verification.trusted-certificates:}")
+    private String trustedCertificates;
+
+    @Autowired
+    private SigningMaterialRegistry signingMaterialRegistry;
+
+    @Autowired
+    private FileManagementService fileManagementService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, VerificationResult> results;
+    private ExecutorService executor;
+    private Timer verifyTimer;
+
+    // Último material incorporado a las anclas; si el keystore se recarga se agrega su cadena
+    // y los resultados en caché (que pudieron fallar por no conocerla) se descartan
+    private volatile SigningMaterialRegistry.SigningMaterial trustedMaterial;
+    private volatile KeyStore trustStore;
+    private final Set<Certificate> anchors = new LinkedHashSet<>();
+
+    @PostConstruct
+    public void init() {
+        results = Caffeine.newBuilder()
+            .maximumSize(cacheMaxEntries)
+            .expireAfterWrite(Duration.ofMinutes(cacheTtlMinutes))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, results, "pdf.verification");
+        anchors.addAll(loadConfiguredAnchors());
+
+        verifyTimer = Timer.builder("pdf.verification.time")
+            .description("Tiempo de verificación de firmas de un documento (sin caché)")
+            .register(meterRegistry);
+
+        // Pool acotado: con la cola llena la petición verifica en su propio hilo
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread thread = new Thread(r, "pdf-verifier-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+        logger.info("Verificación de firmas: {} hilos, caché de {} resultados", threads, cacheMaxEntries);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Verifica un documento. Si ya se verificó un documento con el mismo checksum se devuelve
+     * el resultado guardado; verificaciones simultáneas del mismo documento se calculan una vez.
+     */
+    public VerificationResult verify(String name, byte[] pdf) {
+        refreshTrustIfNeeded();
+        String checksum = fileManagementService.calculateChecksum(pdf);
+        boolean[] computed = new boolean[1];
+        VerificationResult result = results.get(checksum, key -> {
+            computed[0] = true;
+            return verifyTimer.record(() -> doVerify(key, pdf));
+        });
+        return result.forDocument(name, !computed[0]);
+    }
+
+    /**
+     * Verifica varios documentos en paralelo en el pool acotado, conservando el orden de entrada.
+     */
+    public List<VerificationResult> verifyAll(List<String> names, List<byte[]> documents) throws InterruptedException {
+        List<Future<VerificationResult>> futures = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            String name = names.get(i);
+            byte[] pdf = documents.get(i);
+            futures.add(executor.submit(() -> verify(name, pdf)));
+        }
+
+        List<VerificationResult> verified = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                verified.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                verified.add(VerificationResult.failed(names.get(i), e.getCause().getMessage()));
+            }
+        }
+        return verified;
+    }
+
+    private VerificationResult doVerify(String checksum, byte[] pdf) {
+        List<SignatureCheck> checks = new ArrayList<>();
+        try (PdfDocument document = new PdfDocument(new PdfReader(
+                new RandomAccessSourceFactory().createSource(pdf), new ReaderProperties()))) {
+            SignatureUtil signatureUtil = new SignatureUtil(document);
+            List<String> names = signatureUtil.getSignatureNames();
+            if (names.isEmpty()) {
+                return new VerificationResult(checksum, false, "El documento no contiene firmas", checks);
+            }
+
+            for (String signatureName : names) {
+                checks.add(checkSignature(signatureUtil, signatureName));
+            }
+        } catch (Exception e) {
+            logger.warn("No se pudo verificar el documento {}: {}", checksum, e.getMessage());
+            return new VerificationResult(checksum, false, "Documento PDF inválido: " + e.getMessage(), checks);
+        }
+
+        // Las firmas anteriores cubren sólo su revisión; la última debe cubrir todo el documento
+        boolean valid = checks.stream().allMatch(SignatureCheck::isValid)
+            && checks.get(checks.size() - 1).isCoversWholeDocument();
+        String message = valid ? "Firmas válidas" : "Una o más firmas no son válidas";
+        return new VerificationResult(checksum, valid, message, checks);
+    }
+
+    private SignatureCheck checkSignature(SignatureUtil signatureUtil, String signatureName) {
+        SignatureCheck check = new SignatureCheck(signatureName);
+        try {
+            PdfPKCS7 pkcs7 = signatureUtil.readSignatureData(signatureName);
+            Calendar signDate = pkcs7.getSignDate();
+            X509Certificate signingCert = pkcs7.getSigningCertificate();
+
+            check.subFilter = pkcs7.getFilterSubtype() != null ? pkcs7.getFilterSubtype().getValue() : null;
+            check.cades = PdfName.ETSI_CAdES_DETACHED.equals(pkcs7.getFilterSubtype());
+            check.coversWholeDocument = signatureUtil.signatureCoversWholeDocument(signatureName);
+            check.integrity = pkcs7.verifySignatureIntegrityAndAuthenticity();
+            check.signer = CertificateInfo.getSubjectFields(signingCert).getField("CN");
+            check.signDate = signDate.toInstant();
+
+            for (VerificationException error : CertificateVerification.verifyCertificates(
+                    pkcs7.getSignCertificateChain(), trustStore, signDate)) {
+                check.chainErrors.add(error.getMessage());
+            }
+            check.chainValid = check.chainErrors.isEmpty();
+        } catch (Exception e) {
+            check.error = e.getMessage();
+        }
+        return check;
+    }
+
+    /**
+     * Certificados X.509 (PEM o DER, uno o varios por archivo) de la lista separada por comas.
+     */
+    private List<Certificate> loadConfiguredAnchors() {
+        List<Certificate> configured = new ArrayList<>();
+        for (String entry : trustedCertificates.split(",")) {
+            String file = entry.trim();
+            if (file.isEmpty()) {
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(Paths.get(file))) {
+                configured.addAll(CertificateFactory.getInstance("X.509").generateCertificates(in));
+            } catch (Exception e) {
+                throw new IllegalStateException("No se pudo leer el certificado de confianza " + file, e);
+            }
+        }
+        if (!configured.isEmpty()) {
+            logger.info("Verificación de firmas: {} certificados de confianza configurados", configured.size());
+        }
+        return configured;
+    }
+
+    private void refreshTrustIfNeeded() {
+        SigningMaterialRegistry.SigningMaterial material = signingMaterialRegistry.getCurrent();
+        if (material == trustedMaterial) {
+            return;
+        }
+        synchronized (this) {
+            if (material == trustedMaterial) {
+                return;
+            }
+            try {
+                anchors.addAll(Arrays.asList(material.getChain()));
+                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                keyStore.load(null, null);
+                int i = 0;
+                for (Certificate anchor : anchors) {
+                    keyStore.setCertificateEntry("usiv-" + i++, anchor);
+                }
+                trustStore = keyStore;
+            } catch (Exception e) {
+                throw new IllegalStateException("No se pudo construir el almacén de confianza", e);
+            }
+            if (trustedMaterial != null) {
+                logger.info("Keystore de firma recargado; se descartan los resultados de verificación en caché");
+                results.invalidateAll();
+            }
+            trustedMaterial = material;
+        }
+    }
+
+    /**
+     * Resultado de verificar un documento. Lo guardado en caché no depende del nombre con que
+     * se subió el archivo; {@link #forDocument} lo asocia a cada consulta.
+     */
+    public static class VerificationResult {
+        private final String document;
+        private final String checksum;
+        private final boolean valid;
+        private final String message;
+        private final List<SignatureCheck> signatures;
+        private final Instant verifiedAt;
+        private final boolean cached;
+
+        VerificationResult(String checksum, boolean valid, String message, List<SignatureCheck> signatures) {
+            this(null, checksum, valid, message, signatures, Instant.now(), false);
+        }
+
+        private VerificationResult(String document, String checksum, boolean valid, String message,
+                                   List<SignatureCheck> signatures, Instant verifiedAt, boolean cached) {
+            this.document = document;
+            this.checksum = checksum;
+            this.valid = valid;
+            this.message = message;
+            this.signatures = signatures;
+            this.verifiedAt = verifiedAt;
+            this.cached = cached;
+        }
+
+        static VerificationResult failed(String document, String message) {
+            return new VerificationResult(document, null, false, message, new ArrayList<>(), Instant.now(), false);
+        }
+
+        VerificationResult forDocument(String document, boolean cached) {
+            return new VerificationResult(document, checksum, valid, message, signatures, verifiedAt, cached);
+        }
+
+        public String getDocument() { return document; }
+        public String getChecksum() { return checksum; }
+        public boolean isValid() { return valid; }
+        public String getMessage() { return message; }
+        public List<SignatureCheck> getSignatures() { return signatures; }
+        public Instant getVerifiedAt() { return verifiedAt; }
+        public boolean isCached() { return cached; }
+
+        /** Todas las firmas son CAdES ({@code ETSI.CAdES.detached}); informativo, no afecta a {@link #isValid}. */
+        public boolean isCades() {
+            return !signatures.isEmpty() && signatures.stream().allMatch(SignatureCheck::isCades);
+        }
+    }
+
+    /**
+     * Resultado de una firma. {@link #isValid} exige integridad y cadena de confianza, no el
+     * subfiltro: los documentos firmados antes de pasar a CAdES usan {@code adbe.pkcs7.detached}
+     * y siguen siendo válidos. {@link #isCades} lo informa por separado, y
+     * {@link VerificationResult#isCades} indica si todas las firmas del documento lo son.
+     */
+    public static class SignatureCheck {
+        private final String name;
+        private String subFilter;
+        private boolean cades;
+        private boolean coversWholeDocument;
+        private boolean integrity;
+        private boolean chainValid;
+        private final List<String> chainErrors = new ArrayList<>();
+        private String signer;
+        private Instant signDate;
+        private String error;
+
+        SignatureCheck(String name) {
+            this.name = name;
+        }
+
+        public boolean isValid() {
+            return error == null && integrity && chainValid;
+        }
+
+        public String getName() { return name; }
+        public String getSubFilter() { return subFilter; }
+        public boolean isCades() { return cades; }
+        public boolean isCoversWholeDocument() { return coversWholeDocument; }
+        public boolean isIntegrity() { return integrity; }
+        public boolean isChainValid() { return chainValid; }
+        public List<String> getChainErrors() { return chainErrors; }
+        public String getSigner() { return signer; }
+        public Instant getSignDate() { return signDate; }
+        public String getError() { return error; }
+    }
+}
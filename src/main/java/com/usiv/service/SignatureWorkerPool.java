@@ -0,0 +1,194 @@
+package com.usiv.service;
+
+import com.itextpdf.signatures.DigestAlgorithms;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.PdfSigner;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool dedicado a las operaciones con llave privada (fase dos de la firma).
+ * Cada hilo toma de la cola todos los digests pendientes (hasta {@code pdf.signature.batch-size})
+ * y los firma uno tras otro reutilizando la misma instancia de {@link Signature},
+ * de modo que la CPU de RSA se dimensiona por separado de la CPU de maquetación.
+ */
+@Service
+public class SignatureWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignatureWorkerPool.class);
+
+    private static final long STOP_WAIT_MS = 5000;
+
+    @Value("${pdf.signature.workers:0}")
+    private int workerCount;
+
+    @Value("${pdf.signature.batch-size:16}")
+    private int batchSize;
+
+    @Value("${pdf.signature.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<SignJob> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private DistributionSummary batchSizes;
+    private Timer batchTimer;
+
+    @PostConstruct
+    public void start() {
+        int threads = workerCount > 0 ? workerCount : Runtime.getRuntime().availableProcessors();
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        batchSizes = DistributionSummary.builder("pdf.signature.batch.size")
+            .description("Digests firmados por lote en el pool de firma")
+            .register(meterRegistry);
+        batchTimer = Timer.builder("pdf.signature.batch.time")
+            .description("Tiempo de CPU de llave privada por lote")
+            .register(meterRegistry);
+        Gauge.builder("pdf.signature.queue.depth", this, p -> p.queue.size())
+            .description("Digests en espera de firma")
+            .register(meterRegistry);
+
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::runWorker, "pdf-signer-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("Pool de firma iniciado: {} hilos, lotes de hasta {} digests", threads, batchSize);
+    }
+
+    /**
+     * Detiene los hilos y falla los digests que quedaron en la cola, para que quien espera
+     * el contenedor no se quede hasta el timeout de firma.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            worker.join(STOP_WAIT_MS);
+        }
+        List<SignJob> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        IllegalStateException stopped = new IllegalStateException("Pool de firma detenido");
+        pending.forEach(job -> job.result.completeExceptionally(stopped));
+        if (!pending.isEmpty()) {
+            logger.warn("Pool de firma detenido con {} digests sin firmar", pending.size());
+        }
+    }
+
+    /**
+     * Encola el digest del rango de bytes de un documento preparado y devuelve el
+     * contenedor CMS (CAdES) listo para inyectar.
+     */
+    public CompletableFuture<byte[]> submit(byte[] documentDigest, SigningMaterialRegistry.SigningMaterial material) {
+        SignJob job = new SignJob(documentDigest, material);
+        if (!running) {
+            job.result.completeExceptionally(new IllegalStateException("Pool de firma detenido"));
+        } else if (!queue.offer(job)) {
+            job.result.completeExceptionally(
+                new IllegalStateException("Cola de firma llena (" + queueCapacity + " documentos pendientes)"));
+        }
+        return job.result;
+    }
+
+    private void runWorker() {
+        List<SignJob> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                signBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void signBatch(List<SignJob> batch) {
+        long start = System.nanoTime();
+        Signature signature = null;
+        SigningMaterialRegistry.SigningMaterial initializedFor = null;
+
+        for (SignJob job : batch) {
+            // Cancelado por timeout de quien espera: no se gasta la llave privada en él
+            if (job.result.isDone()) {
+                continue;
+            }
+            try {
+                // Una sola inicialización por lote mientras el material no cambie
+                if (job.material != initializedFor) {
+                    signature = newSignature(job.material);
+                    initializedFor = job.material;
+                }
+                job.result.complete(buildContainer(job, signature));
+            } catch (Exception e) {
+                logger.error("Error firmando digest en el pool de firma", e);
+                job.result.completeExceptionally(e);
+                initializedFor = null;
+            }
+        }
+
+        batchSizes.record(batch.size());
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Signature newSignature(SigningMaterialRegistry.SigningMaterial material) throws Exception {
+        String algorithm = "SHA256with" + material.getExternalSignature().getEncryptionAlgorithm();
+        Signature signature = Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        signature.initSign(material.getPrivateKey());
+        return signature;
+    }
+
+    private byte[] buildContainer(SignJob job, Signature signature) throws Exception {
+        SigningMaterialRegistry.SigningMaterial material = job.material;
+        PdfPKCS7 pkcs7 = new PdfPKCS7(null, material.getChain(), DigestAlgorithms.SHA256, null,
+            material.getExternalDigest(), false);
+        byte[] attributes = pkcs7.getAuthenticatedAttributeBytes(job.digest, PdfSigner.CryptoStandard.CADES, null, null);
+
+        // Signature queda lista para el siguiente digest tras sign()
+        signature.update(attributes);
+        byte[] signed = signature.sign();
+
+        pkcs7.setExternalDigest(signed, null, material.getExternalSignature().getEncryptionAlgorithm());
+        return pkcs7.getEncodedPKCS7(job.digest, PdfSigner.CryptoStandard.CADES, null, null, null);
+    }
+
+    private static class SignJob {
+        private final byte[] digest;
+        private final SigningMaterialRegistry.SigningMaterial material;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private SignJob(byte[] digest, SigningMaterialRegistry.SigningMaterial material) {
+            this.digest = digest;
+            this.material = material;
+        }
+    }
+}
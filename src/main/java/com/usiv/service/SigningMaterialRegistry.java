@@ -0,0 +1,240 @@
+package com.usiv.service;
+
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.DigestAlgorithms;
+import com.itextpdf.signatures.IExternalDigest;
+import com.itextpdf.signatures.IExternalSignature;
+import com.itextpdf.signatures.PrivateKeySignature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.time.Instant;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mantiene cargado el material de firma (llave privada, cadena de certificados,
+ * {@link IExternalSignature} y {@link IExternalDigest}) para no abrir el PKCS12 en cada documento.
+ * El archivo se vigila en disco y se recarga en segundo plano; las peticiones siempre
+ * ven una instancia completa de {@link SigningMaterial}, nunca una a medio cargar.
+ */
+@Service
+public class SigningMaterialRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(SigningMaterialRegistry.class);
+
+    static {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @Value("${pdf.signature.p12-path}")
+    private String keystorePath;
+
+    @Value("${pdf.signature.password}")
+    private String keystorePassword;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private volatile SigningMaterial current;
+
+    private Timer loadTimer;
+    private Timer reloadTimer;
+    private Counter reloadFailures;
+
+    @PostConstruct
+    public void init() throws Exception {
+        loadTimer = Timer.builder("pdf.signature.keystore.load")
+            .description("Tiempo de carga inicial del keystore de firma")
+            .register(meterRegistry);
+        reloadTimer = Timer.builder("pdf.signature.keystore.reload")
+            .description("Tiempo de recarga del keystore de firma tras un cambio en disco")
+            .register(meterRegistry);
+        reloadFailures = Counter.builder("pdf.signature.keystore.reload.failures")
+            .description("Recargas del keystore que fallaron y conservaron el material anterior")
+            .register(meterRegistry);
+        Gauge.builder("pdf.signature.keystore.age", this, r -> r.current == null ? 0
+                : (System.currentTimeMillis() - r.current.getLoadedAt().toEpochMilli()) / 1000.0)
+            .description("Segundos desde la última carga del keystore")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+
+        long start = System.nanoTime();
+        current = load();
+        loadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        logger.info("Keystore de firma cargado desde {} (alias: {})", current.getSource(), current.getAlias());
+    }
+
+    public SigningMaterial getCurrent() {
+        return current;
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.signature.reload-check-interval-ms:30000}",
+               initialDelayString = "${pdf.signature.reload-check-interval-ms:30000}")
+    public void checkForChanges() {
+        SigningMaterial material = current;
+        Path file = material.getFile();
+        if (file == null) {
+            return; // Recurso empaquetado en el WAR, no puede cambiar en caliente
+        }
+
+        try {
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            if (lastModified == material.getFileLastModified() && size == material.getFileSize()) {
+                return;
+            }
+            reload();
+        } catch (IOException e) {
+            logger.warn("No se pudo revisar el keystore {}: {}", file, e.getMessage());
+        }
+    }
+
+    public synchronized void reload() {
+        long start = System.nanoTime();
+        try {
+            SigningMaterial reloaded = load();
+            current = reloaded;
+            logger.info("Keystore de firma recargado desde {} (alias: {})", reloaded.getSource(), reloaded.getAlias());
+        } catch (Exception e) {
+            reloadFailures.increment();
+            logger.error("Error recargando keystore de firma, se mantiene el material anterior", e);
+        } finally {
+            reloadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private SigningMaterial load() throws Exception {
+        Path file = resolveFile();
+        long lastModified = 0;
+        long size = 0;
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+
+        if (file != null) {
+            // Leer metadatos antes del contenido: si el archivo cambia durante la lectura
+            // la siguiente revisión verá una fecha distinta y volverá a cargar.
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            size = Files.size(file);
+            try (InputStream in = Files.newInputStream(file)) {
+                ks.load(in, keystorePassword.toCharArray());
+            }
+        } else {
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream(keystorePath)) {
+                if (in == null) {
+                    throw new IOException("No se pudo encontrar el archivo de certificado: " + keystorePath);
+                }
+                ks.load(in, keystorePassword.toCharArray());
+            }
+        }
+
+        String alias = findKeyAlias(ks);
+        PrivateKey pk = (PrivateKey) ks.getKey(alias, keystorePassword.toCharArray());
+        Certificate[] chain = ks.getCertificateChain(alias);
+        if (pk == null || chain == null || chain.length == 0) {
+            throw new IllegalStateException("El keystore no contiene llave privada y cadena para el alias " + alias);
+        }
+
+        IExternalSignature signature = new PrivateKeySignature(pk, DigestAlgorithms.SHA256, BouncyCastleProvider.PROVIDER_NAME);
+        IExternalDigest digest = new BouncyCastleDigest();
+        String source = file != null ? file.toString() : "classpath:" + keystorePath;
+
+        return new SigningMaterial(alias, pk, chain, signature, digest, source, file, lastModified, size, Instant.now());
+    }
+
+    private String findKeyAlias(KeyStore ks) throws Exception {
+        Enumeration<String> aliases = ks.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (ks.isKeyEntry(alias)) {
+                return alias;
+            }
+        }
+        throw new IllegalStateException("El keystore no contiene entradas de llave privada: " + keystorePath);
+    }
+
+    /**
+     * Devuelve la ruta en disco del keystore si existe (configuración de producción) o si el
+     * recurso del classpath está desplegado como archivo; null si sólo existe dentro de un JAR.
+     */
+    private Path resolveFile() {
+        Path direct = Paths.get(keystorePath);
+        if (Files.isRegularFile(direct)) {
+            return direct.toAbsolutePath();
+        }
+
+        URL resource = getClass().getClassLoader().getResource(keystorePath);
+        if (resource != null && "file".equals(resource.getProtocol())) {
+            try {
+                return Paths.get(resource.toURI());
+            } catch (URISyntaxException e) {
+                logger.debug("Ruta de keystore no convertible a archivo: {}", resource);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Material de firma inmutable. Se reemplaza completo en cada recarga.
+     */
+    public static class SigningMaterial {
+        private final String alias;
+        private final PrivateKey privateKey;
+        private final Certificate[] chain;
+        private final IExternalSignature externalSignature;
+        private final IExternalDigest externalDigest;
+        private final String source;
+        private final Path file;
+        private final long fileLastModified;
+        private final long fileSize;
+        private final Instant loadedAt;
+
+        public SigningMaterial(String alias, PrivateKey privateKey, Certificate[] chain,
+                               IExternalSignature externalSignature, IExternalDigest externalDigest,
+                               String source, Path file, long fileLastModified, long fileSize, Instant loadedAt) {
+            this.alias = alias;
+            this.privateKey = privateKey;
+            this.chain = chain;
+            this.externalSignature = externalSignature;
+            this.externalDigest = externalDigest;
+            this.source = source;
+            this.file = file;
+            this.fileLastModified = fileLastModified;
+            this.fileSize = fileSize;
+            this.loadedAt = loadedAt;
+        }
+
+        public String getAlias() { return alias; }
+        public PrivateKey getPrivateKey() { return privateKey; }
+        public Certificate[] getChain() { return chain.clone(); }
+        public IExternalSignature getExternalSignature() { return externalSignature; }
+        public IExternalDigest getExternalDigest() { return externalDigest; }
+        public String getSource() { return source; }
+        public Path getFile() { return file; }
+        public long getFileLastModified() { return fileLastModified; }
+        public long getFileSize() { return fileSize; }
+        public Instant getLoadedAt() { return loadedAt; }
+    }
+}
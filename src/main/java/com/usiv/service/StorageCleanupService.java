@@ -0,0 +1,436 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Limpieza por retención del almacenamiento particionado {@code basePath/yyyy/MM/dd}. El
+ * vencimiento se decide por el nombre de cada partición, sin leer los atributos de sus
+ * archivos, y sólo se recorren los años y meses que pueden tener particiones vencidas: el
+ * costo crece con las particiones vencidas, no con el tamaño del archivo histórico.
+ *
+ * <p>Cada día vencido se retira completo con un solo renombrado atómico a
+ * {@code _trash/<fecha de retiro>_<día>} y sus documentos se dan de baja en
+ * {@link DocumentIndex} con un solo registro. Las particiones que llevan más de
+ * {@code pdf.cleanup.trash-retention-days} en la papelera se borran en paralelo, con un tope
+ * de borrados por segundo para no competir con las descargas por el disco.
+ *
+ * <p>Antes de renombrar un día se deja en la papelera una marca {@code <destino>.pending}, que
+ * se borra cuando el índice ya lo dio de baja: si el proceso cae entre el renombrado y la baja,
+ * la próxima pasada completa la baja sólo de los días marcados, sin importar en qué orden se
+ * retiraron. Un borrado interrumpido no necesita registro: la partición sigue en la papelera
+ * y la próxima pasada borra lo que quedó.
+ */
+@Service
+public class StorageCleanupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageCleanupService.class);
+
+    private static final DateTimeFormatter RETIRED_ON = DateTimeFormatter.BASIC_ISO_DATE;
+    // <fecha de retiro yyyyMMdd>_<día yyyy-MM-dd>[_n]; la papelera anterior tenía archivos yyyyMMdd_HHmmss_<nombre>
+    private static final Pattern TRASH_PARTITION = Pattern.compile("\\d{8}_\\d{4}-\\d{2}-\\d{2}(?:_\\d+)?");
+    private static final Pattern TRASH_DATE_PREFIX = Pattern.compile("\\d{8}_.*");
+    // Marca de un día retirado que aún puede tener documentos en el índice
+    private static final String PENDING = ".pending";
+
+    @Value("${pdf.storage.base-path}")
+    private String basePath;
+
+    @Value("${pdf.cleanup.retention-months:6}")
+    private int retentionMonths;
+
+    @Value("${pdf.cleanup.trash-retention-days:30}")
+    private int trashRetentionDays;
+
+    @Value("${pdf.cleanup.trash-folder-name:_trash}")
+    private String trashFolderName;
+
+    // Particiones de la papelera que se borran a la vez
+    @Value("${pdf.cleanup.parallelism:2}")
+    private int parallelism;
+
+    // Archivos borrados por segundo entre todos los hilos; 0 sin límite
+    @Value("${pdf.cleanup.max-deletes-per-second:1000}")
+    private int maxDeletesPerSecond;
+
+    @Autowired
+    private DocumentIndex documentIndex;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private Timer cleanupTimer;
+    private Counter retiredPartitions;
+    private Counter purgedPartitions;
+    private Counter deletedFiles;
+
+    @PostConstruct
+    public void init() {
+        cleanupTimer = Timer.builder("pdf.cleanup.time")
+            .description("Duración de cada pasada de limpieza del almacenamiento")
+            .register(meterRegistry);
+        retiredPartitions = Counter.builder("pdf.cleanup.partitions").tag("action", "retired")
+            .description("Particiones por día retiradas a la papelera o borradas de ella")
+            .register(meterRegistry);
+        purgedPartitions = Counter.builder("pdf.cleanup.partitions").tag("action", "purged")
+            .description("Particiones por día retiradas a la papelera o borradas de ella")
+            .register(meterRegistry);
+        deletedFiles = Counter.builder("pdf.cleanup.files.deleted")
+            .description("Archivos borrados de la papelera")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Retira las particiones vencidas y vacía la papelera. Si ya hay una pasada en curso (la
+     * programada y una manual) no hace nada.
+     */
+    public void cleanup() {
+        if (!running.compareAndSet(false, true)) {
+            logger.info("Ya hay una limpieza en curso; se omite esta ejecución");
+            return;
+        }
+        try {
+            cleanupTimer.record(() -> {
+                try {
+                    Path base = Paths.get(basePath);
+                    Path trash = base.resolve(trashFolderName);
+                    Files.createDirectories(trash);
+                    LocalDate today = LocalDate.now(ZoneId.systemDefault());
+
+                    int retired = retireExpiredPartitions(base, trash, today);
+                    int purged = purgeTrash(trash, today.minusDays(trashRetentionDays));
+                    logger.info("Limpieza completada: {} retirados a la papelera, {} eliminados de ella", retired, purged);
+                } catch (IOException e) {
+                    logger.error("Error durante la limpieza del almacenamiento", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Limpieza interrumpida; la próxima pasada continúa con lo pendiente");
+                }
+            });
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int retireExpiredPartitions(Path base, Path trash, LocalDate today) throws IOException {
+        LocalDate cutoff = today.minusMonths(retentionMonths);
+        completePendingRetirements(trash);
+
+        List<Partition> expired = expiredPartitions(base, cutoff);
+        String retiredOn = today.format(RETIRED_ON);
+        int retired = 0;
+        for (Partition partition : expired) {
+            Path target = trash.resolve(retiredOn + "_" + partition.day);
+            for (int n = 1; Files.exists(target); n++) {
+                target = trash.resolve(retiredOn + "_" + partition.day + "_" + n);
+            }
+            Path pending = pendingMarker(target);
+            Files.createFile(pending);
+            try {
+                // Un solo renombrado: las descargas ven el día completo o no lo ven
+                Files.move(partition.dir, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.deleteIfExists(pending);
+                logger.error("La papelera {} no está en el mismo sistema de archivos que {}; no se retira", trash, partition.dir);
+                return retired;
+            } catch (IOException e) {
+                Files.deleteIfExists(pending);
+                logger.error("No se pudo retirar la partición {}", partition.dir, e);
+                continue;
+            }
+            int documents = documentIndex.removePartition(partition.day);
+            Files.delete(pending);
+            deleteIfEmpty(partition.dir.getParent());
+            deleteIfEmpty(partition.dir.getParent().getParent());
+            retiredPartitions.increment();
+            retired++;
+            logger.info("Partición {} retirada a la papelera ({} documentos indexados)", partition.day, documents);
+        }
+        return retired + retireLooseFiles(base, trash, cutoff, retiredOn);
+    }
+
+    /**
+     * Da de baja en el índice los días que una pasada anterior renombró sin llegar a darlos de
+     * baja. Si la marca quedó sin su partición en la papelera, el proceso cayó antes de
+     * renombrarla: el día sigue en su lugar y en el índice, y se retirará en esta pasada.
+     */
+    private void completePendingRetirements(Path trash) throws IOException {
+        for (Path entry : list(trash)) {
+            String name = entry.getFileName().toString();
+            if (!name.endsWith(PENDING)) {
+                continue;
+            }
+            String partition = name.substring(0, name.length() - PENDING.length());
+            if (TRASH_PARTITION.matcher(partition).matches() && Files.isDirectory(trash.resolve(partition))) {
+                LocalDate day = LocalDate.parse(partition.substring(9, 19));
+                int documents = documentIndex.removePartition(day);
+                logger.info("Baja pendiente de la partición {} completada ({} documentos indexados)", day, documents);
+            }
+            Files.delete(entry);
+        }
+    }
+
+    private static Path pendingMarker(Path target) {
+        return target.resolveSibling(target.getFileName() + PENDING);
+    }
+
+    /**
+     * Documentos sueltos en la raíz de {@code basePath}, anteriores a las particiones por día:
+     * no tienen partición, así que se decide por la fecha de modificación y se mueven uno a uno.
+     */
+    private int retireLooseFiles(Path base, Path trash, LocalDate cutoff, String retiredOn) throws IOException {
+        int retired = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(base, Files::isRegularFile)) {
+            for (Path file : files) {
+                LocalDate modified = LocalDate.ofInstant(Files.getLastModifiedTime(file).toInstant(), ZoneId.systemDefault());
+                if (!modified.isBefore(cutoff)) {
+                    continue;
+                }
+                try {
+                    Files.move(file, trash.resolve(retiredOn + "_" + file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                    retired++;
+                } catch (IOException e) {
+                    logger.error("Error moviendo archivo a papelera: {}", file, e);
+                }
+            }
+        }
+        return retired;
+    }
+
+    /**
+     * Particiones anteriores a {@code cutoff}, de la más antigua a la más reciente. Sólo se
+     * listan los años y meses que pueden contener días vencidos.
+     */
+    private List<Partition> expiredPartitions(Path base, LocalDate cutoff) throws IOException {
+        List<Partition> expired = new ArrayList<>();
+        for (Path year : numericChildren(base, 4)) {
+            int y = Integer.parseInt(year.getFileName().toString());
+            if (y > cutoff.getYear()) {
+                continue;
+            }
+            for (Path month : numericChildren(year, 2)) {
+                int m = Integer.parseInt(month.getFileName().toString());
+                if (y == cutoff.getYear() && m > cutoff.getMonthValue()) {
+                    continue;
+                }
+                for (Path day : numericChildren(month, 2)) {
+                    LocalDate date;
+                    try {
+                        date = LocalDate.of(y, m, Integer.parseInt(day.getFileName().toString()));
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    if (date.isBefore(cutoff)) {
+                        expired.add(new Partition(date, day));
+                    }
+                }
+            }
+        }
+        Collections.sort(expired, (a, b) -> a.day.compareTo(b.day));
+        return expired;
+    }
+
+    /**
+     * Borra lo que entró en la papelera antes de {@code cutoff}: particiones completas y
+     * archivos sueltos de la papelera anterior (con la fecha al inicio del nombre).
+     */
+    private int purgeTrash(Path trash, LocalDate cutoff) throws IOException, InterruptedException {
+        List<Path> due = new ArrayList<>();
+        for (Path entry : list(trash)) {
+            if (entry.getFileName().toString().endsWith(PENDING)) {
+                continue;
+            }
+            LocalDate retiredOn = retiredOn(entry);
+            if (retiredOn != null && retiredOn.isBefore(cutoff)) {
+                due.add(entry);
+            }
+        }
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        Throttle throttle = new Throttle(maxDeletesPerSecond);
+        AtomicInteger purged = new AtomicInteger();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread thread = new Thread(r, "storage-cleanup-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Path entry : due) {
+                tasks.add(workers.submit(() -> {
+                    try {
+                        delete(entry, throttle);
+                        purgedPartitions.increment();
+                        purged.incrementAndGet();
+                        logger.info("Eliminado de la papelera: {}", entry.getFileName());
+                    } catch (IOException e) {
+                        logger.error("Error eliminando de la papelera: {}", entry, e);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    logger.error("Error eliminando de la papelera", e.getCause());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return purged.get();
+    }
+
+    private void delete(Path entry, Throttle throttle) throws IOException {
+        Files.walkFileTree(entry, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                try {
+                    throttle.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+                Files.deleteIfExists(file);
+                deletedFiles.increment();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Fecha en que {@code entry} entró a la papelera: el prefijo {@code yyyyMMdd} del nombre o,
+     * si no lo tiene, la fecha de modificación.
+     */
+    private static LocalDate retiredOn(Path entry) throws IOException {
+        String name = entry.getFileName().toString();
+        if (TRASH_DATE_PREFIX.matcher(name).matches()) {
+            try {
+                return LocalDate.parse(name.substring(0, 8), RETIRED_ON);
+            } catch (DateTimeParseException e) {
+                // Se decide por la fecha de modificación
+            }
+        }
+        try {
+            return LocalDate.ofInstant(Files.getLastModifiedTime(entry).toInstant(), ZoneId.systemDefault());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void deleteIfEmpty(Path dir) {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (DirectoryNotEmptyException e) {
+            // Quedan otros días en el mes (o meses en el año)
+        } catch (IOException e) {
+            logger.debug("No se pudo eliminar el directorio vacío {}", dir, e);
+        }
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static List<Path> numericChildren(Path dir, int digits) throws IOException {
+        List<Path> children = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return children;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                entry -> Files.isDirectory(entry) && entry.getFileName().toString().matches("\\d{" + digits + "}"))) {
+            stream.forEach(children::add);
+        }
+        return children;
+    }
+
+    private static class Partition {
+        private final LocalDate day;
+        private final Path dir;
+
+        Partition(LocalDate day, Path dir) {
+            this.day = day;
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Reparte los borrados a un ritmo fijo entre los hilos: cada uno toma el siguiente turno y
+     * espera hasta él. Sin acumular turnos mientras no hay borrados, para no salir en ráfaga.
+     */
+    private static class Throttle {
+        private final long intervalNanos;
+        private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+        Throttle(int perSecond) {
+            this.intervalNanos = perSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / perSecond : 0;
+        }
+
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long previous = next.getAndAccumulate(now, (last, time) -> Math.max(last, time) + intervalNanos);
+            long wait = Math.max(previous, now) - now;
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.usiv.benchmark;
+
+import com.usiv.PdfSignerApplication;
+import com.usiv.dto.PdfGenerationRequest;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Utilidades compartidas por los benchmarks: levanta el contexto de Spring (sin servidor web
+ * salvo que el benchmark lo pida), construye una solicitud de ejemplo y mide latencia, bytes
+ * generados y memoria asignada.
+ *
+ * <p>Los benchmarks están en las fuentes de prueba y no se empaquetan en el WAR. El
+ * {@code <classpath>} de su línea de uso es el de prueba, después de {@code mvn test-compile}:
+ * {@code target/test-classes:target/classes} y la salida de
+ * {@code mvn dependency:build-classpath -Dmdep.includeScope=test}.
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {}
+
+    /**
+     * Levanta el contexto con almacenamiento temporal. Los argumentos adicionales se pasan como
+     * propiedades (por ejemplo {@code --pdf.signature.visible=false}).
+     */
+    public static ConfigurableApplicationContext start(String... properties) throws Exception {
+        return run(WebApplicationType.NONE, properties);
+    }
+
+    /**
+     * Igual que {@link #start} con Tomcat escuchando en un puerto libre; se obtiene con
+     * {@link #port}.
+     */
+    public static ConfigurableApplicationContext startServer(String... properties) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList(properties));
+        args.add(0, "--server.port=0");
+        return run(WebApplicationType.SERVLET, args.toArray(new String[0]));
+    }
+
+    public static int port(ConfigurableApplicationContext context) {
+        return Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    private static ConfigurableApplicationContext run(WebApplicationType type, String... properties) throws Exception {
+        // DevTools reinicia el main con los argumentos originales; no aplica a un benchmark
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        // Todo el estado local (documentos, índices, journal) va a un directorio temporal
+        Path dir = Files.createTempDirectory("pdf-bench");
+        List<String> args = new ArrayList<>();
+        args.add("--pdf.storage.base-path=" + dir.resolve("storage"));
+        args.add("--pdf.index.dir=" + dir.resolve("document-index"));
+        args.add("--pdf.jobs.journal-dir=" + dir.resolve("jobs"));
+        args.add("--pdf.idempotency.index-dir=" + dir.resolve("idempotency"));
+        args.add("--pdf.short-links.store-dir=" + dir.resolve("short-links"));
+        args.add("--pdf.signature.ltv.cache-dir=" + dir.resolve("revocation-cache"));
+        args.add("--pdf.cleanup.enabled=false");
+        // Cada iteración repite la misma solicitud: sin esto se respondería desde la caché
+        args.add("--pdf.idempotency.enabled=false");
+        args.add("--logging.level.root=WARN");
+        args.add("--logging.level.com.usiv=WARN");
+        args.add("--logging.level.org.springframework.security=WARN");
+        args.add("--spring.main.banner-mode=off");
+        args.addAll(Arrays.asList(properties));
+
+        return new SpringApplicationBuilder(PdfSignerApplication.class)
+            .web(type)
+            .logStartupInfo(false)
+            .run(args.toArray(new String[0]));
+    }
+
+    public static PdfGenerationRequest sampleRequest() {
+        PdfGenerationRequest request = new PdfGenerationRequest();
+        request.setNombre("Juan Pérez");
+        request.setRut("12.345.678-9");
+        request.setNumeroLicencia("LM123456");
+        request.setFechaLicencia("05/08/2025");
+        request.setSistemaSalud("Fonasa");
+        request.setFechaHoraValidacion("2025-08-05 10:30:00");
+        request.setLatitud("-33.4489");
+        request.setLongitud("-70.6693");
+        request.setPrecision("10 metros");
+        request.setGpsAlterado("No");
+        request.setDireccionGps("Av. Libertador Bernardo O'Higgins 1234, Santiago, Chile");
+        request.setDomicilioReposo("Calle Falsa 123, Las Condes, Santiago");
+        request.setDistanciaReposo("2.5 km");
+        request.setResultadoGeografico("COINCIDE CON DOMICILIO DE REPOSO");
+        request.setResultadoFacial("VALIDADO");
+        request.setUsuarioGestor("validador@usiv.cl");
+        request.setTextoObservacion("La validación se realizó sin inconvenientes. El paciente se encontraba en el domicilio registrado.");
+        request.setTextoUsoInforme("Este informe técnico podrá ser utilizado para fines de fiscalización médica, licencias laborales u otros trámites que requieran verificación de identidad y ubicación.");
+        return request;
+    }
+
+    /**
+     * Ejecuta la operación {@code warmup} veces sin medir y luego {@code iterations} veces,
+     * registrando latencia, tamaño devuelto por la operación y bytes asignados por el hilo.
+     */
+    public static Result measure(String name, int warmup, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] latencies = new long[iterations];
+        long totalBytes = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            totalBytes += operation.run();
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        Arrays.sort(latencies);
+        return new Result(name, latencies, totalBytes / iterations, allocated / iterations);
+    }
+
+    /**
+     * Mide dos operaciones alternándolas en cada iteración (y el orden dentro de cada par), para
+     * que la deriva de JIT, GC o frecuencia de CPU afecte a ambas por igual. Útil cuando la
+     * diferencia esperada es pequeña.
+     */
+    public static Result[] measurePaired(String nameA, Operation a, String nameB, Operation b,
+                                         int warmup, int iterations) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            a.run();
+            b.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[][] latencies = new long[2][iterations];
+        long[] totalBytes = new long[2];
+        long[] allocated = new long[2];
+        Operation[] operations = {a, b};
+
+        for (int i = 0; i < iterations; i++) {
+            for (int k = 0; k < 2; k++) {
+                int which = (i + k) % 2;
+                long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                totalBytes[which] += operations[which].run();
+                latencies[which][i] = System.nanoTime() - start;
+                allocated[which] += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+        }
+
+        Arrays.sort(latencies[0]);
+        Arrays.sort(latencies[1]);
+        return new Result[] {
+            new Result(nameA, latencies[0], totalBytes[0] / iterations, allocated[0] / iterations),
+            new Result(nameB, latencies[1], totalBytes[1] / iterations, allocated[1] / iterations)
+        };
+    }
+
+    @FunctionalInterface
+    public interface Operation {
+        /**
+         * @return tamaño en bytes del resultado (o 0 si no aplica)
+         */
+        long run() throws Exception;
+    }
+
+    public static class Result {
+        private final String name;
+        private final long[] sortedLatencies;
+        private final long avgOutputBytes;
+        private final long avgAllocatedBytes;
+
+        Result(String name, long[] sortedLatencies, long avgOutputBytes, long avgAllocatedBytes) {
+            this.name = name;
+            this.sortedLatencies = sortedLatencies;
+            this.avgOutputBytes = avgOutputBytes;
+            this.avgAllocatedBytes = avgAllocatedBytes;
+        }
+
+        public double avgMs() {
+            return Arrays.stream(sortedLatencies).average().orElse(0) / 1_000_000.0;
+        }
+
+        public double percentileMs(double p) {
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.round(p * (sortedLatencies.length - 1)));
+            return sortedLatencies[index] / 1_000_000.0;
+        }
+
+        public String getName() { return name; }
+        public long getAvgOutputBytes() { return avgOutputBytes; }
+        public long getAvgAllocatedBytes() { return avgAllocatedBytes; }
+
+        public void print() {
+            System.out.printf("%-32s avg %8.2f ms  p50 %8.2f ms  p95 %8.2f ms  salida %8d B  asignado %10d B/op%n",
+                name, avgMs(), percentileMs(0.5), percentileMs(0.95), avgOutputBytes, avgAllocatedBytes);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.usiv.benchmark;
+
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.PdfService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compara la generación y firma sin pool de buffers (capacidad fija y crecimiento por
+ * duplicación, como antes), con el pool en heap y con buffers directos. Informa la memoria
+ * asignada por documento en el hilo de la petición y los bytes que el pool tuvo que asignar
+ * para buffers ({@code pdf.buffers.allocated.bytes}).
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.BufferPoolBenchmark [iteraciones] [rondas]}
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int warmup = Math.max(20, iterations / 4);
+
+        String[][] configurations = {
+            {"sin pool", "--pdf.buffers.enabled=false"},
+            {"pool en heap", "--pdf.buffers.enabled=true", "--pdf.buffers.direct=false"},
+            {"pool directo", "--pdf.buffers.enabled=true", "--pdf.buffers.direct=true"}
+        };
+
+        // Configuraciones alternadas por rondas; sólo se informa la última
+        BenchmarkSupport.Result[] results = new BenchmarkSupport.Result[configurations.length];
+        double[] bufferBytes = new double[configurations.length];
+        for (int round = 1; round <= rounds; round++) {
+            for (int i = 0; i < configurations.length; i++) {
+                String[] configuration = configurations[i];
+                String[] properties = new String[configuration.length - 1];
+                System.arraycopy(configuration, 1, properties, 0, properties.length);
+                try (ConfigurableApplicationContext context = BenchmarkSupport.start(properties)) {
+                    PdfService pdfService = context.getBean(PdfService.class);
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    PdfGenerationRequest request = BenchmarkSupport.sampleRequest();
+
+                    for (int w = 0; w < warmup; w++) {
+                        generate(pdfService, request);
+                    }
+                    double before = bufferBytes(registry);
+                    results[i] = BenchmarkSupport.measure(configuration[0], 0, iterations, () -> generate(pdfService, request));
+                    bufferBytes[i] = (bufferBytes(registry) - before) / iterations;
+                }
+            }
+        }
+
+        for (BenchmarkSupport.Result result : results) {
+            result.print();
+        }
+        System.out.println();
+        for (int i = 0; i < configurations.length; i++) {
+            System.out.printf("%-14s buffers asignados %10.0f B/doc  (%+.1f%% memoria asignada total)%n",
+                configurations[i][0], bufferBytes[i],
+                (results[i].getAvgAllocatedBytes() / (double) results[0].getAvgAllocatedBytes() - 1) * 100);
+        }
+    }
+
+    private static double bufferBytes(MeterRegistry registry) {
+        return registry.find("pdf.buffers.allocated.bytes").counters().stream()
+            .mapToDouble(c -> c.count()).sum();
+    }
+
+    private static long generate(PdfService pdfService, PdfGenerationRequest request) {
+        PdfGenerationResponse response = pdfService.generateAndSignPdf(request);
+        if (!response.isSuccess()) {
+            throw new IllegalStateException(response.getMessage());
+        }
+        return response.getFileSizeBytes();
+    }
+}
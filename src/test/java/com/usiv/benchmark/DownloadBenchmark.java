@@ -0,0 +1,184 @@
+package com.usiv.benchmark;
+
+import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.PdfService;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de carga de {@code /download/{filename}} con Tomcat real: clientes concurrentes
+ * descargando el mismo documento completo, por tramos ({@code Range}) y revalidando con
+ * {@code If-None-Match}, desde la caché de documentos recientes, con sendfile y con la
+ * transferencia desde el {@code FileChannel}.
+ * Para cada nivel de concurrencia informa descargas por segundo, latencia, memoria asignada
+ * por descarga en los hilos de Tomcat y el máximo de heap usado; con el envío desde el
+ * archivo la memoria por descarga no debe crecer con la concurrencia.
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.DownloadBenchmark [peticiones por cliente] [concurrencias...]}
+ */
+public class DownloadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int perClient = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int[] concurrencies = args.length > 1
+            ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+            : new int[] {1, 16, 64, 256};
+
+        String[] names = {"caché de documentos", "sendfile", "FileChannel.transferTo"};
+        String[][] properties = {
+            {"--pdf.download.cache.enabled=true"},
+            {"--pdf.download.cache.enabled=false", "--pdf.download.sendfile=true"},
+            {"--pdf.download.cache.enabled=false", "--pdf.download.sendfile=false"},
+        };
+        // Configuraciones alternadas por rondas: la primera carga el JIT para todas; sólo se informa la última
+        for (int round = 1; round <= 2; round++) {
+            for (int i = 0; i < names.length; i++) {
+                if (round == 2) {
+                    System.out.printf("%n== %s ==%n", names[i]);
+                }
+                run(properties[i], perClient, concurrencies, round == 2);
+            }
+        }
+    }
+
+    private static void run(String[] properties, int perClient, int[] concurrencies, boolean report) throws Exception {
+        try (ConfigurableApplicationContext context = BenchmarkSupport.startServer(properties)) {
+            PdfGenerationResponse document = context.getBean(PdfService.class)
+                .generateAndSignPdf(BenchmarkSupport.sampleRequest());
+            URI uri = URI.create("http://localhost:" + BenchmarkSupport.port(context) + "/download/"
+                + document.getFilename() + "?token=" + document.getDownloadToken());
+            String etag = "\"" + document.getChecksum() + "\"";
+            if (report) {
+                System.out.printf("Documento de %d bytes%n%n", document.getFileSizeBytes());
+                System.out.printf("%-12s %6s %10s %10s %10s %14s %12s%n",
+                    "tipo", "conc.", "desc/s", "p50 ms", "p95 ms", "asignado B/op", "heap máx MB");
+            }
+
+            HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newCachedThreadPool())
+                .build();
+            HttpRequest full = HttpRequest.newBuilder(uri).build();
+            HttpRequest range = HttpRequest.newBuilder(uri).header("Range", "bytes=0-65535").build();
+            HttpRequest revalidate = HttpRequest.newBuilder(uri).header("If-None-Match", etag).build();
+
+            for (HttpRequest request : new HttpRequest[] {full, range, revalidate}) {
+                String name = request == full ? "completo" : request == range ? "Range 64K" : "304";
+                int expected = request == full ? 200 : request == range ? 206 : 304;
+                // Calentamiento del JIT y de los hilos de Tomcat
+                load(client, request, expected, 16, 100);
+                for (int concurrency : concurrencies) {
+                    Load load = load(client, request, expected, concurrency, perClient);
+                    if (report) {
+                        load.print(name, concurrency);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Load load(HttpClient client, HttpRequest request, int expected, int concurrency, int perClient)
+            throws Exception {
+        System.gc();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long allocatedBefore = serverAllocatedBytes(threads);
+
+        AtomicLong maxHeap = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                maxHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long[] latencies = new long[concurrency * perClient];
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            int offset = c * perClient;
+            futures.add(clients.submit(() -> {
+                for (int i = 0; i < perClient; i++) {
+                    long requestStart = System.nanoTime();
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    latencies[offset + i] = System.nanoTime() - requestStart;
+                    if (response.statusCode() != expected) {
+                        throw new IllegalStateException("Estado " + response.statusCode() + ", se esperaba " + expected);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        clients.shutdown();
+        running.set(false);
+        sampler.join();
+
+        Arrays.sort(latencies);
+        return new Load(latencies, elapsed, (serverAllocatedBytes(threads) - allocatedBefore) / latencies.length,
+            maxHeap.get());
+    }
+
+    /**
+     * Bytes asignados por los hilos de Tomcat (trabajadores, poller y acceptor).
+     */
+    private static long serverAllocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("http-nio-")) {
+                total += Math.max(0, threads.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return total;
+    }
+
+    private static class Load {
+        private final long[] sortedLatencies;
+        private final long elapsedNanos;
+        private final long allocatedPerRequest;
+        private final long maxHeapBytes;
+
+        Load(long[] sortedLatencies, long elapsedNanos, long allocatedPerRequest, long maxHeapBytes) {
+            this.sortedLatencies = sortedLatencies;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedPerRequest = allocatedPerRequest;
+            this.maxHeapBytes = maxHeapBytes;
+        }
+
+        void print(String name, int concurrency) {
+            System.out.printf("%-12s %6d %10.0f %10.2f %10.2f %14d %12.1f%n",
+                name, concurrency,
+                sortedLatencies.length / (elapsedNanos / 1_000_000_000.0),
+                percentile(0.5), percentile(0.95),
+                allocatedPerRequest, maxHeapBytes / (1024.0 * 1024.0));
+        }
+
+        private double percentile(double p) {
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.round(p * (sortedLatencies.length - 1)));
+            return sortedLatencies[index] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.usiv.benchmark;
+
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.PdfOutputProfile;
+import com.usiv.service.PdfService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara los perfiles de salida: bytes del documento firmado, latencia total y el desglose
+ * entre maquetación y firma (a partir del timer {@code pdf.generate.stage}).
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.OutputProfileBenchmark [iteraciones] [rondas]}
+ */
+public class OutputProfileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int warmup = Math.max(20, iterations / 4);
+
+        try (ConfigurableApplicationContext context = BenchmarkSupport.start()) {
+            PdfService pdfService = context.getBean(PdfService.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+
+            // Los perfiles se alternan por rondas en el mismo proceso y sólo se informa la última,
+            // para que el JIT no favorezca al que se mida primero.
+            Map<PdfOutputProfile, ProfileResult> results = new EnumMap<>(PdfOutputProfile.class);
+            for (int round = 1; round <= rounds; round++) {
+                for (PdfOutputProfile profile : PdfOutputProfile.values()) {
+                    results.put(profile, run(pdfService, registry, profile, warmup, iterations));
+                }
+            }
+
+            for (ProfileResult result : results.values()) {
+                result.total.print();
+            }
+            System.out.println();
+            System.out.printf("%-10s %10s %12s %12s%n", "perfil", "bytes", "maquetación", "firma");
+            for (Map.Entry<PdfOutputProfile, ProfileResult> entry : results.entrySet()) {
+                ProfileResult result = entry.getValue();
+                System.out.printf("%-10s %10d %9.2f ms %9.2f ms%n", entry.getKey().name().toLowerCase(),
+                    result.total.getAvgOutputBytes(), result.layoutMs, result.signMs);
+            }
+        }
+    }
+
+    private static ProfileResult run(PdfService pdfService, MeterRegistry registry, PdfOutputProfile profile,
+                                     int warmup, int iterations) throws Exception {
+        PdfGenerationRequest request = BenchmarkSupport.sampleRequest();
+        request.setPerfilSalida(profile.name());
+        String tag = profile.name().toLowerCase();
+        Timer layout = registry.timer("pdf.generate.stage", "stage", "layout", "profile", tag);
+        Timer sign = registry.timer("pdf.generate.stage", "stage", "sign", "profile", tag);
+
+        // Calentamiento fuera de measure para descontarlo también de los timers
+        for (int i = 0; i < warmup; i++) {
+            generate(pdfService, request);
+        }
+        long layoutCount = layout.count();
+        double layoutTotal = layout.totalTime(TimeUnit.MILLISECONDS);
+        long signCount = sign.count();
+        double signTotal = sign.totalTime(TimeUnit.MILLISECONDS);
+
+        ProfileResult result = new ProfileResult();
+        result.total = BenchmarkSupport.measure("perfil " + tag, 0, iterations, () -> generate(pdfService, request));
+        result.layoutMs = (layout.totalTime(TimeUnit.MILLISECONDS) - layoutTotal) / (layout.count() - layoutCount);
+        result.signMs = (sign.totalTime(TimeUnit.MILLISECONDS) - signTotal) / (sign.count() - signCount);
+        return result;
+    }
+
+    private static long generate(PdfService pdfService, PdfGenerationRequest request) {
+        PdfGenerationResponse response = pdfService.generateAndSignPdf(request);
+        if (!response.isSuccess()) {
+            throw new IllegalStateException(response.getMessage());
+        }
+        return response.getFileSizeBytes();
+    }
+
+    private static class ProfileResult {
+        private BenchmarkSupport.Result total;
+        private double layoutMs;
+        private double signMs;
+    }
+}
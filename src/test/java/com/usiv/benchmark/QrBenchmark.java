@@ -0,0 +1,149 @@
+package com.usiv.benchmark;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.usiv.service.QrCodeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificaciones de QR por segundo (JMH): el PNG de antes ({@code Graphics2D} con un
+ * {@code fillRect} por píxel e ImageIO, copiado aquí) contra el motor actual en cada formato,
+ * con un texto distinto en cada invocación (como el QR de cada documento, que lleva su enlace
+ * corto) y con el mismo texto. {@code pngCached} mide la caché de codificaciones de las salidas
+ * raster; la generación de documentos no pasa por ella, porque ningún texto se repite.
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.QrBenchmark [opciones de JMH]}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QrBenchmark {
+
+    private static final int SIZE = 150;
+    private static final String TEXT = "USIV PDF Document\n"
+        + "Archivo: escritura_12.345.678-9_20261017_101500.pdf\n"
+        + "URL: http://localhost:8080/api/v1/pdf/download/escritura_12.345.678-9_20261017_101500.pdf"
+        + "?token=eyJhbGciOiJIUzUxMiJ9.eyJzdWIiOiJhZG1pbiIsImZpbGVuYW1lIjoiZXNjcml0dXJhIn0.";
+
+    private ConfigurableApplicationContext context;
+    private QrCodeService qr;
+
+    /**
+     * Sufijo distinto en cada invocación de cada hilo, para que el texto no se repita.
+     */
+    @State(Scope.Thread)
+    public static class Sequence {
+        private long next;
+
+        String text() {
+            return TEXT + next++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .include(QrBenchmark.class.getName())
+            .build();
+        new Runner(options).run();
+    }
+
+    @Setup
+    public void start() throws Exception {
+        context = BenchmarkSupport.start("--qr.cache.max-entries=1000");
+        qr = context.getBean(QrCodeService.class);
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] previousPng(Sequence sequence) throws Exception {
+        return previousPng(sequence.text());
+    }
+
+    @Benchmark
+    public byte[] png(Sequence sequence) throws Exception {
+        return qr.render(sequence.text(), SIZE, ErrorCorrectionLevel.M, QrCodeService.QrFormat.PNG);
+    }
+
+    @Benchmark
+    public byte[] svg(Sequence sequence) throws Exception {
+        return qr.render(sequence.text(), SIZE, ErrorCorrectionLevel.M, QrCodeService.QrFormat.SVG);
+    }
+
+    @Benchmark
+    public byte[] pbm(Sequence sequence) throws Exception {
+        return qr.render(sequence.text(), SIZE, ErrorCorrectionLevel.M, QrCodeService.QrFormat.PBM);
+    }
+
+    @Benchmark
+    public BufferedImage image(Sequence sequence) throws Exception {
+        return qr.generateQrCodeImage(sequence.text());
+    }
+
+    @Benchmark
+    public byte[] pngCached() throws Exception {
+        return qr.render(TEXT, SIZE, ErrorCorrectionLevel.M, QrCodeService.QrFormat.PNG);
+    }
+
+    /**
+     * {@code QrCodeService.generateQrCode} tal como estaba antes del motor actual.
+     */
+    private static byte[] previousPng(String text) throws Exception {
+        Map<EncodeHintType, Object> hints = new HashMap<>();
+        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M);
+        hints.put(EncodeHintType.MARGIN, 1);
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        BitMatrix bitMatrix = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, SIZE, SIZE, hints);
+
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = (Graphics2D) image.getGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, SIZE, SIZE);
+        graphics.setColor(Color.BLACK);
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                if (bitMatrix.get(i, j)) {
+                    graphics.fillRect(i, j, 1, 1);
+                }
+            }
+        }
+        graphics.dispose();
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", png);
+        return png.toByteArray();
+    }
+}
@@ -0,0 +1,174 @@
+package com.usiv.benchmark;
+
+import com.itextpdf.kernel.colors.ColorConstants;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Image;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Text;
+import com.itextpdf.layout.properties.TextAlignment;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.service.PdfOutputProfile;
+import com.usiv.service.QrCodeService;
+import com.usiv.service.ReportPlanService;
+import com.usiv.service.ReportTemplateService;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+/**
+ * Compara la maquetación del informe con el plan compilado desde {@code reports/} contra el
+ * código escrito a mano que reemplaza (copiado aquí tal como estaba en {@code PdfService}).
+ * Sólo mide la maquetación, sin firma ni almacenamiento; ambos caminos usan las mismas capas
+ * fijas, la misma fuente y el mismo QR.
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.ReportPlanBenchmark [iteraciones] [rondas]}
+ */
+public class ReportPlanBenchmark {
+
+    private static final String FECHA = "17/10/2026";
+    private static final String DOWNLOAD_URL = "http://localhost:8080/download/escritura_12.345.678-9_20261017_000000.pdf?token=x";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int warmup = Math.max(100, iterations / 4);
+
+        try (ConfigurableApplicationContext context = BenchmarkSupport.start()) {
+            ReportTemplateService templates = context.getBean(ReportTemplateService.class);
+            ReportPlanService.ReportPlan plan = context.getBean(ReportPlanService.class).getPlan(null);
+            QrCodeService qr = context.getBean(QrCodeService.class);
+
+            PdfGenerationRequest request = BenchmarkSupport.sampleRequest();
+            request.setCamposAdicionales(Map.of("Centro de salud", "CESFAM Norte", "Folio", "A-1029"));
+
+            BenchmarkSupport.Operation handWrittenOp = () -> layout(templates, qr, document -> handWritten(document, request));
+            BenchmarkSupport.Operation compiledOp = () -> layout(templates, qr, document -> plan.render(document.document,
+                new ReportPlanService.RenderContext(request, document.layers, document.qr, FECHA, DOWNLOAD_URL)));
+
+            // La diferencia esperada es pequeña: se miden en pares alternados y se informa la última ronda
+            BenchmarkSupport.Result handWritten = null;
+            BenchmarkSupport.Result compiled = null;
+            for (int round = 1; round <= rounds; round++) {
+                BenchmarkSupport.Result[] results = BenchmarkSupport.measurePaired(
+                    "código escrito a mano", handWrittenOp, "plan " + plan.getId(), compiledOp, warmup, iterations);
+                handWritten = results[0];
+                compiled = results[1];
+            }
+
+            handWritten.print();
+            compiled.print();
+            System.out.printf("Diferencia del plan: %+.3f ms (%+.1f%%), %+d B asignados por documento%n",
+                compiled.avgMs() - handWritten.avgMs(),
+                (compiled.avgMs() / handWritten.avgMs() - 1) * 100,
+                compiled.getAvgAllocatedBytes() - handWritten.getAvgAllocatedBytes());
+        }
+    }
+
+    private static long layout(ReportTemplateService templates, QrCodeService qr, Body body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfDocument pdfDoc = new PdfDocument(new PdfWriter(out, PdfOutputProfile.BALANCED.writerProperties()));
+        Document document = new Document(pdfDoc);
+        document.setFont(templates.createFont());
+        Target target = new Target(document, templates.open(pdfDoc, true), qr.createVectorQr(DOWNLOAD_URL, pdfDoc));
+        body.write(target);
+        document.close();
+        return out.size();
+    }
+
+    /**
+     * Maquetación original de {@code PdfService.generatePdf}, sin cambios salvo el QR, que
+     * ahora es vectorial en ambos caminos.
+     */
+    private static void handWritten(Target target, PdfGenerationRequest request) {
+        Document document = target.document;
+        ReportTemplateService.StaticLayers plantilla = target.layers;
+        document.add(plantilla.header());
+        document.add(plantilla.headerSpacer());
+
+        Image qrImage = new Image(target.qr).scaleToFit(80, 80);
+        qrImage.setFixedPosition(50, 750);
+        document.add(qrImage);
+
+        document.add(new Paragraph("Fecha del informe: " + FECHA)
+            .setFontSize(9)
+            .setBold()
+            .setTextAlignment(TextAlignment.LEFT)
+            .setMultipliedLeading(0.5f));
+
+        document.add(new Paragraph("URL de descarga: " + DOWNLOAD_URL)
+            .setFontSize(8)
+            .setFontColor(ColorConstants.BLUE)
+            .setTextAlignment(TextAlignment.LEFT)
+            .setMultipliedLeading(0.5f));
+
+        document.add(plantilla.block(ReportTemplateService.Block.INTRO));
+
+        agregarCampo(document, "Nombre del afiliado:", request.getNombre());
+        agregarCampo(document, "RUT:", request.getRut());
+        agregarCampo(document, "Número de licencia médica:", request.getNumeroLicencia());
+        agregarCampo(document, "Fecha de emisión de licencia:", request.getFechaLicencia());
+        agregarCampo(document, "Sistema de salud:", request.getSistemaSalud());
+
+        document.add(plantilla.block(ReportTemplateService.Block.VALIDACION));
+
+        agregarCampo(document, "Fecha y hora de validación:", request.getFechaHoraValidacion());
+        agregarCampo(document, "Medio de validación:", "Aplicación móvil USIV - License");
+        agregarCampo(document, "- Latitud GPS:", request.getLatitud());
+        agregarCampo(document, "- Longitud GPS:", request.getLongitud());
+        agregarCampo(document, "- Precisión GPS:", request.getPrecision());
+        agregarCampo(document, "- GPS Alterado:", request.getGpsAlterado());
+        agregarCampo(document, "- Dirección aproximada registrada por GPS:", request.getDireccionGps());
+        agregarCampo(document, "- Domicilio registrado para reposo:", request.getDomicilioReposo());
+        agregarCampo(document, "- Distancia entre ubicación real y domicilio:", request.getDistanciaReposo());
+        agregarCampo(document, "Resultado de validación geográfica:", "");
+
+        DeviceRgb colorResultado = "COINCIDE CON DOMICILIO DE REPOSO".equalsIgnoreCase(request.getResultadoGeografico()) ?
+            new DeviceRgb(0, 128, 0) : new DeviceRgb(204, 0, 0);
+        document.add(new Paragraph(request.getResultadoGeografico() != null ? request.getResultadoGeografico() : "N/A")
+            .setFontSize(11).setFontColor(colorResultado).setBold());
+
+        agregarCampo(document, "Resultado de reconocimiento facial:", request.getResultadoFacial());
+        agregarCampo(document, "Usuario gestor:", request.getUsuarioGestor());
+
+        if (request.getCamposAdicionales() != null && !request.getCamposAdicionales().isEmpty()) {
+            document.add(plantilla.block(ReportTemplateService.Block.ADICIONALES));
+            for (Map.Entry<String, String> entry : request.getCamposAdicionales().entrySet()) {
+                agregarCampo(document, entry.getKey() + ":", entry.getValue());
+            }
+        }
+
+        document.add(plantilla.block(ReportTemplateService.Block.OBSERVACIONES));
+        document.add(new Paragraph(request.getTextoObservacion() != null ? request.getTextoObservacion() : "")
+            .setFontSize(11).setTextAlignment(TextAlignment.JUSTIFIED));
+        document.add(new Paragraph(request.getTextoUsoInforme() != null ? request.getTextoUsoInforme() : "")
+            .setFontSize(11).setTextAlignment(TextAlignment.JUSTIFIED));
+    }
+
+    private static void agregarCampo(Document doc, String label, String valor) {
+        doc.add(new Paragraph()
+            .add(new Text(label).setBold())
+            .add(new Text(" " + (valor != null ? valor : "N/A")))
+            .setFontSize(11).setMultipliedLeading(0.5f));
+    }
+
+    private static class Target {
+        private final Document document;
+        private final ReportTemplateService.StaticLayers layers;
+        private final PdfFormXObject qr;
+
+        Target(Document document, ReportTemplateService.StaticLayers layers, PdfFormXObject qr) {
+            this.document = document;
+            this.layers = layers;
+            this.qr = qr;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(Target target) throws Exception;
+    }
+}
@@ -0,0 +1,48 @@
+package com.usiv.benchmark;
+
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import com.usiv.service.PdfService;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Compara la generación y firma con firma invisible contra el sello visible precalculado.
+ * Uso: {@code java -cp <classpath> com.usiv.benchmark.SignatureAppearanceBenchmark [iteraciones] [rondas]}
+ */
+public class SignatureAppearanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int warmup = Math.max(20, iterations / 4);
+
+        // El JIT sigue optimizando durante varios miles de documentos: se alternan ambas
+        // configuraciones por rondas y sólo se informa la última para no favorecer a ninguna.
+        BenchmarkSupport.Result invisible = null;
+        BenchmarkSupport.Result visible = null;
+        for (int round = 1; round <= rounds; round++) {
+            invisible = run("firma invisible", "false", warmup, iterations);
+            visible = run("sello visible precalculado", "true", warmup, iterations);
+        }
+
+        invisible.print();
+        visible.print();
+        System.out.printf("Costo adicional del sello visible: %+.2f ms (%+d B por documento)%n",
+            visible.avgMs() - invisible.avgMs(), visible.getAvgOutputBytes() - invisible.getAvgOutputBytes());
+    }
+
+    private static BenchmarkSupport.Result run(String name, String visible, int warmup, int iterations) throws Exception {
+        try (ConfigurableApplicationContext context = BenchmarkSupport.start("--pdf.signature.visible=" + visible)) {
+            PdfService pdfService = context.getBean(PdfService.class);
+            PdfGenerationRequest request = BenchmarkSupport.sampleRequest();
+
+            return BenchmarkSupport.measure(name, warmup, iterations, () -> {
+                PdfGenerationResponse response = pdfService.generateAndSignPdf(request);
+                if (!response.isSuccess()) {
+                    throw new IllegalStateException(response.getMessage());
+                }
+                return response.getFileSizeBytes();
+            });
+        }
+    }
+}
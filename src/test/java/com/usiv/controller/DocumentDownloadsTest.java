@@ -0,0 +1,204 @@
+package com.usiv.controller;
+
+import com.usiv.service.DocumentCache;
+import com.usiv.service.DocumentIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentDownloadsTest {
+
+    private static final String CHECKSUM = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final Instant CREATED = Instant.parse("2026-03-14T10:15:30Z");
+
+    @TempDir
+    Path dir;
+
+    private byte[] content;
+    private DocumentIndex.Document document;
+    private DocumentCache documentCache;
+    private DocumentDownloads downloads;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Path file = Files.write(dir.resolve("informe.pdf"), content);
+
+        document = mock(DocumentIndex.Document.class);
+        when(document.getFilename()).thenReturn("informe.pdf");
+        when(document.getPath()).thenReturn(file);
+        when(document.getSize()).thenReturn((long) content.length);
+        when(document.getChecksum()).thenReturn(CHECKSUM);
+        when(document.getCreatedAt()).thenReturn(CREATED);
+
+        // Sin caché: se envía desde el archivo
+        documentCache = mock(DocumentCache.class);
+        downloads = new DocumentDownloads();
+        ReflectionTestUtils.setField(downloads, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(downloads, "documentCache", documentCache);
+        ReflectionTestUtils.setField(downloads, "meterRegistry", new SimpleMeterRegistry());
+        downloads.init();
+    }
+
+    @Test
+    void servesWholeDocument() throws IOException {
+        MockHttpServletResponse response = serve(get());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+        assertThat(response.getContentLengthLong()).isEqualTo(content.length);
+        assertThat(response.getContentType()).isEqualTo("application/pdf");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(PdfResponses.etag(CHECKSUM));
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_DISPOSITION)).isEqualTo("attachment; filename=\"informe.pdf\"");
+    }
+
+    @Test
+    void servesCachedContent() throws IOException {
+        byte[] cached = content.clone();
+        cached[0] = 42;
+        when(documentCache.get(any())).thenReturn(cached);
+
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        MockHttpServletResponse response = serve(request);
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(cached, 0, 10));
+    }
+
+    @Test
+    void ifNoneMatchReturnsNotModified() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, PdfResponses.etag(CHECKSUM));
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(PdfResponses.etag(CHECKSUM));
+    }
+
+    @Test
+    void ifModifiedSinceReturnsNotModified() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, CREATED.toEpochMilli());
+        assertThat(serve(request).getStatus()).isEqualTo(304);
+
+        MockHttpServletRequest older = get();
+        older.addHeader(HttpHeaders.IF_MODIFIED_SINCE, CREATED.minusSeconds(3600).toEpochMilli());
+        assertThat(serve(older).getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-199");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 100-199/1000");
+        assertThat(response.getContentLengthLong()).isEqualTo(100);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 100, 200));
+    }
+
+    @Test
+    void suffixRangeReturnsTail() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.RANGE, "bytes=-10");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 990-999/1000");
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 990, 1000));
+    }
+
+    @Test
+    void rangePastEndIsNotSatisfiable() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.RANGE, "bytes=1000-1100");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */1000");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void multipleRangesSendWholeDocument() throws IOException {
+        MockHttpServletRequest request = get();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9,20-29");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void ifRangeWithOtherEtagSendsWholeDocument() throws IOException {
+        MockHttpServletRequest matching = get();
+        matching.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        matching.addHeader(HttpHeaders.IF_RANGE, PdfResponses.etag(CHECKSUM));
+        assertThat(serve(matching).getStatus()).isEqualTo(206);
+
+        MockHttpServletRequest stale = get();
+        stale.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        stale.addHeader(HttpHeaders.IF_RANGE, "\"otro\"");
+        MockHttpServletResponse response = serve(stale);
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void headSendsHeadersOnly() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("HEAD", "/download/informe.pdf");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentLengthLong()).isEqualTo(content.length);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void largeDocumentUsesSendfileWhenSupported() throws IOException {
+        when(document.getSize()).thenReturn(64L * 1024);
+        Files.write(document.getPath(), new byte[64 * 1024]);
+        MockHttpServletRequest request = get();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=1024-");
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.filename")).isEqualTo(document.getPath().toRealPath().toString());
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.start")).isEqualTo(1024L);
+        assertThat(request.getAttribute("org.apache.tomcat.sendfile.end")).isEqualTo(64L * 1024);
+    }
+
+    private MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/download/informe.pdf");
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloads.serve(request, response, document, false);
+        return response;
+    }
+}
@@ -0,0 +1,214 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DocumentIndexTest {
+
+    private static final String CHECKSUM = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 14);
+
+    @TempDir
+    Path dir;
+
+    private DocumentIndex index;
+
+    @AfterEach
+    void close() throws IOException {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    void putGetAndRemove() throws IOException {
+        index = open(16);
+        Instant created = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        index.put("a.pdf", partition(DAY).resolve("a.pdf"), 1234, CHECKSUM, created);
+
+        DocumentIndex.Document document = index.get("a.pdf");
+        assertThat(document.getPath()).isEqualTo(partition(DAY).resolve("a.pdf"));
+        assertThat(document.getSize()).isEqualTo(1234);
+        assertThat(document.getChecksum()).isEqualTo(CHECKSUM);
+        assertThat(document.getCreatedAt()).isEqualTo(created);
+
+        assertThat(index.remove("a.pdf")).isTrue();
+        assertThat(index.remove("a.pdf")).isFalse();
+        assertThat(index.get("a.pdf")).isNull();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    void putReplacesExistingDocument() throws IOException {
+        index = open(16);
+        index.put("a.pdf", partition(DAY).resolve("a.pdf"), 10, CHECKSUM, Instant.now());
+        index.put("a.pdf", partition(DAY.plusDays(1)).resolve("a.pdf"), 20, null, Instant.now());
+
+        DocumentIndex.Document document = index.get("a.pdf");
+        assertThat(document.getPath()).isEqualTo(partition(DAY.plusDays(1)).resolve("a.pdf"));
+        assertThat(document.getSize()).isEqualTo(20);
+        assertThat(document.getChecksum()).isNull();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void removePartitionDropsOnlyThatDay() throws IOException {
+        index = open(16);
+        for (int i = 0; i < 5; i++) {
+            index.put("old-" + i + ".pdf", partition(DAY).resolve("old-" + i + ".pdf"), i, null, Instant.now());
+        }
+        index.put("new.pdf", partition(DAY.plusDays(1)).resolve("new.pdf"), 1, null, Instant.now());
+
+        assertThat(index.removePartition(DAY)).isEqualTo(5);
+        assertThat(index.removePartition(DAY)).isZero();
+        assertThat(index.contains("old-0.pdf")).isFalse();
+        assertThat(index.contains("new.pdf")).isTrue();
+
+        index = reopen();
+        assertThat(index.contains("old-0.pdf")).isFalse();
+        assertThat(index.contains("new.pdf")).isTrue();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void reloadsSnapshotAndReplaysLog() throws IOException {
+        index = open(16);
+        Instant created = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        index.put("a.pdf", partition(DAY).resolve("a.pdf"), 1, CHECKSUM, created);
+        index.put("b.pdf", partition(DAY).resolve("b.pdf"), 2, null, created);
+        index.snapshot();
+        // Después de la instantánea: sólo quedan en el registro
+        index.put("c.pdf", partition(DAY).resolve("c.pdf"), 3, null, created);
+        index.remove("a.pdf");
+
+        index = reopen();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get("a.pdf")).isNull();
+        assertThat(index.get("b.pdf").getSize()).isEqualTo(2);
+        assertThat(index.get("c.pdf").getSize()).isEqualTo(3);
+        assertThat(index.get("c.pdf").getCreatedAt()).isEqualTo(created);
+    }
+
+    @Test
+    void discardsTornTailAndKeepsAppending() throws IOException {
+        index = open(16);
+        index.put("a.pdf", partition(DAY).resolve("a.pdf"), 1, CHECKSUM, Instant.now());
+        index.put("b.pdf", partition(DAY).resolve("b.pdf"), 2, CHECKSUM, Instant.now());
+        index.shutdown();
+
+        // Corte a mitad del último registro
+        Path log = dir.resolve("index").resolve("documents.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        index = open(16);
+        assertThat(index.contains("a.pdf")).isTrue();
+        assertThat(index.contains("b.pdf")).isFalse();
+
+        // Lo anexado después de la cola descartada se vuelve a leer
+        index.put("c.pdf", partition(DAY).resolve("c.pdf"), 3, null, Instant.now());
+        index = reopen();
+        assertThat(index.contains("a.pdf")).isTrue();
+        assertThat(index.contains("b.pdf")).isFalse();
+        assertThat(index.contains("c.pdf")).isTrue();
+    }
+
+    @Test
+    void snapshotCompactsTombstones() throws IOException {
+        index = open(16);
+        for (int i = 0; i < 1500; i++) {
+            index.put(name(i), partition(DAY).resolve(name(i)), i, null, Instant.now());
+        }
+        for (int i = 0; i < 1200; i++) {
+            index.remove(name(i));
+        }
+        index.snapshot();
+
+        assertThat(index.size()).isEqualTo(300);
+        assertThat(index.contains(name(0))).isFalse();
+        assertThat(index.get(name(1499)).getSize()).isEqualTo(1499);
+
+        // Las entradas compactadas siguen aceptando altas y bajas
+        index.put(name(0), partition(DAY).resolve(name(0)), 7, null, Instant.now());
+        index.remove(name(1300));
+
+        index = reopen();
+        assertThat(index.size()).isEqualTo(300);
+        assertThat(index.get(name(0)).getSize()).isEqualTo(7);
+        assertThat(index.contains(name(1300))).isFalse();
+        for (int i = 1201; i < 1500; i++) {
+            if (i != 1300) {
+                assertThat(index.get(name(i)).getSize()).isEqualTo(i);
+            }
+        }
+    }
+
+    @Test
+    void growsPastInitialCapacity() throws IOException {
+        index = open(16);
+        for (int i = 0; i < 5000; i++) {
+            index.put(name(i), partition(DAY.plusDays(i % 7)).resolve(name(i)), i, null, Instant.now());
+        }
+        assertThat(index.size()).isEqualTo(5000);
+        for (int i = 0; i < 5000; i++) {
+            assertThat(index.get(name(i)).getSize()).isEqualTo(i);
+        }
+
+        index = reopen();
+        assertThat(index.size()).isEqualTo(5000);
+        assertThat(index.get(name(4999)).getPath()).isEqualTo(partition(DAY.plusDays(4999 % 7)).resolve(name(4999)));
+    }
+
+    @Test
+    void indexesExistingPartitionsOnFirstStart() throws IOException {
+        Path day = Files.createDirectories(partition(DAY));
+        Files.write(day.resolve("a.pdf"), new byte[42]);
+        // Temporal de una generación en curso
+        Files.write(day.resolve(".a.pdf.tmp"), new byte[1]);
+
+        index = open(16);
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.get("a.pdf").getSize()).isEqualTo(42);
+        assertThat(index.get("a.pdf").getChecksum()).isNull();
+    }
+
+    private DocumentIndex open(int initialCapacity) throws IOException {
+        DocumentIndex opened = new DocumentIndex();
+        ReflectionTestUtils.setField(opened, "basePath", dir.resolve("storage").toString());
+        ReflectionTestUtils.setField(opened, "indexDir", dir.resolve("index").toString());
+        ReflectionTestUtils.setField(opened, "initialCapacity", initialCapacity);
+        ReflectionTestUtils.setField(opened, "meterRegistry", new SimpleMeterRegistry());
+        opened.init();
+        return opened;
+    }
+
+    private DocumentIndex reopen() throws IOException {
+        index.shutdown();
+        index = null;
+        return open(16);
+    }
+
+    private Path partition(LocalDate day) {
+        return dir.resolve("storage")
+            .resolve(String.format("%04d/%02d/%02d", day.getYear(), day.getMonthValue(), day.getDayOfMonth()));
+    }
+
+    private static String name(int i) {
+        return "informe_12.345.678-9_" + i + ".pdf";
+    }
+}
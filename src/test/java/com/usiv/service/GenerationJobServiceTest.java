@@ -0,0 +1,206 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GenerationJobServiceTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @TempDir
+    Path dir;
+
+    private PdfService pdfService;
+    private GenerationJobService service;
+
+    @BeforeEach
+    void mockGeneration() {
+        pdfService = mock(PdfService.class);
+        when(pdfService.generateAndSignPdf(any(PdfGenerationRequest.class), any()))
+            .thenAnswer(invocation -> {
+                PdfGenerationRequest request = invocation.getArgument(0);
+                return PdfGenerationResponse.success(request.getNombre() + ".pdf", "http://localhost/d", "token");
+            });
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void finishedJobSurvivesRestartWithoutRunningAgain() throws Exception {
+        service = start("");
+        GenerationJobService.Job job = service.submit(request("uno"), "admin", null, "admin:clave-1");
+        awaitStatus(job.getId(), GenerationJobService.Status.COMPLETED);
+        verify(pdfService).generateAndSignPdf(any(PdfGenerationRequest.class), eq("admin:clave-1"));
+
+        restart("");
+        GenerationJobService.Job reloaded = service.getJob(job.getId());
+        assertThat(reloaded.getStatus()).isEqualTo(GenerationJobService.Status.COMPLETED);
+        assertThat(reloaded.getOwner()).isEqualTo("admin");
+        assertThat(((PdfGenerationResponse) reloaded.toView().get("result")).getFilename()).isEqualTo("uno.pdf");
+        verify(pdfService).generateAndSignPdf(any(PdfGenerationRequest.class), anyString());
+    }
+
+    @Test
+    void replayRequeuesInterruptedJobsAndDropsRejectedAndExpired() throws Exception {
+        Instant now = Instant.now();
+        List<GenerationJobService.JournalEntry> entries = new ArrayList<>();
+        entries.add(submitted("interrumpido", now.minusSeconds(60), "admin:clave-2"));
+        entries.add(event("STARTED", "interrumpido", now.minusSeconds(59)));
+        entries.add(submitted("terminado", now.minusSeconds(50), null));
+        GenerationJobService.JournalEntry completed = event("COMPLETED", "terminado", now.minusSeconds(40));
+        completed.response = PdfGenerationResponse.success("terminado.pdf", "http://localhost/d", "token");
+        entries.add(completed);
+        entries.add(submitted("rechazado", now.minusSeconds(30), null));
+        entries.add(event("REJECTED", "rechazado", now.minusSeconds(30)));
+        entries.add(submitted("vencido", now.minus(Duration.ofHours(30)), null));
+        GenerationJobService.JournalEntry failed = event("FAILED", "vencido", now.minus(Duration.ofHours(25)));
+        failed.response = PdfGenerationResponse.error("Tipo de informe desconocido");
+        entries.add(failed);
+        writeJournal(entries, "{\"type\":\"SUBMITTED\",\"jobId\":\"cort");
+
+        service = start("");
+
+        awaitStatus("interrumpido", GenerationJobService.Status.COMPLETED);
+        verify(pdfService).generateAndSignPdf(any(PdfGenerationRequest.class), eq("admin:clave-2"));
+        assertThat(service.getJob("terminado").getStatus()).isEqualTo(GenerationJobService.Status.COMPLETED);
+        verify(pdfService, never()).generateAndSignPdf(any(PdfGenerationRequest.class), eq(null));
+        assertThat(service.getJob("rechazado")).isNull();
+        assertThat(service.getJob("vencido")).isNull();
+
+        // La compactación al iniciar deja sólo los trabajos vigentes
+        String journal = new String(Files.readAllBytes(journalPath()), StandardCharsets.UTF_8);
+        assertThat(journal).contains("interrumpido", "terminado").doesNotContain("rechazado", "vencido", "cort");
+    }
+
+    @Test
+    void submitRunsValidationBeforeJournaling() throws Exception {
+        service = start("");
+        PdfGenerationRequest request = request("desconocido");
+        doThrow(new IllegalArgumentException("Tipo de informe desconocido"))
+            .when(pdfService).validate(request);
+
+        assertThatThrownBy(() -> service.submit(request, "admin", null, null))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(Files.size(journalPath())).isZero();
+    }
+
+    @Test
+    void callbacksRequireAllowedPublicHost() throws Exception {
+        service = start("");
+        assertThatThrownBy(() -> service.submit(request("uno"), "admin", "https://example.com/aviso", null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("no están habilitados");
+        restart("localhost");
+        assertThatThrownBy(() -> service.submit(request("uno"), "admin", "https://example.com/aviso", null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("no permitido");
+        assertThatThrownBy(() -> service.submit(request("uno"), "admin", "http://localhost:8080/aviso", null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("dirección interna");
+        assertThatThrownBy(() -> service.submit(request("uno"), "admin", "file:///etc/passwd", null))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private GenerationJobService start(String allowedHosts) throws IOException {
+        GenerationJobService started = new GenerationJobService();
+        ReflectionTestUtils.setField(started, "journalDir", dir.toString());
+        ReflectionTestUtils.setField(started, "workerCount", 1);
+        ReflectionTestUtils.setField(started, "queueCapacity", 10);
+        ReflectionTestUtils.setField(started, "retentionHours", 24L);
+        ReflectionTestUtils.setField(started, "callbackTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(started, "callbackAllowedHosts", allowedHosts);
+        ReflectionTestUtils.setField(started, "pdfService", pdfService);
+        ReflectionTestUtils.setField(started, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(started, "meterRegistry", new SimpleMeterRegistry());
+        started.init();
+        return started;
+    }
+
+    private void restart(String allowedHosts) throws IOException {
+        service.shutdown();
+        service = start(allowedHosts);
+    }
+
+    private void awaitStatus(String jobId, GenerationJobService.Status status) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (System.nanoTime() < deadline) {
+            GenerationJobService.Job job = service.getJob(jobId);
+            if (job != null && job.getStatus() == status) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        assertThat(service.getJob(jobId).getStatus()).isEqualTo(status);
+    }
+
+    private Path journalPath() {
+        return dir.resolve("jobs.journal");
+    }
+
+    private void writeJournal(List<GenerationJobService.JournalEntry> entries, String tornTail) throws IOException {
+        StringBuilder journal = new StringBuilder();
+        for (GenerationJobService.JournalEntry entry : entries) {
+            journal.append(objectMapper.writeValueAsString(entry)).append('\n');
+        }
+        journal.append(tornTail);
+        Files.write(journalPath(), journal.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static GenerationJobService.JournalEntry submitted(String jobId, Instant at, String idempotencyKey) {
+        GenerationJobService.JournalEntry entry = event("SUBMITTED", jobId, at);
+        entry.owner = "admin";
+        entry.idempotencyKey = idempotencyKey;
+        entry.request = request(jobId);
+        return entry;
+    }
+
+    private static GenerationJobService.JournalEntry event(String type, String jobId, Instant at) {
+        GenerationJobService.JournalEntry entry = new GenerationJobService.JournalEntry();
+        entry.type = type;
+        entry.jobId = jobId;
+        entry.at = at;
+        return entry;
+    }
+
+    private static PdfGenerationRequest request(String nombre) {
+        PdfGenerationRequest request = new PdfGenerationRequest();
+        request.setNombre(nombre);
+        request.setRut("12.345.678-9");
+        return request;
+    }
+}
@@ -0,0 +1,204 @@
+package com.usiv.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.usiv.dto.PdfGenerationRequest;
+import com.usiv.dto.PdfGenerationResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyServiceTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final AtomicInteger generated = new AtomicInteger();
+
+    @TempDir
+    Path dir;
+
+    private Path document;
+    private IdempotencyService service;
+
+    @BeforeEach
+    void createDocument() throws IOException {
+        document = Files.write(dir.resolve("informe.pdf"), new byte[]{'%', 'P', 'D', 'F'});
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void repeatedRequestReplaysFirstDocument() throws IOException {
+        service = start(15);
+        PdfGenerationResponse first = service.execute(request("uno"), null, generator());
+        PdfGenerationResponse second = service.execute(request("uno"), null, generator());
+
+        assertThat(generated).hasValue(1);
+        assertThat(first.isReplayed()).isFalse();
+        assertThat(second.isReplayed()).isTrue();
+        assertThat(second.getFilename()).isEqualTo(first.getFilename());
+        assertThat(second.getStoredPath()).isEqualTo(document.toString());
+
+        service.execute(request("dos"), null, generator());
+        assertThat(generated).hasValue(2);
+    }
+
+    @Test
+    void canonicalHashIgnoresAdditionalFieldOrder() throws IOException {
+        service = start(15);
+        Map<String, String> ordered = new TreeMap<>();
+        ordered.put("a", "1");
+        ordered.put("b", "2");
+        Map<String, String> reversed = new TreeMap<>((x, y) -> y.compareTo(x));
+        reversed.putAll(ordered);
+
+        PdfGenerationRequest one = request("uno");
+        one.setCamposAdicionales(ordered);
+        PdfGenerationRequest other = request("uno");
+        other.setCamposAdicionales(reversed);
+        assertThat(service.canonicalHash(one)).isEqualTo(service.canonicalHash(other));
+    }
+
+    @Test
+    void clientKeyReusedWithDifferentRequestConflicts() throws IOException {
+        service = start(15);
+        service.execute(request("uno"), "admin:clave", generator());
+
+        assertThatThrownBy(() -> service.execute(request("dos"), "admin:clave", generator()))
+            .isInstanceOf(IdempotencyService.KeyConflictException.class);
+        // La misma clave de otro usuario es otra clave
+        service.execute(request("dos"), "otro:clave", generator());
+        assertThat(generated).hasValue(2);
+    }
+
+    @Test
+    void failedGenerationIsNotRecorded() throws IOException {
+        service = start(15);
+        service.execute(request("uno"), null, () -> {
+            generated.incrementAndGet();
+            return PdfGenerationResponse.error("Error al generar PDF");
+        });
+        service.execute(request("uno"), null, generator());
+        assertThat(generated).hasValue(2);
+    }
+
+    @Test
+    void deletedDocumentIsGeneratedAgain() throws IOException {
+        service = start(15);
+        service.execute(request("uno"), null, generator());
+        Files.delete(document);
+
+        PdfGenerationResponse again = service.execute(request("uno"), null, generator());
+        assertThat(again.isReplayed()).isFalse();
+        assertThat(generated).hasValue(2);
+    }
+
+    @Test
+    void reloadsKeysFromIndexAfterRestart() throws IOException {
+        service = start(15);
+        service.execute(request("uno"), "admin:clave", generator());
+
+        restart(15);
+        PdfGenerationResponse replayed = service.execute(request("uno"), "admin:clave", generator());
+        assertThat(replayed.isReplayed()).isTrue();
+        assertThat(generated).hasValue(1);
+        assertThatThrownBy(() -> service.execute(request("dos"), "admin:clave", generator()))
+            .isInstanceOf(IdempotencyService.KeyConflictException.class);
+    }
+
+    @Test
+    void reloadedKeyKeepsOnlyWhatWasLeftOfItsWindow() throws Exception {
+        service = start(1);
+        PdfGenerationRequest request = request("uno");
+        // Generada hace 58 s con una ventana de 1 min: al recargarla le quedan 2 s, no un minuto
+        writeIndex(new IdempotencyService.IndexEntry("key:admin:clave", service.canonicalHash(request),
+            Instant.now().minusSeconds(58), response()));
+
+        restart(1);
+        assertThat(service.execute(request, "admin:clave", generator()).isReplayed()).isTrue();
+        assertThat(generated).hasValue(0);
+
+        Thread.sleep(2500);
+        assertThat(service.execute(request, "admin:clave", generator()).isReplayed()).isFalse();
+        assertThat(generated).hasValue(1);
+    }
+
+    @Test
+    void expiredKeysAreNotReloaded() throws Exception {
+        service = start(1);
+        PdfGenerationRequest request = request("uno");
+        writeIndex(new IdempotencyService.IndexEntry("key:admin:clave", service.canonicalHash(request),
+            Instant.now().minusSeconds(120), response()));
+
+        restart(1);
+        assertThat(service.execute(request, "admin:clave", generator()).isReplayed()).isFalse();
+        assertThat(generated).hasValue(1);
+        // La compactación al iniciar no la conservó
+        String index = new String(Files.readAllBytes(dir.resolve("index").resolve("idempotency.index")),
+            StandardCharsets.UTF_8);
+        assertThat(index.split("\n")).hasSize(1);
+    }
+
+    private IdempotencyService start(long windowMinutes) throws IOException {
+        IdempotencyService started = new IdempotencyService();
+        ReflectionTestUtils.setField(started, "enabled", true);
+        ReflectionTestUtils.setField(started, "windowMinutes", windowMinutes);
+        ReflectionTestUtils.setField(started, "maxEntries", 100L);
+        ReflectionTestUtils.setField(started, "indexDir", dir.resolve("index").toString());
+        ReflectionTestUtils.setField(started, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(started, "meterRegistry", new SimpleMeterRegistry());
+        started.init();
+        return started;
+    }
+
+    private void restart(long windowMinutes) throws IOException {
+        service.shutdown();
+        service = start(windowMinutes);
+    }
+
+    private void writeIndex(IdempotencyService.IndexEntry entry) throws IOException {
+        service.shutdown();
+        Files.write(dir.resolve("index").resolve("idempotency.index"),
+            (objectMapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Supplier<PdfGenerationResponse> generator() {
+        return () -> {
+            generated.incrementAndGet();
+            return response();
+        };
+    }
+
+    private PdfGenerationResponse response() {
+        PdfGenerationResponse response = PdfGenerationResponse.success("informe.pdf", "http://localhost/d", "token");
+        response.setStoredPath(document.toString());
+        return response;
+    }
+
+    private static PdfGenerationRequest request(String nombre) {
+        PdfGenerationRequest request = new PdfGenerationRequest();
+        request.setNombre(nombre);
+        request.setRut("12.345.678-9");
+        return request;
+    }
+}
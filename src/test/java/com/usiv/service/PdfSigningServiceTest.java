@@ -0,0 +1,162 @@
+package com.usiv.service;
+
+import com.itextpdf.forms.PdfAcroForm;
+import com.itextpdf.forms.fields.PdfFormField;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.signatures.PdfPKCS7;
+import com.itextpdf.signatures.SignatureUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Firma de punta a punta con el keystore de demostración: maquetación con el campo reservado,
+ * fase uno, pool de firma e inyección del contenedor en el archivo.
+ */
+class PdfSigningServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private SignatureWorkerPool pool;
+    private RevocationCache revocationCache;
+    private SignatureAppearanceService appearance;
+    private PdfSigningService signing;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SigningMaterialRegistry material = new SigningMaterialRegistry();
+        ReflectionTestUtils.setField(material, "keystorePath", "certs/demo.p12");
+        ReflectionTestUtils.setField(material, "keystorePassword", "123456");
+        ReflectionTestUtils.setField(material, "meterRegistry", registry);
+        material.init();
+
+        pool = new SignatureWorkerPool();
+        ReflectionTestUtils.setField(pool, "workerCount", 2);
+        ReflectionTestUtils.setField(pool, "batchSize", 16);
+        ReflectionTestUtils.setField(pool, "queueCapacity", 100);
+        ReflectionTestUtils.setField(pool, "meterRegistry", registry);
+        pool.start();
+
+        revocationCache = new RevocationCache();
+        ReflectionTestUtils.setField(revocationCache, "enabled", false);
+        ReflectionTestUtils.setField(revocationCache, "connectTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(revocationCache, "signingMaterialRegistry", material);
+        ReflectionTestUtils.setField(revocationCache, "meterRegistry", registry);
+        revocationCache.init();
+
+        appearance = new SignatureAppearanceService();
+        ReflectionTestUtils.setField(appearance, "reason", "Firmado digitalmente por USIV");
+        ReflectionTestUtils.setField(appearance, "location", "Santiago, Chile");
+        ReflectionTestUtils.setField(appearance, "contact", "contacto@usiv.cl");
+
+        signing = new PdfSigningService();
+        ReflectionTestUtils.setField(signing, "signingMaterialRegistry", material);
+        ReflectionTestUtils.setField(signing, "signatureWorkerPool", pool);
+        ReflectionTestUtils.setField(signing, "revocationCache", revocationCache);
+        ReflectionTestUtils.setField(signing, "signatureAppearanceService", appearance);
+        ReflectionTestUtils.setField(signing, "signTimeoutMs", 10000L);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        pool.stop();
+        revocationCache.shutdown();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void injectedSignatureCoversFileAndChecksumMatches(boolean visible) throws Exception {
+        ReflectionTestUtils.setField(appearance, "visible", visible);
+        Path destination = dir.resolve("firmado.pdf");
+
+        PdfSigningService.PreparedSignature prepared =
+            signing.prepare(generate(3), destination, PdfOutputProfile.BALANCED);
+        assertThat(prepared.getFile()).isEqualTo(destination);
+        assertThat(prepared.getDigest()).hasSize(32);
+
+        String checksum = signing.inject(prepared, signing.awaitContainer(prepared));
+
+        assertThat(checksum).isEqualTo(sha256(destination));
+        assertSignedWholeDocument(destination, visible);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void signsDocumentsWrittenToDisk(boolean visible) throws Exception {
+        ReflectionTestUtils.setField(appearance, "visible", visible);
+        Path unsigned = dir.resolve("sin-firmar.pdf");
+        try (OutputStream out = Files.newOutputStream(unsigned)) {
+            generate(40).writeTo(out);
+        }
+        Path destination = dir.resolve("consolidado.pdf");
+
+        String checksum = signing.signToFile(unsigned, destination, PdfOutputProfile.FAST);
+
+        assertThat(checksum).isEqualTo(sha256(destination));
+        assertSignedWholeDocument(destination, visible);
+    }
+
+    /**
+     * Documento sin firmar como lo deja la maquetación: con el campo de firma ya reservado
+     * en la última página cuando el sello es visible.
+     */
+    private DocumentBuffer generate(int pages) {
+        DocumentBuffer buffer = new DocumentBuffer();
+        PdfDocument pdf = new PdfDocument(new PdfWriter(buffer, PdfOutputProfile.BALANCED.writerProperties()));
+        Document document = new Document(pdf);
+        document.setBottomMargin(Math.max(document.getBottomMargin(), appearance.getReservedHeight()));
+        for (int i = 0; i < pages * 45; i++) {
+            document.add(new Paragraph("Línea " + i + " del informe de verificación geográfica"));
+        }
+        signing.reserveSignatureField(pdf);
+        document.close();
+        return buffer;
+    }
+
+    private static void assertSignedWholeDocument(Path file, boolean visible) throws Exception {
+        try (PdfDocument pdf = new PdfDocument(new PdfReader(file.toString()))) {
+            SignatureUtil signatures = new SignatureUtil(pdf);
+            assertThat(signatures.getSignatureNames()).containsExactly(PdfSigningService.SIGNATURE_FIELD);
+            assertThat(signatures.signatureCoversWholeDocument(PdfSigningService.SIGNATURE_FIELD)).isTrue();
+
+            PdfPKCS7 pkcs7 = signatures.readSignatureData(PdfSigningService.SIGNATURE_FIELD);
+            assertThat(pkcs7.verifySignatureIntegrityAndAuthenticity()).isTrue();
+            assertThat(pkcs7.getReason()).isEqualTo("Firmado digitalmente por USIV");
+
+            PdfFormField field = PdfAcroForm.getAcroForm(pdf, false).getField(PdfSigningService.SIGNATURE_FIELD);
+            Rectangle rect = field.getWidgets().get(0).getRectangle().toRectangle();
+            if (visible) {
+                assertThat(rect.getWidth()).isEqualTo(SignatureAppearanceService.STAMP_WIDTH);
+                assertThat(rect.getHeight()).isEqualTo(SignatureAppearanceService.STAMP_HEIGHT);
+                assertThat(pdf.getPageNumber(field.getWidgets().get(0).getPage())).isEqualTo(pdf.getNumberOfPages());
+                assertThat(field.getWidgets().get(0).getNormalAppearanceObject()).isNotNull();
+            } else {
+                assertThat(rect.getWidth()).isZero();
+                assertThat(rect.getHeight()).isZero();
+            }
+        }
+    }
+
+    private static String sha256(Path file) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file));
+        return FileManagementService.toHex(digest);
+    }
+}
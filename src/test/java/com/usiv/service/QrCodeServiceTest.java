@@ -0,0 +1,176 @@
+package com.usiv.service;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QrCodeServiceTest {
+
+    private static final Pattern SVG_SIZE = Pattern.compile("viewBox=\"0 0 (\\d+) (\\d+)\"");
+    private static final Pattern SVG_RECT = Pattern.compile("M(\\d+) (\\d+)h(\\d+)v(\\d+)h-\\d+z");
+
+    private QrCodeService qr;
+
+    @BeforeEach
+    void setUp() {
+        BufferPool bufferPool = new BufferPool();
+        ReflectionTestUtils.setField(bufferPool, "enabled", true);
+        ReflectionTestUtils.setField(bufferPool, "maxRetainedKb", 4096);
+        ReflectionTestUtils.setField(bufferPool, "headroom", 1.25);
+        ReflectionTestUtils.setField(bufferPool, "meterRegistry", new SimpleMeterRegistry());
+        bufferPool.init();
+
+        qr = new QrCodeService();
+        ReflectionTestUtils.setField(qr, "bufferPool", bufferPool);
+        ReflectionTestUtils.setField(qr, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(qr, "qrSize", 150);
+        ReflectionTestUtils.setField(qr, "qrMargin", 1);
+        ReflectionTestUtils.setField(qr, "errorCorrectionLevel", "M");
+        ReflectionTestUtils.setField(qr, "cacheMaxEntries", 100);
+        qr.init();
+    }
+
+    /**
+     * Textos de distinto largo (versiones 1 a ~20) con tamaños que dejan o no sobrante al
+     * repartir los módulos, incluido uno menor que el QR (un píxel por módulo).
+     */
+    static Stream<Arguments> cases() {
+        return Stream.of(
+            Arguments.of("https://validador.usiv.cl/q/Ab3dE", 150, ErrorCorrectionLevel.M),
+            Arguments.of("https://validador.usiv.cl/q/Ab3dE", 21, ErrorCorrectionLevel.L),
+            Arguments.of("USIV PDF Document ñandú ".repeat(6), 203, ErrorCorrectionLevel.Q),
+            Arguments.of("0123456789abcdef".repeat(20), 400, ErrorCorrectionLevel.H),
+            Arguments.of("Informe de validación 12.345.678-9 ".repeat(15), 977, ErrorCorrectionLevel.M)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("cases")
+    void pngRoundTrips(String text, int size, ErrorCorrectionLevel ecc) throws Exception {
+        byte[] png = qr.render(text, size, ecc, QrCodeService.QrFormat.PNG);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertThat(image.getWidth()).isEqualTo(image.getHeight()).isGreaterThanOrEqualTo(size);
+        assertThat(decode(image)).isEqualTo(text);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cases")
+    void pbmRoundTrips(String text, int size, ErrorCorrectionLevel ecc) throws Exception {
+        byte[] pbm = qr.render(text, size, ecc, QrCodeService.QrFormat.PBM);
+        assertThat(decode(readPbm(pbm))).isEqualTo(text);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cases")
+    void svgRectanglesRoundTrip(String text, int size, ErrorCorrectionLevel ecc) throws Exception {
+        String svg = new String(qr.render(text, size, ecc, QrCodeService.QrFormat.SVG), StandardCharsets.UTF_8);
+        assertThat(decode(rasterizeSvg(svg, 4))).isEqualTo(text);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cases")
+    void rasterOutputsAgree(String text, int size, ErrorCorrectionLevel ecc) throws Exception {
+        BufferedImage png = ImageIO.read(new ByteArrayInputStream(qr.render(text, size, ecc, QrCodeService.QrFormat.PNG)));
+        BufferedImage pbm = readPbm(qr.render(text, size, ecc, QrCodeService.QrFormat.PBM));
+        assertThat(pbm.getWidth()).isEqualTo(png.getWidth());
+        for (int y = 0; y < png.getHeight(); y++) {
+            for (int x = 0; x < png.getWidth(); x++) {
+                assertThat(pbm.getRGB(x, y)).as("píxel %d,%d", x, y).isEqualTo(png.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    void configuredImageAndPngRoundTrip() throws Exception {
+        // generateQrCodeImage y generateQrCode usan el tamaño y el nivel configurados
+        String text = qr.createDownloadQrText("https://validador.usiv.cl/d/abc", "informe.pdf", "0f".repeat(32));
+        assertThat(decode(qr.generateQrCodeImage(text))).isEqualTo(text);
+        assertThat(decode(ImageIO.read(new ByteArrayInputStream(qr.generateQrCode(text))))).isEqualTo(text);
+        assertThat(qr.render(text, qr.getDefaultSize(), QrCodeService.QrFormat.PNG)).isEqualTo(qr.generateQrCode(text));
+    }
+
+    private static String decode(BufferedImage image) throws Exception {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new BufferedImageLuminanceSource(image)));
+        return new QRCodeReader().decode(bitmap, Map.of(DecodeHintType.PURE_BARCODE, Boolean.TRUE,
+            DecodeHintType.CHARACTER_SET, "UTF-8")).getText();
+    }
+
+    private static BufferedImage readPbm(byte[] pbm) {
+        String header = new String(pbm, 0, Math.min(pbm.length, 32), StandardCharsets.US_ASCII);
+        assertThat(header).startsWith("P4\n");
+        String[] dimensions = header.substring(3, header.indexOf('\n', 3)).split(" ");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        int offset = header.indexOf('\n', 3) + 1;
+        int stride = (width + 7) / 8;
+        assertThat(pbm.length).isEqualTo(offset + stride * height);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean black = (pbm[offset + y * stride + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+                image.setRGB(x, y, black ? 0xFF000000 : 0xFFFFFFFF);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Dibuja los rectángulos del trazado SVG a {@code scale} píxeles por módulo. Un módulo
+     * cubierto por dos rectángulos indica que la unión de tramos se solapó.
+     */
+    private static BufferedImage rasterizeSvg(String svg, int scale) {
+        Matcher size = SVG_SIZE.matcher(svg);
+        assertThat(size.find()).isTrue();
+        int modules = Integer.parseInt(size.group(1));
+        int[][] covered = new int[modules][modules];
+        Matcher rect = SVG_RECT.matcher(svg);
+        while (rect.find()) {
+            int x = Integer.parseInt(rect.group(1));
+            int y = Integer.parseInt(rect.group(2));
+            int width = Integer.parseInt(rect.group(3));
+            int height = Integer.parseInt(rect.group(4));
+            for (int row = y; row < y + height; row++) {
+                for (int column = x; column < x + width; column++) {
+                    covered[row][column]++;
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(modules * scale, modules * scale, BufferedImage.TYPE_BYTE_BINARY);
+        for (int row = 0; row < modules; row++) {
+            for (int column = 0; column < modules; column++) {
+                assertThat(covered[row][column]).as("módulo %d,%d", column, row).isLessThanOrEqualTo(1);
+                int rgb = covered[row][column] == 1 ? 0xFF000000 : 0xFFFFFFFF;
+                for (int dy = 0; dy < scale; dy++) {
+                    for (int dx = 0; dx < scale; dx++) {
+                        image.setRGB(column * scale + dx, row * scale + dy, rgb);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+}
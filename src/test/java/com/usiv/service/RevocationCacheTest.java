@@ -0,0 +1,313 @@
+package com.usiv.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Contra un respondedor local: un {@link HttpServer} que firma respuestas OCSP y CRLs con una
+ * CA de prueba generada al vuelo.
+ */
+class RevocationCacheTest {
+
+    private static KeyPair caKeys;
+    private static X509Certificate ca;
+    private static X509Certificate leaf;
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final AtomicInteger ocspRequests = new AtomicInteger();
+    private final AtomicInteger crlRequests = new AtomicInteger();
+    private volatile boolean ocspAvailable = true;
+    private volatile boolean crlAvailable = true;
+    private volatile Duration validity = Duration.ofHours(2);
+    private volatile CountDownLatch ocspGate;
+
+    private SimpleMeterRegistry registry;
+    private RevocationCache cache;
+
+    @BeforeAll
+    static void issueCertificates() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        caKeys = generator.generateKeyPair();
+        KeyPair leafKeys = generator.generateKeyPair();
+        X500Name caName = new X500Name("CN=USIV Test CA");
+        Date from = Date.from(Instant.now().minus(Duration.ofDays(1)));
+        Date to = Date.from(Instant.now().plus(Duration.ofDays(365)));
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+        ca = converter.getCertificate(new JcaX509v3CertificateBuilder(caName, BigInteger.ONE, from, to, caName,
+            caKeys.getPublic()).build(signer));
+        leaf = converter.getCertificate(new JcaX509v3CertificateBuilder(caName, BigInteger.valueOf(4242), from, to,
+            new X500Name("CN=USIV Firmante"), leafKeys.getPublic()).build(signer));
+    }
+
+    @BeforeEach
+    void startResponder() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ocsp", this::ocsp);
+        server.createContext("/crl", this::crl);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        cache = start();
+    }
+
+    @AfterEach
+    void stopResponder() {
+        if (ocspGate != null) {
+            ocspGate.countDown();
+        }
+        cache.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void missFetchesInBackgroundAndThenHits() throws Exception {
+        RevocationCache.RevocationData first = cache.lookup(chain());
+        assertThat(first.isEmpty()).isTrue();
+        assertThat(lookups("miss")).isEqualTo(1);
+
+        awaitTrue(() -> !cache.lookup(chain()).isEmpty());
+        RevocationCache.RevocationData second = cache.lookup(chain());
+        assertThat(second.getOcsps()).hasSize(1);
+        assertThat(new OCSPResp(second.getOcsps().get(0)).getStatus()).isEqualTo(OCSPResp.SUCCESSFUL);
+        assertThat(lookups("hit")).isGreaterThanOrEqualTo(2);
+        assertThat(ocspRequests.get()).isEqualTo(1);
+        assertThat(crlRequests.get()).isZero();
+    }
+
+    @Test
+    void lookupDoesNotWaitForSlowResponder() throws Exception {
+        ocspGate = new CountDownLatch(1);
+        ReflectionTestUtils.setField(cache, "readTimeoutMs", 300L);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.lookup(chain()).isEmpty()).isTrue();
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+        assertThat(lookups("miss")).isEqualTo(5);
+
+        // El timeout de lectura corta la consulta colgada y se pasa a la CRL
+        awaitTrue(() -> !cache.lookup(chain()).isEmpty());
+        assertThat(cache.lookup(chain()).getCrls()).hasSize(1);
+        assertThat(ocspRequests.get()).isEqualTo(1);
+        assertThat(registry.get("pdf.signature.revocation.fetch").tags("type", "ocsp", "outcome", "error")
+            .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void ocspFailureFallsBackToCrl() throws Exception {
+        ocspAvailable = false;
+        cache.lookup(chain());
+
+        awaitTrue(() -> !cache.lookup(chain()).isEmpty());
+        RevocationCache.RevocationData data = cache.lookup(chain());
+        assertThat(data.getOcsps()).isEmpty();
+        assertThat(data.getCrls()).hasSize(1);
+        awaitTrue(() -> persisted(".crl"));
+    }
+
+    @Test
+    void refreshAheadRenewsEntriesCloseToExpiry() throws Exception {
+        validity = Duration.ofMinutes(30);
+        cache.lookup(chain());
+        awaitTrue(() -> ocspRequests.get() == 1 && !cache.lookup(chain()).isEmpty());
+
+        // Vigente pero dentro de refresh-ahead-minutes (60): se renueva sin que nadie lo pida
+        validity = Duration.ofHours(2);
+        cache.refreshAhead();
+        awaitTrue(() -> ocspRequests.get() == 2);
+
+        // Ya lejos del vencimiento: no se consulta otra vez
+        awaitTrue(() -> cache.lookup(chain()).getOcsps().size() == 1 && ocspRequests.get() == 2);
+        Thread.sleep(100);
+        cache.refreshAhead();
+        Thread.sleep(200);
+        assertThat(ocspRequests.get()).isEqualTo(2);
+    }
+
+    @Test
+    void persistedEntriesReloadFromDisk() throws Exception {
+        cache.lookup(chain());
+        awaitTrue(() -> persisted(".ocsp"));
+        cache.shutdown();
+
+        ocspAvailable = false;
+        crlAvailable = false;
+        cache = start();
+        RevocationCache.RevocationData data = cache.lookup(chain());
+        assertThat(data.getOcsps()).hasSize(1);
+        assertThat(lookups("hit")).isEqualTo(1);
+        assertThat(lookups("miss")).isZero();
+        assertThat(ocspRequests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void expiredEntryIsServedWhileResponderFails() throws Exception {
+        validity = Duration.ofMinutes(-1);
+        cache.lookup(chain());
+        awaitTrue(() -> !cache.lookup(chain()).isEmpty());
+
+        // La CRL primero: un refresco en curso no debe reemplazar la respuesta OCSP por una CRL
+        crlAvailable = false;
+        ocspAvailable = false;
+        int before = ocspRequests.get();
+        RevocationCache.RevocationData data = cache.lookup(chain());
+
+        assertThat(data.getOcsps()).hasSize(1);
+        assertThat(lookups("stale")).isGreaterThanOrEqualTo(2);
+        // El refresco sigue intentándose en segundo plano y la entrada vencida se conserva
+        awaitTrue(() -> cache.lookup(chain()).getOcsps().size() == 1 && ocspRequests.get() > before);
+    }
+
+    private RevocationCache start() {
+        registry = new SimpleMeterRegistry();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        SigningMaterialRegistry.SigningMaterial material = mock(SigningMaterialRegistry.SigningMaterial.class);
+        when(material.getChain()).thenReturn(chain());
+        SigningMaterialRegistry signingMaterialRegistry = mock(SigningMaterialRegistry.class);
+        when(signingMaterialRegistry.getCurrent()).thenReturn(material);
+
+        RevocationCache started = new RevocationCache();
+        ReflectionTestUtils.setField(started, "enabled", true);
+        ReflectionTestUtils.setField(started, "cacheDir", dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(started, "ocspUrlOverride", base + "/ocsp");
+        ReflectionTestUtils.setField(started, "crlUrlOverride", base + "/crl");
+        ReflectionTestUtils.setField(started, "refreshAheadMinutes", 60L);
+        ReflectionTestUtils.setField(started, "defaultValidityMinutes", 60L);
+        ReflectionTestUtils.setField(started, "retryAfterFailureMs", 0L);
+        ReflectionTestUtils.setField(started, "connectTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(started, "readTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(started, "signingMaterialRegistry", signingMaterialRegistry);
+        ReflectionTestUtils.setField(started, "meterRegistry", registry);
+        started.init();
+        return started;
+    }
+
+    private boolean persisted(String suffix) {
+        String[] files = dir.resolve("cache").toFile().list();
+        return files != null && Arrays.stream(files).anyMatch(name -> name.endsWith(suffix));
+    }
+
+    private double lookups(String result) {
+        return registry.get("pdf.signature.revocation.lookups").tag("result", result).counter().count();
+    }
+
+    private static Certificate[] chain() {
+        return new Certificate[]{leaf, ca};
+    }
+
+    private void ocsp(HttpExchange exchange) throws IOException {
+        ocspRequests.incrementAndGet();
+        try {
+            CountDownLatch gate = ocspGate;
+            if (gate != null) {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            if (!ocspAvailable) {
+                reply(exchange, 500, new byte[0]);
+                return;
+            }
+            OCSPReq request = new OCSPReq(exchange.getRequestBody().readAllBytes());
+            Instant now = Instant.now();
+            BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(new X509CertificateHolder(ca.getEncoded()).getSubject()));
+            for (Req req : request.getRequestList()) {
+                builder.addResponse(req.getCertID(), CertificateStatus.GOOD,
+                    Date.from(now.minus(Duration.ofMinutes(5)).plus(validity.isNegative() ? validity : Duration.ZERO)),
+                    Date.from(now.plus(validity)), null);
+            }
+            ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+            byte[] encoded = new OCSPRespBuilder()
+                .build(OCSPRespBuilder.SUCCESSFUL, builder.build(signer, null, new Date()))
+                .getEncoded();
+            reply(exchange, 200, encoded);
+        } catch (Exception e) {
+            reply(exchange, 500, new byte[0]);
+        }
+    }
+
+    private void crl(HttpExchange exchange) throws IOException {
+        crlRequests.incrementAndGet();
+        if (!crlAvailable) {
+            reply(exchange, 404, new byte[0]);
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=USIV Test CA"),
+                Date.from(now.minus(Duration.ofMinutes(5))));
+            builder.setNextUpdate(Date.from(now.plus(validity)));
+            ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(caKeys.getPrivate());
+            reply(exchange, 200, builder.build(signer).getEncoded());
+        } catch (Exception e) {
+            reply(exchange, 500, new byte[0]);
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,184 @@
+package com.usiv.service;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.signatures.BouncyCastleDigest;
+import com.itextpdf.signatures.DigestAlgorithms;
+import com.itextpdf.signatures.PdfSigner;
+import com.itextpdf.signatures.PrivateKeySignature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignatureVerificationServiceTest {
+
+    private static final String PASSWORD = "123456";
+
+    @TempDir
+    Path dir;
+
+    private Path keystore;
+    private SigningMaterialRegistry signingMaterial;
+    private SignatureVerificationService verification;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Certificados generados: el demo.p12 del repositorio tiene vencimiento propio
+        keystore = dir.resolve("firma.p12");
+        writeSelfSignedKeystore(keystore, "CN=USIV Firma");
+        signingMaterial = registry(keystore);
+        verification = start(signingMaterial, "");
+    }
+
+    @AfterEach
+    void close() {
+        verification.shutdown();
+    }
+
+    @Test
+    void cadesSignatureIsValidAndReportedAsCades() throws Exception {
+        SignatureVerificationService.VerificationResult result =
+            verification.verify("a.pdf", sign(PdfSigner.CryptoStandard.CADES));
+
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.isCades()).isTrue();
+        SignatureVerificationService.SignatureCheck check = result.getSignatures().get(0);
+        assertThat(check.isIntegrity()).isTrue();
+        assertThat(check.isChainValid()).isTrue();
+        assertThat(check.isCoversWholeDocument()).isTrue();
+    }
+
+    @Test
+    void legacyPkcs7SignatureStaysValidButIsNotCades() throws Exception {
+        SignatureVerificationService.VerificationResult result =
+            verification.verify("antiguo.pdf", sign(PdfSigner.CryptoStandard.CMS));
+
+        assertThat(result.isValid()).isTrue();
+        assertThat(result.isCades()).isFalse();
+        assertThat(result.getSignatures().get(0).getSubFilter()).isEqualTo("adbe.pkcs7.detached");
+    }
+
+    @Test
+    void documentsSignedBeforeReloadStayTrusted() throws Exception {
+        byte[] before = sign(PdfSigner.CryptoStandard.CADES);
+        assertThat(verification.verify("antes.pdf", before).isValid()).isTrue();
+
+        writeSelfSignedKeystore(keystore, "CN=USIV Rotado");
+        signingMaterial.reload();
+        byte[] after = sign(PdfSigner.CryptoStandard.CADES);
+
+        SignatureVerificationService.VerificationResult old = verification.verify("antes.pdf", before);
+        assertThat(old.isCached()).isFalse();
+        assertThat(old.isValid()).isTrue();
+        assertThat(verification.verify("despues.pdf", after).isValid()).isTrue();
+    }
+
+    @Test
+    void configuredAnchorsTrustRotatedCertificatesAfterRestart() throws Exception {
+        byte[] before = sign(PdfSigner.CryptoStandard.CADES);
+        Path previous = dir.resolve("anterior.cer");
+        Files.write(previous, signingMaterial.getCurrent().getChain()[0].getEncoded());
+
+        Path rotated = dir.resolve("rotado.p12");
+        writeSelfSignedKeystore(rotated, "CN=USIV Rotado");
+        SigningMaterialRegistry restarted = registry(rotated);
+
+        SignatureVerificationService withoutAnchor = start(restarted, "");
+        SignatureVerificationService.VerificationResult untrusted = withoutAnchor.verify("antes.pdf", before);
+        assertThat(untrusted.isValid()).isFalse();
+        assertThat(untrusted.getSignatures().get(0).isIntegrity()).isTrue();
+        assertThat(untrusted.getSignatures().get(0).isChainValid()).isFalse();
+        withoutAnchor.shutdown();
+
+        SignatureVerificationService withAnchor = start(restarted, " " + previous + " ,");
+        assertThat(withAnchor.verify("antes.pdf", before).isValid()).isTrue();
+        withAnchor.shutdown();
+    }
+
+    private byte[] sign(PdfSigner.CryptoStandard standard) throws Exception {
+        ByteArrayOutputStream unsigned = new ByteArrayOutputStream();
+        try (Document document = new Document(new PdfDocument(new PdfWriter(unsigned)))) {
+            document.add(new Paragraph("Informe de verificación"));
+        }
+
+        SigningMaterialRegistry.SigningMaterial material = signingMaterial.getCurrent();
+        ByteArrayOutputStream signed = new ByteArrayOutputStream();
+        PdfSigner signer = new PdfSigner(new PdfReader(new ByteArrayInputStream(unsigned.toByteArray())),
+            signed, new StampingProperties());
+        signer.setFieldName("sig");
+        signer.signDetached(new BouncyCastleDigest(),
+            new PrivateKeySignature(material.getPrivateKey(), DigestAlgorithms.SHA256, BouncyCastleProvider.PROVIDER_NAME),
+            material.getChain(), null, null, null, 0, standard);
+        return signed.toByteArray();
+    }
+
+    private static void writeSelfSignedKeystore(Path file, String subject) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        X500Name name = new X500Name(subject);
+        X509Certificate cert = new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(
+            name, BigInteger.valueOf(System.nanoTime()), Date.from(Instant.now().minus(Duration.ofDays(1))),
+            Date.from(Instant.now().plus(Duration.ofDays(365))), name, keys.getPublic())
+            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keys.getPrivate())));
+
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        ks.setKeyEntry("firma", keys.getPrivate(), PASSWORD.toCharArray(), new Certificate[]{cert});
+        try (OutputStream out = Files.newOutputStream(file)) {
+            ks.store(out, PASSWORD.toCharArray());
+        }
+    }
+
+    private static SigningMaterialRegistry registry(Path keystore) throws Exception {
+        SigningMaterialRegistry registry = new SigningMaterialRegistry();
+        ReflectionTestUtils.setField(registry, "keystorePath", keystore.toString());
+        ReflectionTestUtils.setField(registry, "keystorePassword", PASSWORD);
+        ReflectionTestUtils.setField(registry, "meterRegistry", new SimpleMeterRegistry());
+        registry.init();
+        return registry;
+    }
+
+    private static SignatureVerificationService start(SigningMaterialRegistry registry, String trustedCertificates) {
+        SignatureVerificationService service = new SignatureVerificationService();
+        ReflectionTestUtils.setField(service, "cacheMaxEntries", 100L);
+        ReflectionTestUtils.setField(service, "cacheTtlMinutes", 60L);
+        ReflectionTestUtils.setField(service, "workerCount", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 10);
+        ReflectionTestUtils.setField(service, "trustedCertificates", trustedCertificates);
+        ReflectionTestUtils.setField(service, "signingMaterialRegistry", registry);
+        ReflectionTestUtils.setField(service, "fileManagementService", new FileManagementService());
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        service.init();
+        return service;
+    }
+}
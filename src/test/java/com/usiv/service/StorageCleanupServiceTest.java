@@ -0,0 +1,179 @@
+package com.usiv.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageCleanupServiceTest {
+
+    private static final DateTimeFormatter RETIRED_ON = DateTimeFormatter.BASIC_ISO_DATE;
+
+    @TempDir
+    Path dir;
+
+    private final LocalDate today = LocalDate.now(ZoneId.systemDefault());
+    private final LocalDate expired = today.minusMonths(7);
+    private final LocalDate recent = today.minusDays(3);
+
+    private Path base;
+    private Path trash;
+    private DocumentIndex index;
+    private StorageCleanupService cleanup;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        base = dir.resolve("storage");
+        trash = base.resolve("_trash");
+        Files.createDirectories(trash);
+
+        index = new DocumentIndex();
+        ReflectionTestUtils.setField(index, "basePath", base.toString());
+        ReflectionTestUtils.setField(index, "indexDir", dir.resolve("index").toString());
+        ReflectionTestUtils.setField(index, "initialCapacity", 16);
+        ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+        index.init();
+
+        cleanup = new StorageCleanupService();
+        ReflectionTestUtils.setField(cleanup, "basePath", base.toString());
+        ReflectionTestUtils.setField(cleanup, "retentionMonths", 6);
+        ReflectionTestUtils.setField(cleanup, "trashRetentionDays", 30);
+        ReflectionTestUtils.setField(cleanup, "trashFolderName", "_trash");
+        ReflectionTestUtils.setField(cleanup, "parallelism", 2);
+        ReflectionTestUtils.setField(cleanup, "maxDeletesPerSecond", 0);
+        ReflectionTestUtils.setField(cleanup, "documentIndex", index);
+        ReflectionTestUtils.setField(cleanup, "meterRegistry", new SimpleMeterRegistry());
+        cleanup.init();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        index.shutdown();
+    }
+
+    @Test
+    void retiresExpiredPartitionAndDropsItFromIndex() throws IOException {
+        store(expired, "viejo.pdf");
+        store(recent, "nuevo.pdf");
+
+        cleanup.cleanup();
+
+        Path retired = trash.resolve(retiredName(expired));
+        assertThat(retired.resolve("viejo.pdf")).exists();
+        assertThat(partition(expired)).doesNotExist();
+        assertThat(index.contains("viejo.pdf")).isFalse();
+        assertThat(partition(recent).resolve("nuevo.pdf")).exists();
+        assertThat(index.contains("nuevo.pdf")).isTrue();
+        assertThat(trash.resolve(retiredName(expired) + ".pending")).doesNotExist();
+    }
+
+    @Test
+    void expiryIsDecidedByPartitionNameOnly() throws IOException {
+        // Archivos modificados hoy en un día vencido, y archivos antiguos en un día vigente
+        Path old = store(expired, "viejo.pdf");
+        Files.setLastModifiedTime(old, FileTime.from(Instant.now()));
+        Path current = store(recent, "nuevo.pdf");
+        Files.setLastModifiedTime(current, FileTime.from(Instant.now().minus(400, ChronoUnit.DAYS)));
+
+        cleanup.cleanup();
+
+        assertThat(partition(expired)).doesNotExist();
+        assertThat(trash.resolve(retiredName(expired)).resolve("viejo.pdf")).exists();
+        assertThat(current).exists();
+        assertThat(index.contains("nuevo.pdf")).isTrue();
+    }
+
+    @Test
+    void pendingMarkerWithRetiredDirectoryCompletesIndexRemoval() throws IOException {
+        // Una pasada anterior renombró el día y cayó antes de darlo de baja en el índice
+        LocalDate day = expired.minusDays(10);
+        store(day, "pendiente.pdf");
+        String name = retiredName(day);
+        Files.move(partition(day), trash.resolve(name));
+        Files.createFile(trash.resolve(name + ".pending"));
+        assertThat(index.contains("pendiente.pdf")).isTrue();
+
+        cleanup.cleanup();
+
+        assertThat(index.contains("pendiente.pdf")).isFalse();
+        assertThat(trash.resolve(name + ".pending")).doesNotExist();
+        assertThat(trash.resolve(name).resolve("pendiente.pdf")).exists();
+    }
+
+    @Test
+    void pendingMarkerWithoutDirectoryIsDroppedAndPartitionKept() throws IOException {
+        // La pasada anterior cayó antes del renombrado: el día sigue en su lugar
+        store(recent, "vigente.pdf");
+        String name = retiredName(recent);
+        Files.createFile(trash.resolve(name + ".pending"));
+
+        cleanup.cleanup();
+
+        assertThat(trash.resolve(name + ".pending")).doesNotExist();
+        assertThat(partition(recent).resolve("vigente.pdf")).exists();
+        assertThat(index.contains("vigente.pdf")).isTrue();
+    }
+
+    @Test
+    void sameDayRetirementsGetNumberedSuffix() throws IOException {
+        // El mismo día ya se retiró hoy (la partición se volvió a crear después)
+        Path earlier = Files.createDirectories(trash.resolve(retiredName(expired)));
+        Files.write(earlier.resolve("primero.pdf"), new byte[1]);
+        Files.createDirectories(trash.resolve(retiredName(expired) + "_1"));
+        store(expired, "segundo.pdf");
+
+        cleanup.cleanup();
+
+        assertThat(earlier.resolve("primero.pdf")).exists();
+        assertThat(trash.resolve(retiredName(expired) + "_2").resolve("segundo.pdf")).exists();
+        assertThat(index.contains("segundo.pdf")).isFalse();
+    }
+
+    @Test
+    void purgeRespectsTrashRetention() throws IOException {
+        LocalDate longAgo = today.minusDays(31);
+        LocalDate lately = today.minusDays(29);
+        Path due = Files.createDirectories(trash.resolve(longAgo.format(RETIRED_ON) + "_" + expired));
+        Files.write(due.resolve("a.pdf"), new byte[1]);
+        Files.createDirectories(due.resolve("sub"));
+        Files.write(due.resolve("sub").resolve("b.pdf"), new byte[1]);
+        Path kept = Files.createDirectories(trash.resolve(lately.format(RETIRED_ON) + "_" + expired.plusDays(1)));
+        Files.write(kept.resolve("c.pdf"), new byte[1]);
+        // Archivo suelto de la papelera anterior
+        Path looseDue = Files.write(trash.resolve(longAgo.format(RETIRED_ON) + "_101500_viejo.pdf"), new byte[1]);
+
+        cleanup.cleanup();
+
+        assertThat(due).doesNotExist();
+        assertThat(looseDue).doesNotExist();
+        assertThat(kept.resolve("c.pdf")).exists();
+    }
+
+    private Path store(LocalDate day, String filename) throws IOException {
+        Path file = Files.write(Files.createDirectories(partition(day)).resolve(filename), new byte[]{'%', 'P', 'D', 'F'});
+        index.put(filename, file, Files.size(file), null, Instant.now());
+        return file;
+    }
+
+    private Path partition(LocalDate day) {
+        return base.resolve(String.format("%04d/%02d/%02d", day.getYear(), day.getMonthValue(), day.getDayOfMonth()));
+    }
+
+    private String retiredName(LocalDate day) {
+        return today.format(RETIRED_ON) + "_" + day;
+    }
+}